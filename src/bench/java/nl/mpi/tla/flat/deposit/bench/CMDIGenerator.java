@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import javax.xml.transform.stream.StreamSource;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import nl.mpi.tla.flat.deposit.util.Saxon;
+import static nl.mpi.tla.flat.deposit.sip.cmdi.CMD.CMD_NS;
+import static nl.mpi.tla.flat.deposit.sip.cmdi.CMD.LAT_NS;
+
+/**
+ * Generates synthetic CMD records, i.e., SIPs, of a specific size, and
+ * optionally a workspace with the resource files.
+ */
+public class CMDIGenerator {
+
+    static public final String PREFIX = "12345";
+
+    static public final String NAMESPACE = "lat";
+
+    protected int resources = 10;
+
+    protected int collections = 0;
+
+    protected long size = 0L;
+
+    protected boolean archived = false;
+
+    public CMDIGenerator() {
+    }
+
+    public CMDIGenerator(int resources) {
+        this.resources = resources;
+    }
+
+    public CMDIGenerator(int resources, int collections) {
+        this.resources = resources;
+        this.collections = collections;
+    }
+
+    public int getResources() {
+        return this.resources;
+    }
+
+    /**
+     * Set the number of ResourceProxy entries.
+     */
+    public void setResources(int resources) {
+        this.resources = resources;
+    }
+
+    public int getCollections() {
+        return this.collections;
+    }
+
+    /**
+     * Set the number of IsPartOf entries.
+     */
+    public void setCollections(int collections) {
+        this.collections = collections;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Set the size in bytes of each resource file written to a workspace.
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public boolean isArchived() {
+        return this.archived;
+    }
+
+    /**
+     * Let the record, its resources and collections have a PID and a FID,
+     * i.e., as if the SIP has been archived before.
+     */
+    public void setArchived(boolean archived) {
+        this.archived = archived;
+    }
+
+    static public String resourcePID(int r) {
+        return "hdl:" + PREFIX + "/bench-r" + r;
+    }
+
+    static public String resourceFID(int r) {
+        return NAMESPACE + ":" + PREFIX + "_bench_r" + r;
+    }
+
+    static public String collectionPID(int c) {
+        return "hdl:" + PREFIX + "/bench-c" + c;
+    }
+
+    static public String collectionFID(int c) {
+        return NAMESPACE + ":" + PREFIX + "_bench_c" + c;
+    }
+
+    static protected String file(int r) {
+        return "file-" + r + ".txt";
+    }
+
+    public String generate() {
+        StringBuilder rec = new StringBuilder(1024 + this.resources * 512 + this.collections * 128);
+        rec.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        rec.append("<CMD xmlns=\"").append(CMD_NS).append("\" xmlns:lat=\"").append(LAT_NS).append("\" CMDVersion=\"1.1\">\n");
+        rec.append("  <Header>\n");
+        rec.append("    <MdCreator>bench</MdCreator>\n");
+        rec.append("    <MdCreationDate>2017-01-01</MdCreationDate>\n");
+        rec.append("    <MdSelfLink");
+        if (this.archived)
+            rec.append(" lat:flatURI=\"").append(NAMESPACE).append(":").append(PREFIX).append("_bench\"");
+        rec.append(">hdl:").append(PREFIX).append("/bench</MdSelfLink>\n");
+        rec.append("    <MdProfile>clarin.eu:cr1:p_1407745712035</MdProfile>\n");
+        rec.append("  </Header>\n");
+        rec.append("  <Resources>\n");
+        rec.append("    <ResourceProxyList>\n");
+        for (int r = 0; r < this.resources; r++) {
+            rec.append("      <ResourceProxy id=\"r").append(r).append("\">\n");
+            rec.append("        <ResourceType mimetype=\"text/plain\">Resource</ResourceType>\n");
+            rec.append("        <ResourceRef lat:localURI=\"../resources/").append(file(r)).append("\"");
+            if (this.archived)
+                rec.append(" lat:flatURI=\"").append(resourceFID(r)).append("\">").append(resourcePID(r));
+            else
+                rec.append(">../resources/").append(file(r));
+            rec.append("</ResourceRef>\n");
+            rec.append("      </ResourceProxy>\n");
+        }
+        rec.append("    </ResourceProxyList>\n");
+        rec.append("    <JournalFileProxyList/>\n");
+        rec.append("    <ResourceRelationList/>\n");
+        if (this.collections > 0) {
+            rec.append("    <IsPartOfList>\n");
+            for (int c = 0; c < this.collections; c++)
+                rec.append("      <IsPartOf lat:flatURI=\"").append(collectionFID(c)).append("\">").append(collectionPID(c)).append("</IsPartOf>\n");
+            rec.append("    </IsPartOfList>\n");
+        }
+        rec.append("  </Resources>\n");
+        rec.append("  <Components>\n");
+        rec.append("    <lat-session>\n");
+        rec.append("      <Name>bench</Name>\n");
+        rec.append("      <Title>A synthetic SIP with ").append(this.resources).append(" resources</Title>\n");
+        for (int r = 0; r < this.resources; r++) {
+            rec.append("      <Resource ref=\"r").append(r).append("\">\n");
+            rec.append("        <Name>").append(file(r)).append("</Name>\n");
+            rec.append("        <Description>resource ").append(r).append("</Description>\n");
+            rec.append("      </Resource>\n");
+        }
+        rec.append("    </lat-session>\n");
+        rec.append("  </Components>\n");
+        rec.append("</CMD>\n");
+        return rec.toString();
+    }
+
+    public XdmNode toXdmNode() throws SaxonApiException {
+        return Saxon.buildDocument(new StreamSource(new StringReader(generate())));
+    }
+
+    /**
+     * Write the record to the file, e.g., {$work}/metadata/record.cmdi.
+     */
+    public File write(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null)
+            Files.createDirectories(dir.toPath());
+        Files.write(file.toPath(), generate().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Write a SIP workspace, i.e., the record to {$work}/metadata/record.cmdi
+     * and the resource files to {$work}/resources, and return the record.
+     */
+    public File workspace(File work) throws IOException {
+        File res = new File(work, "resources");
+        Files.createDirectories(res.toPath());
+        byte[] line = "The quick brown fox jumps over the lazy dog.\n".getBytes(StandardCharsets.US_ASCII);
+        for (int r = 0; r < this.resources; r++) {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(new File(res, file(r)).toPath()))) {
+                for (long s = 0; s < this.size; s += line.length)
+                    out.write(line, 0, (int) Math.min(line.length, this.size - s));
+            }
+        }
+        return write(new File(work, "metadata/record.cmdi"));
+    }
+
+    static private void showHelp() {
+        System.err.println("INF: CMDIGenerator <OPTIONS> <workspace DIR>");
+        System.err.println("INF: where <OPTIONS> are:");
+        System.err.println("INF: -r <resources> : number of ResourceProxy entries (optional, default: 10)");
+        System.err.println("INF: -c <collections> : number of IsPartOf entries (optional, default: 0)");
+        System.err.println("INF: -s <size> : size in bytes of each resource file (optional, default: 0)");
+        System.err.println("INF: -a : the SIP has been archived before, i.e., has PIDs and FIDs (optional)");
+    }
+
+    public static void main(String[] args) {
+        OptionParser parser = new OptionParser("r:c:s:a?*");
+        OptionSet options = parser.parse(args);
+        if (options.has("?")) {
+            showHelp();
+            System.exit(0);
+        }
+        List arg = options.nonOptionArguments();
+        if (arg.size() != 1) {
+            showHelp();
+            System.exit(1);
+        }
+        CMDIGenerator gen = new CMDIGenerator();
+        try {
+            if (options.has("r"))
+                gen.setResources(Integer.parseInt((String) options.valueOf("r")));
+            if (options.has("c"))
+                gen.setCollections(Integer.parseInt((String) options.valueOf("c")));
+            if (options.has("s"))
+                gen.setSize(Long.parseLong((String) options.valueOf("s")));
+        } catch (NumberFormatException ex) {
+            System.err.println("ERR: invalid number! " + ex.getMessage());
+            showHelp();
+            System.exit(1);
+        }
+        gen.setArchived(options.has("a"));
+        try {
+            System.out.println(gen.workspace(new File((String) arg.get(0))).getAbsolutePath());
+        } catch (IOException ex) {
+            System.err.println("ERR: couldn't write the workspace! " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
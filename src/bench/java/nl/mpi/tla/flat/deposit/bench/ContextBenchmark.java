@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmValue;
+import nl.mpi.tla.flat.deposit.CompiledFlow;
+import nl.mpi.tla.flat.deposit.Context;
+import nl.mpi.tla.flat.deposit.DepositException;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading the parameters of the actions of the FLAT deposit workflow, i.e.,
+ * the expansion of the properties and parameters done JIT for each action.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextBenchmark {
+
+    static public final String FLOW = "/Benchmark/flat-deposit.xml";
+
+    @Param({"log setup", "persist resources", "create FOX"})
+    public String action;
+
+    protected File work;
+    protected CompiledFlow flow;
+    protected Context context;
+    protected XdmValue parameters;
+
+    static public Map<String, XdmValue> params(File work, String sip) {
+        Map<String, XdmValue> params = new HashMap<>();
+        params.put("work", new XdmAtomicValue(work.getAbsolutePath()));
+        params.put("sip", new XdmAtomicValue(sip));
+        return params;
+    }
+
+    @Setup
+    public void setup() throws DepositException, IOException {
+        work = Files.createTempDirectory("bench-").toFile();
+        flow = new CompiledFlow(new StreamSource(ContextBenchmark.class.getResource(FLOW).toString()));
+        context = flow.newFlow(params(work, "bench")).getContext();
+        for (CompiledFlow.ActionSpec spec : flow.getInitActions()) {
+            if (spec.getName().equals(action))
+                parameters = spec.getParameters();
+        }
+        for (CompiledFlow.ActionSpec spec : flow.getMainActions()) {
+            if (spec.getName().equals(action))
+                parameters = spec.getParameters();
+        }
+        if (parameters == null)
+            throw new DepositException("unknown action[" + action + "]!");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        flow.close();
+        FileUtils.deleteDirectory(work);
+    }
+
+    @Benchmark
+    public Map<String, XdmValue> loadParameters() throws Exception {
+        return context.loadParameters(new LinkedHashMap<String, XdmValue>(), parameters, "parameter");
+    }
+
+    @Benchmark
+    public Context newContext() throws DepositException {
+        return flow.newFlow(params(work, "bench")).getContext();
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.transform.stream.StreamSource;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmValue;
+import nl.mpi.tla.flat.deposit.CompiledFlow;
+import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.DoorKeeper;
+import nl.mpi.tla.flat.deposit.monitor.ActionStatistics;
+import nl.mpi.tla.flat.deposit.monitor.CallListenerInterface;
+import nl.mpi.tla.flat.deposit.monitor.ExternalCall;
+import nl.mpi.tla.flat.deposit.monitor.Histogram;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Runs a realistic flow, i.e., SIPLoad, Validate (optional), FITS, FOXCreate,
+ * FedoraInteract, Index and EPICHandleCreation, for a batch of synthetic SIPs
+ * against the local stand-ins of the services, and reports the SIPs per
+ * minute, and the statistics per action and per external call.
+ */
+public class FlowBenchmark {
+
+    static public final String FLOW = "/Benchmark/e2e-flow.xml";
+
+    /**
+     * The statistics of the external calls, keyed by service/operation.
+     */
+    static public class CallStatistics implements CallListenerInterface {
+
+        private final Map<String, Histogram> wall = new ConcurrentHashMap<>();
+        private final Map<String, AtomicLong> failed = new ConcurrentHashMap<>();
+
+        @Override
+        public void called(ExternalCall call) {
+            String key = call.getService() + "/" + call.getOperation();
+            wall.computeIfAbsent(key, k -> new Histogram()).record(call.getDuration());
+            AtomicLong f = failed.computeIfAbsent(key, k -> new AtomicLong());
+            if (call.hasFailed())
+                f.incrementAndGet();
+        }
+
+        public void clear() {
+            wall.clear();
+            failed.clear();
+        }
+
+        public String report() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Histogram> e : new TreeMap<>(wall).entrySet())
+                sb.append("call[").append(e.getKey()).append("] failed[").append(failed.get(e.getKey())).append("]")
+                  .append("\n  wall(ns):  ").append(e.getValue()).append('\n');
+            return sb.toString();
+        }
+    }
+
+    static protected void copy(String resource, File file) throws IOException {
+        try (InputStream in = FlowBenchmark.class.getResourceAsStream(resource)) {
+            if (in == null)
+                throw new IOException("resource[" + resource + "] doesn't exist!");
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static protected void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write the policies, i.e., the configuration of the actions, to
+     * {$base}/policies.
+     */
+    static public void policies(File base, StandIns standins) throws IOException {
+        File policies = new File(base, "policies");
+        Files.createDirectories(policies.toPath());
+        copy("/Benchmark/cmd2fox.xsl", new File(policies, "cmd2fox.xsl"));
+        copy("/Benchmark/fits-mimetypes.xml", new File(policies, "fits-mimetypes.xml"));
+        write(new File(policies, "owner.xml"), "<user>\n    <name>bench</name>\n</user>\n");
+        write(new File(policies, "fedora-config.xml"), "<fedora>\n"
+            + "    <localServer>" + standins.getURL(StandIns.FEDORA) + "</localServer>\n"
+            + "    <publicServer>" + standins.getURL(StandIns.FEDORA) + "</publicServer>\n"
+            + "    <userName>fedoraAdmin</userName>\n"
+            + "    <userPass>fedora</userPass>\n"
+            + "</fedora>\n");
+        // the keys of the epicify PIDService configuration
+        write(new File(policies, "epic-config.xml"), "<epic>\n"
+            + "    <status>production</status>\n"
+            + "    <hostName>localhost</hostName>\n"
+            + "    <URI>" + standins.getURL(StandIns.EPIC) + "/</URI>\n"
+            + "    <HandlePrefix>" + CMDIGenerator.PREFIX + "</HandlePrefix>\n"
+            + "    <userName>bench</userName>\n"
+            + "    <password>bench</password>\n"
+            + "    <email>bench@localhost</email>\n"
+            + "    <version>2</version>\n"
+            + "</epic>\n");
+    }
+
+    /**
+     * Generate the SIP workspaces, i.e., {$dir}/{$name}-{$n}.
+     */
+    static public List<File> workspaces(File dir, String name, int sips, CMDIGenerator gen) throws IOException {
+        List<File> work = new ArrayList<>();
+        for (int s = 0; s < sips; s++) {
+            File ws = new File(dir, String.format(Locale.ROOT, "%s-%05d", name, s));
+            gen.workspace(ws);
+            work.add(ws);
+        }
+        return work;
+    }
+
+    static private void showHelp() {
+        System.err.println("INF: FlowBenchmark <OPTIONS> [<DIR>]");
+        System.err.println("INF: where <OPTIONS> are:");
+        System.err.println("INF: -n <sips> : number of SIPs (optional, default: 10)");
+        System.err.println("INF: -u <sips> : number of warmup SIPs, which aren't part of the report (optional, default: 2)");
+        System.err.println("INF: -r <resources> : number of resources per SIP (optional, default: 10)");
+        System.err.println("INF: -s <size> : size in bytes of each resource file (optional, default: 1024)");
+        System.err.println("INF: -w <workers> : number of SIPs processed concurrently (optional, default: 1)");
+        System.err.println("INF: -l <service>=<ms> : latency of a stand-in, i.e., fedora, fits, gsearch or epic (optional, repeatable)");
+        System.err.println("INF: -e <service>=<rate> : failure rate, between 0 and 1, of a stand-in (optional, repeatable)");
+        System.err.println("INF: -p <port> : port of the stand-ins (optional, default: any free port)");
+        System.err.println("INF: -v : validate the CMD records, which needs the CLARIN component registry or a filled {$DIR}/cache/schemas (optional)");
+        System.err.println("INF: and <DIR> is the directory for the SIPs and policies (optional, default: a temporary directory, which is removed afterwards)");
+    }
+
+    static private String[] split(Object pv) {
+        String[] s = ((String) pv).split("=");
+        if (s.length != 2 || !StandIns.isService(s[0]))
+            throw new IllegalArgumentException("[" + pv + "] isn't a valid <service>=<value>!");
+        return s;
+    }
+
+    public static void main(String[] args) {
+        OptionParser parser = new OptionParser("n:u:r:s:w:l:e:p:v?*");
+        OptionSet options = parser.parse(args);
+        if (options.has("?")) {
+            showHelp();
+            System.exit(0);
+        }
+        List arg = options.nonOptionArguments();
+        if (arg.size() > 1) {
+            showHelp();
+            System.exit(1);
+        }
+        int sips = 10;
+        int warmup = 2;
+        int workers = 1;
+        int port = 0;
+        CMDIGenerator gen = new CMDIGenerator(10);
+        gen.setSize(1024L);
+        StandIns standins = null;
+        try {
+            if (options.has("n"))
+                sips = Integer.parseInt((String) options.valueOf("n"));
+            if (options.has("u"))
+                warmup = Integer.parseInt((String) options.valueOf("u"));
+            if (options.has("r"))
+                gen.setResources(Integer.parseInt((String) options.valueOf("r")));
+            if (options.has("s"))
+                gen.setSize(Long.parseLong((String) options.valueOf("s")));
+            if (options.has("w"))
+                workers = Integer.parseInt((String) options.valueOf("w"));
+            if (options.has("p"))
+                port = Integer.parseInt((String) options.valueOf("p"));
+            standins = new StandIns(port);
+            for (Object l : options.valuesOf("l")) {
+                String[] s = split(l);
+                standins.setLatency(s[0], Long.parseLong(s[1]));
+            }
+            for (Object e : options.valuesOf("e")) {
+                String[] s = split(e);
+                standins.setFailureRate(s[0], Double.parseDouble(s[1]));
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println("ERR: invalid option! " + ex.getMessage());
+            showHelp();
+            System.exit(1);
+        }
+
+        File dir = null;
+        CompiledFlow flow = null;
+        boolean temp = arg.isEmpty();
+        CallStatistics calls = new CallStatistics();
+        int res = 1;
+        try {
+            dir = (temp ? Files.createTempDirectory("flow-bench-").toFile() : new File((String) arg.get(0)).getAbsoluteFile());
+            standins.start();
+            policies(dir, standins);
+            List<File> warm = workspaces(new File(dir, "warmup"), "sip", warmup, gen);
+            List<File> work = workspaces(new File(dir, "sips"), "sip", sips, gen);
+
+            flow = new CompiledFlow(new StreamSource(FlowBenchmark.class.getResource(FLOW).toString()));
+            ActionStatistics stats = new ActionStatistics();
+            flow.addListener(stats);
+            ExternalCall.addListener(calls);
+
+            Map<String, XdmValue> params = new HashMap<>();
+            params.put("base", new XdmAtomicValue(dir.getAbsolutePath()));
+            params.put("fitsService", new XdmAtomicValue(standins.getURL(StandIns.FITS)));
+            params.put("gsearchServer", new XdmAtomicValue(standins.getURL(StandIns.GSEARCH)));
+            params.put("validate", new XdmAtomicValue(String.valueOf(options.has("v"))));
+
+            if (!warm.isEmpty()) {
+                System.out.println("INF: warmup");
+                DoorKeeper.runBatch(flow, warm, "work", params, null, null, workers);
+                stats.clear();
+                calls.clear();
+                standins.resetCounts();
+            }
+
+            System.out.println("INF: benchmark");
+            long begin = System.nanoTime();
+            res = DoorKeeper.runBatch(flow, work, "work", params, null, null, workers);
+            long elapsed = System.nanoTime() - begin;
+
+            StringBuilder report = new StringBuilder();
+            report.append("INF: external call statistics:\n").append(calls.report());
+            for (String service : StandIns.SERVICES)
+                report.append("INF: stand-in[").append(service).append("] latency[").append(standins.getLatency(service)).append(" ms]")
+                      .append(" failure rate[").append(standins.getFailureRate(service)).append("]")
+                      .append(" requests[").append(standins.getRequests(service)).append("]")
+                      .append(" injected failures[").append(standins.getFailures(service)).append("]\n");
+            report.append(String.format(Locale.ROOT, "INF: %d SIPs with %d resources each, on %d workers, in %.1f s: %.1f SIPs/minute",
+                sips, gen.getResources(), workers, elapsed / 1e9, sips * 60e9 / elapsed));
+            System.out.println(report);
+        } catch (IOException | DepositException | InterruptedException ex) {
+            System.err.println("ERR: the flow benchmark failed! " + ex.getMessage());
+            res = 1;
+        } finally {
+            if (flow != null)
+                flow.close();
+            ExternalCall.removeListener(calls);
+            standins.stop();
+            if (temp && dir != null)
+                FileUtils.deleteQuietly(dir);
+        }
+        System.exit(res);
+    }
+}
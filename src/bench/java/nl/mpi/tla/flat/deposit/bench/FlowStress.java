@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.transform.stream.StreamSource;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
+import nl.mpi.tla.flat.deposit.CompiledFlow;
+import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.DoorKeeper;
+import nl.mpi.tla.flat.deposit.util.Saxon;
+import org.apache.commons.io.FileUtils;
+import static nl.mpi.tla.flat.deposit.util.Global.NAMESPACES;
+
+/**
+ * Runs many flows concurrently, i.e., the end-to-end flow with its
+ * independent actions in parallel, for a batch of synthetic SIPs against the
+ * local stand-ins of the services, and checks that every SIP succeeded and
+ * that no SIP got mixed up with another: each SIP should have its own PIDs
+ * and FIDs, which should exist in the stand-ins, and its FOX files should
+ * only contain its own objects.
+ */
+public class FlowStress {
+
+    static public final String FLOW = "/Benchmark/stress-flow.xml";
+
+    // the identifiers of a SIP, i.e., of its compound and its resources
+    static private class Identifiers {
+        final List<String> pids = new ArrayList<>();
+        final List<String> fids = new ArrayList<>();
+    }
+
+    // a Fedora object is identified by the FID without a datastream or a version
+    static private String object(String fid) {
+        return fid.replaceFirst("[#@].*$", "");
+    }
+
+    static private Identifiers identifiers(File work) throws SaxonApiException {
+        XdmNode rec = Saxon.buildDocument(new StreamSource(new File(work, "metadata/record.cmdi")));
+        Identifiers ids = new Identifiers();
+        for (XdmItem ref : Saxon.xpathList(rec, "/cmd:CMD/cmd:Header/cmd:MdSelfLink|/cmd:CMD/cmd:Resources/cmd:ResourceProxyList/cmd:ResourceProxy[cmd:ResourceType='Resource']/cmd:ResourceRef", null, NAMESPACES)) {
+            ids.pids.add(Saxon.xpath2string(ref, "normalize-space(.)"));
+            ids.fids.add(object(Saxon.xpath2string(ref, "normalize-space(@lat:flatURI)", null, NAMESPACES)));
+        }
+        return ids;
+    }
+
+    /**
+     * Check the SIPs after the run, and return the problems found.
+     */
+    static public List<String> check(List<File> work, int resources, StandIns standins) throws SaxonApiException {
+        List<String> problems = new ArrayList<>();
+        Map<String, File> owner = new HashMap<>();
+        for (File ws : work) {
+            Identifiers ids = identifiers(ws);
+            if (ids.pids.size() != resources + 1)
+                problems.add("SIP[" + ws + "] has " + (ids.pids.size() - 1) + " resources instead of " + resources + "!");
+            for (int i = 0; i < ids.pids.size(); i++) {
+                String pid = ids.pids.get(i);
+                String fid = ids.fids.get(i);
+                if (!pid.startsWith("hdl:" + CMDIGenerator.PREFIX + "/") || fid.isEmpty()) {
+                    problems.add("SIP[" + ws + "] has an incomplete PID[" + pid + "] FID[" + fid + "]!");
+                    continue;
+                }
+                for (String id : new String[]{pid, fid}) {
+                    File other = owner.putIfAbsent(id, ws);
+                    if (other != null)
+                        problems.add("SIP[" + ws + "] and SIP[" + other + "] share [" + id + "]!");
+                }
+                if (!standins.objects.containsKey(fid))
+                    problems.add("SIP[" + ws + "] FID[" + fid + "] isn't in Fedora!");
+                String loc = standins.handles.get(pid.replaceFirst("^hdl:", ""));
+                if (loc == null)
+                    problems.add("SIP[" + ws + "] PID[" + pid + "] isn't registered!");
+                else if (!loc.contains(fid.replaceFirst("^[^:]*:", "")))
+                    problems.add("SIP[" + ws + "] PID[" + pid + "] resolves to URI[" + loc + "] instead of FID[" + fid + "]!");
+            }
+            File[] foxes = new File(ws, "fox").listFiles((dir, name) -> name.endsWith(".xml"));
+            if (foxes == null || foxes.length == 0) {
+                problems.add("SIP[" + ws + "] has no FOX files!");
+                continue;
+            }
+            for (File fox : foxes) {
+                String fid = Saxon.xpath2string(Saxon.buildDocument(new StreamSource(fox)), "/*/@PID");
+                if (!ids.fids.contains(fid))
+                    problems.add("SIP[" + ws + "] FOX[" + fox.getName() + "] contains the object[" + fid + "] of another SIP!");
+            }
+        }
+        if (standins.objects.size() != work.size() * (resources + 1))
+            problems.add("Fedora contains " + standins.objects.size() + " objects instead of " + (work.size() * (resources + 1)) + "!");
+        return problems;
+    }
+
+    static private void showHelp() {
+        System.err.println("INF: FlowStress <OPTIONS> [<DIR>]");
+        System.err.println("INF: where <OPTIONS> are:");
+        System.err.println("INF: -n <sips> : number of SIPs (optional, default: 100)");
+        System.err.println("INF: -r <resources> : number of resources per SIP (optional, default: 5)");
+        System.err.println("INF: -w <workers> : number of SIPs processed concurrently (optional, default: 16)");
+        System.err.println("INF: -l <ms> : latency of all the stand-ins, to let the flows overlap (optional, default: 5)");
+        System.err.println("INF: -p <port> : port of the stand-ins (optional, default: any free port)");
+        System.err.println("INF: and <DIR> is the directory for the SIPs and policies (optional, default: a temporary directory, which is removed afterwards)");
+    }
+
+    public static void main(String[] args) {
+        OptionParser parser = new OptionParser("n:r:w:l:p:?*");
+        OptionSet options = parser.parse(args);
+        if (options.has("?")) {
+            showHelp();
+            System.exit(0);
+        }
+        List arg = options.nonOptionArguments();
+        if (arg.size() > 1) {
+            showHelp();
+            System.exit(1);
+        }
+        int sips = 100;
+        int workers = 16;
+        long latency = 5L;
+        int port = 0;
+        CMDIGenerator gen = new CMDIGenerator(5);
+        gen.setSize(256L);
+        try {
+            if (options.has("n"))
+                sips = Integer.parseInt((String) options.valueOf("n"));
+            if (options.has("r"))
+                gen.setResources(Integer.parseInt((String) options.valueOf("r")));
+            if (options.has("w"))
+                workers = Integer.parseInt((String) options.valueOf("w"));
+            if (options.has("l"))
+                latency = Long.parseLong((String) options.valueOf("l"));
+            if (options.has("p"))
+                port = Integer.parseInt((String) options.valueOf("p"));
+        } catch (IllegalArgumentException ex) {
+            System.err.println("ERR: invalid option! " + ex.getMessage());
+            showHelp();
+            System.exit(1);
+        }
+        StandIns standins = new StandIns(port);
+        for (String service : StandIns.SERVICES)
+            standins.setLatency(service, latency);
+
+        File dir = null;
+        CompiledFlow flow = null;
+        boolean temp = arg.isEmpty();
+        int res = 1;
+        try {
+            dir = (temp ? Files.createTempDirectory("flow-stress-").toFile() : new File((String) arg.get(0)).getAbsoluteFile());
+            standins.start();
+            FlowBenchmark.policies(dir, standins);
+            List<File> work = FlowBenchmark.workspaces(new File(dir, "sips"), "sip", sips, gen);
+
+            flow = new CompiledFlow(new StreamSource(FlowStress.class.getResource(FLOW).toString()));
+            Map<String, XdmValue> params = new HashMap<>();
+            params.put("base", new XdmAtomicValue(dir.getAbsolutePath()));
+            params.put("fitsService", new XdmAtomicValue(standins.getURL(StandIns.FITS)));
+            params.put("gsearchServer", new XdmAtomicValue(standins.getURL(StandIns.GSEARCH)));
+            params.put("validate", new XdmAtomicValue("false"));
+
+            System.out.println("INF: stress");
+            res = DoorKeeper.runBatch(flow, work, "work", params, null, null, workers);
+            if (res != 0)
+                System.err.println("ERR: not all SIPs succeeded!");
+
+            List<String> problems = check(work, gen.getResources(), standins);
+            for (String problem : problems)
+                System.err.println("ERR: " + problem);
+            if (!problems.isEmpty())
+                res = 1;
+            System.out.println("INF: " + sips + " SIPs with " + gen.getResources() + " resources each, on " + workers + " workers: "
+                + (res == 0 ? "OK" : "FAILED with " + problems.size() + " problems"));
+        } catch (IOException | DepositException | SaxonApiException | InterruptedException ex) {
+            System.err.println("ERR: the flow stress test failed! " + ex.getMessage());
+            res = 1;
+        } finally {
+            if (flow != null)
+                flow.close();
+            standins.stop();
+            if (temp && dir != null)
+                FileUtils.deleteQuietly(dir);
+        }
+        System.exit(res);
+    }
+}
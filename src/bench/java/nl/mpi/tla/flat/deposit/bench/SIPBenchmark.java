@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmValue;
+import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.sip.Collection;
+import nl.mpi.tla.flat.deposit.sip.Resource;
+import nl.mpi.tla.flat.deposit.sip.cmdi.CMD;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The CMD SIP model on synthetic, archived, SIPs: construction, i.e., loading
+ * the record, its resources and collections, the lookups by PID and FID, the
+ * dirty check and saving.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SIPBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int resources;
+
+    @Param({"10"})
+    public int collections;
+
+    protected File work;
+    protected File record;
+    protected XdmValue namespaces = new XdmAtomicValue(CMDIGenerator.NAMESPACE);
+    protected CMD sip;
+    protected URI pid;
+    protected URI fid;
+    protected URI col;
+
+    @Setup
+    public void setup() throws DepositException, IOException {
+        work = Files.createTempDirectory("bench-").toFile();
+        CMDIGenerator gen = new CMDIGenerator(resources, collections);
+        gen.setArchived(true);
+        record = gen.workspace(work);
+        sip = load();
+        // save once, so the SIP is clean
+        sip.save(true);
+        // the last ones are the worst case for a sequential lookup
+        pid = URI.create(CMDIGenerator.resourcePID(resources - 1));
+        fid = URI.create(CMDIGenerator.resourceFID(resources - 1));
+        col = URI.create(CMDIGenerator.collectionPID(collections - 1));
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeBackups() {
+        SIPScaling.removeBackups(record);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(work);
+    }
+
+    @Benchmark
+    public CMD load() throws DepositException {
+        return new CMD(record, CMDIGenerator.NAMESPACE, namespaces);
+    }
+
+    @Benchmark
+    public Resource getResource() throws DepositException {
+        return sip.getResource(pid);
+    }
+
+    @Benchmark
+    public Resource getResourceByFID() throws DepositException {
+        return sip.getResourceByFID(fid);
+    }
+
+    @Benchmark
+    public Collection getCollection() throws DepositException {
+        return sip.getCollection(col);
+    }
+
+    @Benchmark
+    public boolean isDirty() {
+        return sip.isDirty();
+    }
+
+    @Benchmark
+    public boolean save() throws DepositException {
+        return sip.save(true);
+    }
+}
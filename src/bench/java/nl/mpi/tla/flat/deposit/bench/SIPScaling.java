@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.bench;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Locale;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmValue;
+import nl.mpi.tla.flat.deposit.sip.cmdi.CMD;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The throughput of the CMD SIP model for increasingly larger SIPs, i.e.,
+ * how it scales, which for the largest SIPs would take JMH too long.
+ * Prints a tab separated table with the operations per second.
+ */
+public class SIPScaling {
+
+    interface Operation {
+        public void run(int i) throws Exception;
+    }
+
+    // run the operation repeatedly for about a second, after a warmup, and return the operations per second
+    static double throughput(Operation op) throws Exception {
+        long end = System.nanoTime() + 200000000L;
+        int n = 0;
+        while (System.nanoTime() < end)
+            op.run(n++);
+        long start = System.nanoTime();
+        end = start + 1000000000L;
+        n = 0;
+        long now;
+        do {
+            op.run(n++);
+            now = System.nanoTime();
+        } while (now < end);
+        return n / ((now - start) / 1e9);
+    }
+
+    // CMD.save keeps a timestamped backup for each save
+    static void removeBackups(File record) {
+        for (File bak : record.getParentFile().listFiles()) {
+            if (!bak.getName().equals(record.getName()) && !bak.getName().endsWith(".org"))
+                bak.delete();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int max = (args.length > 0 ? Integer.parseInt(args[0]) : 51200);
+        int collections = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+        XdmValue namespaces = new XdmAtomicValue(CMDIGenerator.NAMESPACE);
+        System.out.println("resources\tload\tgetResource\tgetResourceByFID\tgetCollection\tisDirty\tsave");
+        for (int resources = 100; resources <= max; resources *= 2) {
+            final int size = resources;
+            File work = Files.createTempDirectory("bench-").toFile();
+            try {
+                CMDIGenerator gen = new CMDIGenerator(resources, collections);
+                gen.setArchived(true);
+                final File record = gen.workspace(work);
+                final CMD sip = new CMD(record, CMDIGenerator.NAMESPACE, namespaces);
+                sip.save(true);
+                final URI[] pids = new URI[resources];
+                final URI[] fids = new URI[resources];
+                for (int r = 0; r < resources; r++) {
+                    pids[r] = URI.create(CMDIGenerator.resourcePID(r));
+                    fids[r] = URI.create(CMDIGenerator.resourceFID(r));
+                }
+                final URI col = URI.create(CMDIGenerator.collectionPID(collections - 1));
+                StringBuilder row = new StringBuilder().append(resources);
+                for (double ops : new double[] {
+                    throughput(i -> new CMD(record, CMDIGenerator.NAMESPACE, namespaces)),
+                    throughput(i -> sip.getResource(pids[i % size])),
+                    throughput(i -> sip.getResourceByFID(fids[i % size])),
+                    throughput(i -> sip.getCollection(col)),
+                    throughput(i -> sip.isDirty()),
+                    throughput(i -> { sip.save(true); removeBackups(record); })
+                })
+                    row.append('\t').append(String.format(Locale.ROOT, "%.1f", ops));
+                System.out.println(row);
+            } finally {
+                FileUtils.deleteDirectory(work);
+            }
+        }
+    }
+}
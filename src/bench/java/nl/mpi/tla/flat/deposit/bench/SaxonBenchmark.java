@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
+import nl.mpi.tla.flat.deposit.util.Saxon;
+import static nl.mpi.tla.flat.deposit.util.Global.NAMESPACES;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * The XPath, AVT and serialization hot paths of the Saxon utility layer on a
+ * synthetic CMD record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaxonBenchmark {
+
+    @Param({"10", "1000"})
+    public int resources;
+
+    protected XdmNode rec;
+    protected XdmNode proxy;
+    protected Document dom;
+    protected Map<String, XdmValue> vars = new HashMap<>();
+    protected File out;
+
+    @Setup
+    public void setup() throws Exception {
+        CMDIGenerator gen = new CMDIGenerator(resources);
+        rec = gen.toXdmNode();
+        proxy = (XdmNode) Saxon.xpathSingle(rec, "/cmd:CMD/cmd:Resources/cmd:ResourceProxyList/cmd:ResourceProxy[last()]", null, NAMESPACES);
+        File cmdi = gen.write(File.createTempFile("bench-", ".cmdi"));
+        dom = Saxon.buildDOM(cmdi);
+        Files.delete(cmdi.toPath());
+        vars.put("work", new XdmAtomicValue("/app/flat/deposit/bags/bench/data"));
+        vars.put("epicPrefix", new XdmAtomicValue(CMDIGenerator.PREFIX));
+        out = File.createTempFile("bench-", ".xml");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(out.toPath());
+    }
+
+    @Benchmark
+    public XdmValue xpath() throws SaxonApiException {
+        return Saxon.xpath(rec, "/cmd:CMD/cmd:Resources/cmd:ResourceProxyList/cmd:ResourceProxy[cmd:ResourceType='Resource']", null, NAMESPACES);
+    }
+
+    @Benchmark
+    public String xpath2string() throws SaxonApiException {
+        return Saxon.xpath2string(rec, "/cmd:CMD/cmd:Header/cmd:MdSelfLink", null, NAMESPACES);
+    }
+
+    @Benchmark
+    public boolean xpath2boolean() throws SaxonApiException {
+        return Saxon.xpath2boolean(rec, "exists(/cmd:CMD/cmd:Resources/cmd:IsPartOfList/cmd:IsPartOf)", null, NAMESPACES);
+    }
+
+    @Benchmark
+    public boolean hasAttribute() throws SaxonApiException {
+        return Saxon.hasAttribute(proxy, "id");
+    }
+
+    @Benchmark
+    public String avt() throws SaxonApiException {
+        return Saxon.avt("{$work}/resources/{replace(/cmd:CMD/cmd:Header/cmd:MdSelfLink,concat('hdl:',$epicPrefix,'/'),'')}", rec, vars, NAMESPACES);
+    }
+
+    @Benchmark
+    public String avtVariable() throws SaxonApiException {
+        return Saxon.avt("{$work}/metadata/record.cmdi", rec, vars);
+    }
+
+    @Benchmark
+    public String avtConstant() throws SaxonApiException {
+        return Saxon.avt("metadata/record.cmdi", rec, vars);
+    }
+
+    @Benchmark
+    public File save() throws SaxonApiException {
+        Saxon.save(rec, out);
+        return out;
+    }
+
+    @Benchmark
+    public String serialize() throws SaxonApiException {
+        return Saxon.toString(rec);
+    }
+
+    @Benchmark
+    public Node wrapUnwrapDocument() {
+        return Saxon.unwrapNode(Saxon.wrapNode(dom));
+    }
+
+    @Benchmark
+    public XdmItem wrapUnwrapElement() throws SaxonApiException {
+        XdmNode doc = Saxon.wrapNode(dom);
+        Node res = Saxon.unwrapNode((XdmNode) Saxon.xpathSingle(doc, "/cmd:CMD/cmd:Resources/cmd:ResourceProxyList/cmd:ResourceProxy[1]", null, NAMESPACES));
+        return Saxon.wrapNode(res);
+    }
+}
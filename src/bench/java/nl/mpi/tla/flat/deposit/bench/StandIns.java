@@ -0,0 +1,502 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Embedded HTTP stand-ins for the services a FLAT deposit talks to: the
+ * Fedora Commons REST API, the FITS examine service, the gsearch REST
+ * endpoint and the EPIC handle API. Only the subset of the APIs used by the
+ * actions is implemented, and each service can be given a latency and a
+ * failure rate.
+ */
+public class StandIns {
+
+    private static final Logger logger = LoggerFactory.getLogger(StandIns.class.getName());
+
+    static public final String FEDORA = "fedora";
+    static public final String FITS = "fits";
+    static public final String GSEARCH = "gsearch";
+    static public final String EPIC = "epic";
+
+    static public final String[] SERVICES = {FEDORA, FITS, GSEARCH, EPIC};
+
+    static private final Map<String, String> PATHS = new HashMap<>();
+    static {
+        PATHS.put(FEDORA, "/fedora");
+        PATHS.put(FITS, "/fits");
+        PATHS.put(GSEARCH, "/fedoragsearch");
+        PATHS.put(EPIC, "/epic");
+    }
+
+    static private final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    static private final Pattern FOX_PID = Pattern.compile("<(?:\\w+:)?digitalObject[^>]*\\sPID=\"([^\"]+)\"");
+
+    static private final Pattern EPIC_URL = Pattern.compile("\"(?:parsed_data|value)\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    static private final String FEDORA_ACCESS = "http://www.fedora.info/definitions/1/0/access/";
+    static private final String FEDORA_MANAGEMENT = "http://www.fedora.info/definitions/1/0/management/";
+
+    protected final int port;
+    protected HttpServer server = null;
+    protected ExecutorService pool = null;
+
+    protected final Map<String, Long> latency = new ConcurrentHashMap<>();
+    protected final Map<String, Double> failureRate = new ConcurrentHashMap<>();
+    protected final Map<String, AtomicLong> requests = new ConcurrentHashMap<>();
+    protected final Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+
+    // the state of the stand-ins: the Fedora objects and datastreams with their last modification, and the handles
+    protected final ConcurrentMap<String, Long> objects = new ConcurrentHashMap<>();
+    protected final ConcurrentMap<String, Long> datastreams = new ConcurrentHashMap<>();
+    protected final ConcurrentMap<String, String> handles = new ConcurrentHashMap<>();
+    protected final AtomicLong indexed = new AtomicLong();
+
+    // Fedora dates have a millisecond precision, and should increase for each modification
+    protected final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Stand-ins on the port, or any free port when it's 0.
+     */
+    public StandIns(int port) {
+        this.port = port;
+        for (String service : SERVICES) {
+            requests.put(service, new AtomicLong());
+            failures.put(service, new AtomicLong());
+        }
+    }
+
+    public StandIns() {
+        this(0);
+    }
+
+    static public boolean isService(String service) {
+        return PATHS.containsKey(service);
+    }
+
+    /**
+     * Set the latency in milliseconds added to each request to the service.
+     */
+    public void setLatency(String service, long ms) {
+        if (!isService(service))
+            throw new IllegalArgumentException("unknown service[" + service + "]!");
+        latency.put(service, ms);
+    }
+
+    public long getLatency(String service) {
+        return latency.getOrDefault(service, 0L);
+    }
+
+    /**
+     * Set the rate, between 0 and 1, of the requests to the service that fail,
+     * i.e., get a 503 Service Unavailable response.
+     */
+    public void setFailureRate(String service, double rate) {
+        if (!isService(service))
+            throw new IllegalArgumentException("unknown service[" + service + "]!");
+        if (rate < 0.0 || rate > 1.0)
+            throw new IllegalArgumentException("failure rate[" + rate + "] should be between 0 and 1!");
+        failureRate.put(service, rate);
+    }
+
+    public double getFailureRate(String service) {
+        return failureRate.getOrDefault(service, 0.0);
+    }
+
+    public long getRequests(String service) {
+        return requests.get(service).get();
+    }
+
+    public long getFailures(String service) {
+        return failures.get(service).get();
+    }
+
+    /**
+     * Reset the request and failure counts, but keep the state.
+     */
+    public void resetCounts() {
+        for (String service : SERVICES) {
+            requests.get(service).set(0L);
+            failures.get(service).set(0L);
+        }
+    }
+
+    public synchronized void start() throws IOException {
+        if (server != null)
+            return;
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext(PATHS.get(FEDORA), new StandIn(FEDORA) {
+            @Override
+            protected void serve(HttpExchange exchange, String path) throws IOException {
+                fedora(exchange, path);
+            }
+        });
+        server.createContext(PATHS.get(FITS), new StandIn(FITS) {
+            @Override
+            protected void serve(HttpExchange exchange, String path) throws IOException {
+                fits(exchange, path);
+            }
+        });
+        server.createContext(PATHS.get(GSEARCH), new StandIn(GSEARCH) {
+            @Override
+            protected void serve(HttpExchange exchange, String path) throws IOException {
+                gsearch(exchange, path);
+            }
+        });
+        server.createContext(PATHS.get(EPIC), new StandIn(EPIC) {
+            @Override
+            protected void serve(HttpExchange exchange, String path) throws IOException {
+                epic(exchange, path);
+            }
+        });
+        // concurrent flows shouldn't queue up behind the latency of each other's requests
+        pool = Executors.newCachedThreadPool();
+        server.setExecutor(pool);
+        server.start();
+        logger.info("service stand-ins are served on http://localhost:" + getPort() + "/");
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            pool.shutdownNow();
+            server = null;
+            pool = null;
+        }
+    }
+
+    public int getPort() {
+        return (server != null ? server.getAddress().getPort() : port);
+    }
+
+    /**
+     * The base URL of the service, e.g., http://localhost:8080/fedora.
+     */
+    public String getURL(String service) {
+        if (!isService(service))
+            throw new IllegalArgumentException("unknown service[" + service + "]!");
+        return "http://localhost:" + getPort() + PATHS.get(service);
+    }
+
+    protected String now() {
+        long now = System.currentTimeMillis();
+        long prev;
+        do {
+            prev = clock.get();
+            if (now <= prev)
+                now = prev + 1;
+        } while (!clock.compareAndSet(prev, now));
+        return DATE.format(Instant.ofEpochMilli(now));
+    }
+
+    static protected String date(long ms) {
+        return DATE.format(Instant.ofEpochMilli(ms));
+    }
+
+    static protected long millis(String date) {
+        return Instant.from(DATE.parse(date)).toEpochMilli();
+    }
+
+    static protected Map<String, String> query(HttpExchange exchange) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                int sep = param.indexOf('=');
+                if (sep < 0)
+                    params.put(URLDecoder.decode(param, "UTF-8"), "");
+                else
+                    params.put(URLDecoder.decode(param.substring(0, sep), "UTF-8"), URLDecoder.decode(param.substring(sep + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    static protected byte[] read(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                body.write(buf, 0, n);
+            return body.toByteArray();
+        }
+    }
+
+    static protected void respond(HttpExchange exchange, int status, String type, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    static protected String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Handles the latency, the failures and the counts of a service.
+     */
+    abstract protected class StandIn implements HttpHandler {
+
+        protected final String service;
+
+        StandIn(String service) {
+            this.service = service;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                requests.get(service).incrementAndGet();
+                long ms = getLatency(service);
+                if (ms > 0)
+                    Thread.sleep(ms);
+                double rate = getFailureRate(service);
+                if (rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate) {
+                    failures.get(service).incrementAndGet();
+                    read(exchange);
+                    respond(exchange, 503, "text/plain", "injected failure of the " + service + " stand-in");
+                    return;
+                }
+                String path = exchange.getRequestURI().getPath().substring(PATHS.get(service).length());
+                serve(exchange, path);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, "text/plain", "the " + service + " stand-in has been stopped");
+            } catch (IOException | RuntimeException e) {
+                logger.error("the " + service + " stand-in failed!", e);
+                respond(exchange, 500, "text/plain", String.valueOf(e.getMessage()));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        abstract protected void serve(HttpExchange exchange, String path) throws IOException;
+    }
+
+    // Fedora Commons 3 REST API: describe, risearch, ingest, object profiles and datastreams
+    protected void fedora(HttpExchange exchange, String path) throws IOException {
+        String method = exchange.getRequestMethod();
+        String[] steps = path.replaceFirst("^/", "").split("/");
+        if (steps[0].equals("describe")) {
+            respond(exchange, 200, "text/xml", "<fedoraRepository xmlns=\"" + FEDORA_ACCESS + "\">"
+                + "<repositoryName>DoorKeeper stand-in</repositoryName>"
+                + "<repositoryBaseURL>" + getURL(FEDORA) + "</repositoryBaseURL>"
+                + "<repositoryVersion>3.8.1</repositoryVersion>"
+                + "</fedoraRepository>");
+        } else if (steps[0].equals("risearch")) {
+            // nothing is known, so queries return no results
+            respond(exchange, 200, "text/xml", "<sparql xmlns=\"http://www.w3.org/2001/sw/DataAccess/rdf-sparql-XMLres#\"><head/><results/></sparql>");
+        } else if (steps[0].equals("objects") && steps.length == 2) {
+            String pid = steps[1];
+            if (method.equals("POST")) {
+                String fox = new String(read(exchange), StandardCharsets.UTF_8);
+                if (pid.equals("new")) {
+                    Matcher m = FOX_PID.matcher(fox);
+                    pid = (m.find() ? m.group(1) : "bench:" + UUID.randomUUID());
+                }
+                if (objects.putIfAbsent(pid, millis(now())) != null) {
+                    respond(exchange, 500, "text/plain", "object[" + pid + "] already exists!");
+                    return;
+                }
+                exchange.getResponseHeaders().set("Location", getURL(FEDORA) + "/objects/" + pid);
+                respond(exchange, 201, "text/plain", pid);
+            } else if (!objects.containsKey(pid)) {
+                read(exchange);
+                respond(exchange, 404, "text/plain", "object[" + pid + "] doesn't exist!");
+            } else if (method.equals("GET")) {
+                String last = date(objects.get(pid));
+                respond(exchange, 200, "text/xml", "<objectProfile xmlns=\"" + FEDORA_ACCESS + "\" pid=\"" + escape(pid) + "\">"
+                    + "<objLabel>" + escape(pid) + "</objLabel>"
+                    + "<objOwnerId>bench</objOwnerId>"
+                    + "<objModels><model>info:fedora/fedora-system:FedoraObject-3.0</model></objModels>"
+                    + "<objCreateDate>" + last + "</objCreateDate>"
+                    + "<objLastModDate>" + last + "</objLastModDate>"
+                    + "<objState>A</objState>"
+                    + "</objectProfile>");
+            } else if (method.equals("PUT")) {
+                read(exchange);
+                String last = now();
+                objects.put(pid, millis(last));
+                respond(exchange, 200, "text/plain", last);
+            } else if (method.equals("DELETE")) {
+                String prefix = pid + "/";
+                objects.remove(pid);
+                datastreams.keySet().removeIf(ds -> ds.startsWith(prefix));
+                respond(exchange, 200, "text/plain", now());
+            } else
+                respond(exchange, 405, "text/plain", method + " isn't supported!");
+        } else if (steps[0].equals("objects") && steps.length >= 4 && steps[2].equals("datastreams")) {
+            String pid = steps[1];
+            String dsid = steps[3];
+            String key = pid + "/" + dsid;
+            read(exchange);
+            if (!objects.containsKey(pid)) {
+                respond(exchange, 404, "text/plain", "object[" + pid + "] doesn't exist!");
+            } else if (steps.length == 5 && steps[4].equals("content")) {
+                if (datastreams.containsKey(key))
+                    respond(exchange, 200, "application/octet-stream", "");
+                else
+                    respond(exchange, 404, "text/plain", "datastream[" + key + "] doesn't exist!");
+            } else if (method.equals("POST") || method.equals("PUT")) {
+                if (method.equals("PUT") && !datastreams.containsKey(key)) {
+                    respond(exchange, 404, "text/plain", "datastream[" + key + "] doesn't exist!");
+                    return;
+                }
+                String last = now();
+                long ms = millis(last);
+                datastreams.put(key, ms);
+                objects.put(pid, ms);
+                respond(exchange, (method.equals("POST") ? 201 : 200), "text/xml", datastreamProfile(pid, dsid, last));
+            } else if (!datastreams.containsKey(key)) {
+                respond(exchange, 404, "text/plain", "datastream[" + key + "] doesn't exist!");
+            } else if (method.equals("GET")) {
+                respond(exchange, 200, "text/xml", datastreamProfile(pid, dsid, date(datastreams.get(key))));
+            } else if (method.equals("DELETE")) {
+                datastreams.remove(key);
+                respond(exchange, 200, "application/json", "[\"" + now() + "\"]");
+            } else
+                respond(exchange, 405, "text/plain", method + " isn't supported!");
+        } else {
+            read(exchange);
+            respond(exchange, 404, "text/plain", "unknown Fedora Commons request[" + path + "]!");
+        }
+    }
+
+    static protected String datastreamProfile(String pid, String dsid, String date) {
+        return "<datastreamProfile xmlns=\"" + FEDORA_MANAGEMENT + "\" pid=\"" + escape(pid) + "\" dsID=\"" + escape(dsid) + "\">"
+            + "<dsLabel>" + escape(dsid) + "</dsLabel>"
+            + "<dsVersionID>" + escape(dsid) + ".0</dsVersionID>"
+            + "<dsCreateDate>" + date + "</dsCreateDate>"
+            + "<dsState>A</dsState>"
+            + "<dsMIME>application/octet-stream</dsMIME>"
+            + "<dsFormatURI/>"
+            + "<dsControlGroup>M</dsControlGroup>"
+            + "<dsSize>0</dsSize>"
+            + "<dsVersionable>true</dsVersionable>"
+            + "<dsInfoType/>"
+            + "<dsLocation>" + escape(pid) + "+" + escape(dsid) + "+" + escape(dsid) + ".0</dsLocation>"
+            + "<dsLocationType>INTERNAL_ID</dsLocationType>"
+            + "<dsChecksumType>DISABLED</dsChecksumType>"
+            + "<dsChecksum>none</dsChecksum>"
+            + "</datastreamProfile>";
+    }
+
+    // FITS: examine?file=<path>, which identifies every (existing) file as plain text
+    protected void fits(HttpExchange exchange, String path) throws IOException {
+        read(exchange);
+        String file = query(exchange).get("file");
+        if (!path.equals("/examine") || file == null) {
+            respond(exchange, 400, "text/plain", "expected examine?file=<path>!");
+            return;
+        }
+        File f = new File(file);
+        if (!f.isFile()) {
+            respond(exchange, 500, "text/plain", "file[" + file + "] doesn't exist!");
+            return;
+        }
+        respond(exchange, 200, "text/xml", "<fits xmlns=\"http://hul.harvard.edu/ois/xml/ns/fits/fits_output\" version=\"1.0.5\">"
+            + "<identification status=\"SINGLE_RESULT\">"
+            + "<identity format=\"Plain text\" mimetype=\"text/plain\" toolname=\"FITS\" toolversion=\"1.0.5\"/>"
+            + "</identification>"
+            + "<fileinfo><filepath>" + escape(f.getAbsolutePath()) + "</filepath><size>" + f.length() + "</size></fileinfo>"
+            + "</fits>");
+    }
+
+    // gsearch: rest?operation=updateIndex&action=fromPid&value=<fid>
+    protected void gsearch(HttpExchange exchange, String path) throws IOException {
+        read(exchange);
+        Map<String, String> params = query(exchange);
+        if (!path.equals("/rest") || !"updateIndex".equals(params.get("operation")) || params.get("value") == null) {
+            respond(exchange, 400, "text/plain", "expected rest?operation=updateIndex&action=fromPid&value=<fid>!");
+            return;
+        }
+        long docs = indexed.incrementAndGet();
+        respond(exchange, 200, "text/xml", "<resultPage operation=\"updateIndex\" action=\"" + escape(String.valueOf(params.get("action"))) + "\" value=\"" + escape(params.get("value")) + "\">"
+            + "<updateIndex insertTotal=\"0\" updateTotal=\"1\" deleteTotal=\"0\" emptyTotal=\"0\" docCount=\"" + docs + "\" warnCount=\"0\"/>"
+            + "</resultPage>");
+    }
+
+    // EPIC: the handles are resources, i.e., /<prefix>/<suffix>, with a JSON list of typed values
+    protected void epic(HttpExchange exchange, String path) throws IOException {
+        String method = exchange.getRequestMethod();
+        String body = new String(read(exchange), StandardCharsets.UTF_8);
+        String handle = path.replaceFirst("^/", "").replaceFirst("/$", "");
+        if (handle.isEmpty()) {
+            respond(exchange, 400, "text/plain", "expected /<prefix>/<suffix>!");
+        } else if (method.equals("GET")) {
+            String loc = handles.get(handle);
+            if (loc == null)
+                respond(exchange, 404, "text/plain", "handle[" + handle + "] doesn't exist!");
+            else
+                respond(exchange, 200, "application/json", "[{\"idx\":1,\"type\":\"URL\",\"parsed_data\":\"" + loc.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}]");
+        } else if (method.equals("PUT") || method.equals("POST")) {
+            if (method.equals("POST") && !handle.contains("/"))
+                handle = handle + "/" + UUID.randomUUID().toString().toUpperCase();
+            Matcher m = EPIC_URL.matcher(body);
+            String loc = (m.find() ? m.group(1).replace("\\\"", "\"").replace("\\\\", "\\") : "");
+            boolean exists = handles.containsKey(handle);
+            if (exists && "*".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                respond(exchange, 412, "text/plain", "handle[" + handle + "] already exists!");
+                return;
+            }
+            handles.put(handle, loc);
+            exchange.getResponseHeaders().set("Location", getURL(EPIC) + "/" + handle);
+            respond(exchange, (exists ? 204 : 201), "text/plain", (exists ? null : handle));
+        } else if (method.equals("DELETE")) {
+            respond(exchange, (handles.remove(handle) != null ? 204 : 404), "text/plain", null);
+        } else
+            respond(exchange, 405, "text/plain", method + " isn't supported!");
+    }
+}
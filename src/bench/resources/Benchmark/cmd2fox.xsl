@@ -0,0 +1,99 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!--
+    A minimal stand-in for the FLAT cmd2fox transform used by the end-to-end
+    flow benchmark: it assigns the FIDs (lat:flatURI), writes a FOXML file for
+    each resource to the fox-base directory, and returns the FOXML of the
+    compound, which contains the CMD record.
+-->
+<xsl:stylesheet version="2.0"
+    xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+    xmlns:xs="http://www.w3.org/2001/XMLSchema"
+    xmlns:cmd="http://www.clarin.eu/cmd/"
+    xmlns:lat="http://lat.mpi.nl/"
+    xmlns:foxml="info:fedora/fedora-system:def/foxml#"
+    xmlns:bench="http://lat.mpi.nl/bench"
+    exclude-result-prefixes="xs bench">
+
+    <xsl:param name="owner" select="'bench'"/>
+    <xsl:param name="fox-base" select="'./fox'"/>
+    <xsl:param name="repository" select="''"/>
+    <xsl:param name="namespace" select="'lat'"/>
+
+    <!-- the FID of a PID, unless the FID has been assigned before -->
+    <xsl:function name="bench:fid" as="xs:string">
+        <xsl:param name="fid" as="xs:string?"/>
+        <xsl:param name="pid" as="xs:string"/>
+        <xsl:sequence select="if (normalize-space($fid)!='') then ($fid) else (concat($namespace,':',replace(replace(normalize-space($pid),'^(hdl:|https?://hdl.handle.net/)',''),'[^a-zA-Z0-9]','_')))"/>
+    </xsl:function>
+
+    <xsl:template name="object">
+        <xsl:param name="fid" as="xs:string"/>
+        <xsl:param name="label" as="xs:string"/>
+        <xsl:param name="content"/>
+        <foxml:digitalObject VERSION="1.1" PID="{$fid}">
+            <foxml:objectProperties>
+                <foxml:property NAME="info:fedora/fedora-system:def/model#state" VALUE="Active"/>
+                <foxml:property NAME="info:fedora/fedora-system:def/model#label" VALUE="{$label}"/>
+                <foxml:property NAME="info:fedora/fedora-system:def/model#ownerId" VALUE="{$owner}"/>
+            </foxml:objectProperties>
+            <xsl:copy-of select="$content"/>
+        </foxml:digitalObject>
+    </xsl:template>
+
+    <xsl:template match="/">
+        <xsl:variable name="fid" select="bench:fid(/cmd:CMD/cmd:Header/cmd:MdSelfLink/@lat:flatURI,/cmd:CMD/cmd:Header/cmd:MdSelfLink)"/>
+        <xsl:for-each select="/cmd:CMD/cmd:Resources/cmd:ResourceProxyList/cmd:ResourceProxy[cmd:ResourceType='Resource']">
+            <xsl:variable name="rfid" select="bench:fid(cmd:ResourceRef/@lat:flatURI,cmd:ResourceRef)"/>
+            <!-- the harness passes an absolute fox-base -->
+            <xsl:result-document href="file:{$fox-base}/{replace($rfid,'[^a-zA-Z0-9]','_')}.xml">
+                <xsl:call-template name="object">
+                    <xsl:with-param name="fid" select="$rfid"/>
+                    <xsl:with-param name="label" select="tokenize(cmd:ResourceRef/@lat:localURI,'/')[last()]"/>
+                    <xsl:with-param name="content">
+                        <foxml:datastream ID="OBJ" CONTROL_GROUP="E" STATE="A" VERSIONABLE="true">
+                            <foxml:datastreamVersion ID="OBJ.0" LABEL="{tokenize(cmd:ResourceRef/@lat:localURI,'/')[last()]}" MIMETYPE="{(cmd:ResourceType/@mimetype,'application/octet-stream')[1]}">
+                                <foxml:contentLocation TYPE="URL" REF="{resolve-uri(cmd:ResourceRef/@lat:localURI,base-uri(.))}"/>
+                            </foxml:datastreamVersion>
+                        </foxml:datastream>
+                    </xsl:with-param>
+                </xsl:call-template>
+            </xsl:result-document>
+        </xsl:for-each>
+        <xsl:call-template name="object">
+            <xsl:with-param name="fid" select="$fid"/>
+            <xsl:with-param name="label" select="(/cmd:CMD/cmd:Components/*/cmd:Title,/cmd:CMD/cmd:Components/*/cmd:Name,$fid)[1]"/>
+            <xsl:with-param name="content">
+                <foxml:datastream ID="CMD" CONTROL_GROUP="X" STATE="A" VERSIONABLE="true">
+                    <foxml:datastreamVersion ID="CMD.0" LABEL="CMD" MIMETYPE="application/x-cmdi+xml">
+                        <foxml:xmlContent>
+                            <xsl:apply-templates select="/cmd:CMD"/>
+                        </foxml:xmlContent>
+                    </foxml:datastreamVersion>
+                </foxml:datastream>
+            </xsl:with-param>
+        </xsl:call-template>
+    </xsl:template>
+
+    <xsl:template match="node()|@*">
+        <xsl:copy>
+            <xsl:apply-templates select="node()|@*"/>
+        </xsl:copy>
+    </xsl:template>
+
+    <xsl:template match="cmd:MdSelfLink">
+        <xsl:copy>
+            <xsl:apply-templates select="@*"/>
+            <xsl:attribute name="lat:flatURI" select="bench:fid(@lat:flatURI,.)"/>
+            <xsl:apply-templates select="node()"/>
+        </xsl:copy>
+    </xsl:template>
+
+    <xsl:template match="cmd:ResourceProxy[cmd:ResourceType='Resource']/cmd:ResourceRef">
+        <xsl:copy>
+            <xsl:apply-templates select="@*"/>
+            <xsl:attribute name="lat:flatURI" select="bench:fid(@lat:flatURI,.)"/>
+            <xsl:apply-templates select="node()"/>
+        </xsl:copy>
+    </xsl:template>
+
+</xsl:stylesheet>
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
+import nl.mpi.tla.flat.deposit.action.ActionInterface;
+import nl.mpi.tla.flat.deposit.monitor.ActionListenerInterface;
+import nl.mpi.tla.flat.deposit.monitor.Metrics;
+import nl.mpi.tla.flat.deposit.util.Saxon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A flow specification which is parsed, and whose action classes are loaded,
+ * only once. One instance can be shared by many threads, and spawns a
+ * {@link Flow} per SIP, each with its own {@link Context} and action
+ * instances. The specification, the action classes and the action semaphores
+ * don't change and are shared by all these flows. The listeners can be added
+ * or removed at any time, and are picked up by the flows that start after
+ * that. The pool running the parallel main flows is created on first use,
+ * and should be shut down by {@link #close()} once no more flows are spawned.
+ */
+public final class CompiledFlow implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompiledFlow.class.getName());
+
+    // system property for the number of threads running the actions of the parallel main flows
+    static public final String ACTIONS = "nl.mpi.tla.flat.deposit.flow.actions";
+
+    private final XdmNode spec;
+
+    private final File base;
+
+    private final List<ActionSpec> initActions;
+
+    private final List<ActionSpec> mainActions;
+
+    private final List<ActionSpec> exceptionActions;
+
+    private final List<ActionSpec> finalActions;
+
+    private final boolean rollback;
+
+    private final boolean dependencies;
+
+    private final Map<String, Semaphore> semaphores;
+
+    private final Set<String> properties;
+
+    private final List<ActionListenerInterface> listeners = new CopyOnWriteArrayList<>();
+
+    // the threads running the actions of the parallel main flows, created on first use
+    private ExecutorService executor = null;
+
+    public CompiledFlow(File spec) throws DepositException {
+        this(new StreamSource(spec),spec);
+    }
+
+    public CompiledFlow(Source spec) throws DepositException {
+        this(spec,null);
+    }
+
+    public CompiledFlow(Source spec,File base) throws DepositException {
+        this.base = base;
+        Map<String, Semaphore> semas = new HashMap<>();
+        try {
+            this.spec = Saxon.buildDocument(spec);
+            initActions = compile(Saxon.xpath(this.spec, "/flow/init/action"),semas);
+            mainActions = compile(Saxon.xpath(this.spec, "/flow/main/action"),semas);
+            exceptionActions = compile(Saxon.xpath(this.spec, "/flow/exception/action"),semas);
+            finalActions = compile(Saxon.xpath(this.spec, "/flow/final/action"),semas);
+            rollback = Saxon.xpath2boolean(this.spec, "exists(/flow/rollback)");
+            Set<String> props = new HashSet<>();
+            for (XdmItem prop:Saxon.xpath(this.spec, "/flow/config/property/@name"))
+                props.add(prop.getStringValue());
+            properties = Collections.unmodifiableSet(props);
+            dependencies = Saxon.xpath2boolean(this.spec, "exists(/flow/main/action/@depends-on)");
+            for (XdmItem listener:Saxon.xpath(this.spec, "/flow/config/listener"))
+                loadListener(Saxon.xpath2string(listener, "@class"));
+            if (Metrics.isEnabled())
+                addListener(Metrics.getInstance());
+        } catch(SaxonApiException e) {
+            throw new DepositException(e);
+        }
+        this.semaphores = Collections.unmodifiableMap(semas);
+    }
+
+    private List<ActionSpec> compile(XdmValue actions,Map<String, Semaphore> semas) throws DepositException {
+        List<ActionSpec> flow = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (XdmItem action:actions) {
+            String name = null;
+            String clazz = null;
+            try {
+                name = Saxon.xpath2string(action,"@name");
+                clazz = Saxon.xpath2string(action,"@class");
+                String when = (Saxon.hasAttribute(action,"when")?Saxon.xpath2string(action,"@when"):null);
+                Set<String> deps = null;
+                if (Saxon.hasAttribute(action,"depends-on")) {
+                    // a comma separated list, as action names can contain spaces
+                    deps = new LinkedHashSet<>();
+                    for (String dep:Saxon.xpath2string(action,"@depends-on").split(",")) {
+                        dep = dep.trim();
+                        if (dep.isEmpty())
+                            continue;
+                        if (!names.contains(dep)) {
+                            CompiledFlow.logger.error(" action["+name+"] depends on an unknown or later action["+dep+"]!");
+                            throw new DepositException("action["+name+"] depends on an unknown or later action["+dep+"]!");
+                        }
+                        deps.add(dep);
+                    }
+                    deps = Collections.unmodifiableSet(deps);
+                }
+                // use the regular class loader to load the action class
+                Class<? extends ActionInterface> face = Class.forName(clazz).asSubclass(ActionInterface.class);
+                ActionSpec spec = new ActionSpec((name!=null?name:clazz),face,action,when,deps,Saxon.xpath(action, "parameter"));
+                names.add(spec.getName());
+                flow.add(spec);
+                if (Saxon.hasAttribute(action,"sema")) {
+                    semas.put(spec.getName(),new Semaphore(Integer.parseInt(Saxon.xpath2string(action, "@sema"))));
+                }
+            } catch (ClassNotFoundException | ClassCastException e) {
+                CompiledFlow.logger.error(" couldn't load action["+name+"]["+clazz+"]! "+e.getMessage());
+                throw new DepositException(e);
+            } catch (SaxonApiException ex) {
+                CompiledFlow.logger.error(" couldn't load actions! "+ex.getMessage());
+                throw new DepositException(ex);
+            }
+        }
+        return Collections.unmodifiableList(flow);
+    }
+
+    /**
+     * The name of the flow, i.e., the base name of its specification file,
+     * which identifies it in measurements.
+     */
+    public String getName() {
+        if (this.base == null)
+            return "flow";
+        return this.base.getName().replaceAll("\\.xml$","");
+    }
+
+    public XdmNode getSpec() {
+        return this.spec;
+    }
+
+    public File getBase() {
+        return this.base;
+    }
+
+    public List<ActionSpec> getInitActions() {
+        return this.initActions;
+    }
+
+    public List<ActionSpec> getMainActions() {
+        return this.mainActions;
+    }
+
+    public List<ActionSpec> getExceptionActions() {
+        return this.exceptionActions;
+    }
+
+    public List<ActionSpec> getFinalActions() {
+        return this.finalActions;
+    }
+
+    /**
+     * Does the configuration section declare the property?
+     */
+    public boolean hasProperty(String name) {
+        return properties.contains(name);
+    }
+
+    public boolean hasRollback() {
+        return this.rollback;
+    }
+
+    /**
+     * Does any action in the main flow declare its dependencies, i.e., can
+     * the main flow be run in parallel?
+     */
+    public boolean hasDependencies() {
+        return this.dependencies;
+    }
+
+    public Map<String, Semaphore> getSemaphores() {
+        return this.semaphores;
+    }
+
+    /**
+     * The bounded pool shared by the parallel main flows spawned from this
+     * compiled flow, so concurrent flows don't spawn a thread per action.
+     * The threads are daemons, and end when idle.
+     */
+    synchronized ExecutorService getExecutor() {
+        if (this.executor == null) {
+            int threads = Math.max(1,Integer.getInteger(ACTIONS,8));
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads,threads,60L,TimeUnit.SECONDS,new LinkedBlockingQueue<Runnable>(),r -> {
+                Thread t = new Thread(r,"flow-action");
+                t.setDaemon(true);
+                return t;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+        return this.executor;
+    }
+
+    /**
+     * Shut down the pool running the parallel main flows, the actions already
+     * submitted still finish. A flow run after this starts a new pool.
+     */
+    public synchronized void close() {
+        if (this.executor != null) {
+            this.executor.shutdown();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Get the listeners notified of the actions performed, and rolled back,
+     * by all flows spawned from this compiled flow.
+     */
+    public List<ActionListenerInterface> getListeners() {
+        return this.listeners;
+    }
+
+    public boolean hasListeners() {
+        return !this.listeners.isEmpty();
+    }
+
+    public void addListener(ActionListenerInterface listener) {
+        if (!this.listeners.contains(listener))
+            this.listeners.add(listener);
+    }
+
+    public void removeListener(ActionListenerInterface listener) {
+        this.listeners.remove(listener);
+    }
+
+    private void loadListener(String clazz) throws DepositException {
+        try {
+            addListener(Class.forName(clazz).asSubclass(ActionListenerInterface.class).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            CompiledFlow.logger.error(" couldn't load action listener["+clazz+"]! "+e.getMessage());
+            throw new DepositException(e);
+        }
+    }
+
+    public Flow newFlow() throws DepositException {
+        return newFlow(new HashMap<String,XdmValue>());
+    }
+
+    public Flow newFlow(Map<String,XdmValue> params) throws DepositException {
+        return new Flow(this,params);
+    }
+
+    /**
+     * An action of the flow specification, i.e., its loaded class, its
+     * (unevaluated) condition and its (unexpanded) parameters.
+     */
+    static public final class ActionSpec {
+
+        private final String name;
+        private final Class<? extends ActionInterface> clazz;
+        private final XdmItem node;
+        private final String when;
+        private final Set<String> dependencies;
+        private final XdmValue params;
+
+        ActionSpec(String name,Class<? extends ActionInterface> clazz,XdmItem node,String when,Set<String> dependencies,XdmValue params) {
+            this.name = name;
+            this.clazz = clazz;
+            this.node = node;
+            this.when = when;
+            this.dependencies = dependencies;
+            this.params = params;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public Class<? extends ActionInterface> getActionClass() {
+            return this.clazz;
+        }
+
+        public XdmValue getParameters() {
+            return this.params;
+        }
+
+        /**
+         * Get the names of the actions this action depends on, or null when
+         * no @depends-on was specified, i.e., it depends on all preceding
+         * actions.
+         */
+        public Set<String> getDependencies() {
+            return this.dependencies;
+        }
+
+        /**
+         * Evaluate the @when condition, if any, against the properties of a run.
+         */
+        public boolean isEnabled(Map<String,XdmValue> props) throws SaxonApiException {
+            if (this.when == null)
+                return true;
+            return Saxon.xpath2boolean(this.node,this.when,props);
+        }
+
+        /**
+         * Create a fresh action instance for a run.
+         */
+        public ActionInterface newInstance() throws DepositException {
+            try {
+                ActionInterface action = this.clazz.getDeclaredConstructor().newInstance();
+                action.setName(this.name);
+                return action;
+            } catch (ReflectiveOperationException e) {
+                CompiledFlow.logger.error(" couldn't instantiate action["+name+"]["+clazz.getName()+"]! "+e.getMessage());
+                throw new DepositException(e);
+            }
+        }
+    }
+}
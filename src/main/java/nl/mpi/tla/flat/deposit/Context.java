@@ -16,26 +16,24 @@
  */
 package nl.mpi.tla.flat.deposit;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
 import nl.mpi.tla.flat.deposit.sip.SIPInterface;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import javax.xml.transform.stream.StreamSource;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.XdmAtomicValue;
 import net.sf.saxon.s9api.XdmItem;
@@ -43,20 +41,15 @@ import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.s9api.XdmValue;
 import nl.mpi.tla.flat.deposit.action.ActionInterface;
 import nl.mpi.tla.flat.deposit.context.ImportPropertiesInterface;
+import nl.mpi.tla.flat.deposit.context.PIDJournal;
+import nl.mpi.tla.flat.deposit.context.RollbackJournal;
+import nl.mpi.tla.flat.deposit.util.AVT;
 import nl.mpi.tla.flat.deposit.util.Global;
 import nl.mpi.tla.flat.deposit.util.Saxon;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
-import org.supercsv.io.CsvListReader;
-import org.supercsv.io.CsvListWriter;
-import org.supercsv.io.ICsvListReader;
-import org.supercsv.io.ICsvListWriter;
-import org.supercsv.prefs.CsvPreference;
-
-import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
-import com.opencsv.exceptions.CsvException;
+
 import java.nio.file.Path;
 
 /**
@@ -73,6 +66,8 @@ public class Context {
 
 	protected Flow flow = null;
 
+	protected Map<String, String> namespaces = new LinkedHashMap<>(Global.NAMESPACES);
+
 	protected Map<String, XdmValue> props = new LinkedHashMap<>();
 
 	protected Map<URI, URI> pids = new LinkedHashMap<>();
@@ -81,12 +76,14 @@ public class Context {
 
 	protected Exception ex = null;
 
-	protected PrintWriter rollbackLog = null;
+	protected RollbackJournal rollbackLog = null;
 
 	protected Map<String, Object> memory = new LinkedHashMap<>();
 
-	FileWriter fileWriter;
-	FileReader fileReader;
+	protected PIDJournal pidJournal = null;
+
+	// the PID lists and rollback logs in use by the runs in this JVM, as concurrent runs can't share them
+	static private final Map<File, Context> claims = new ConcurrentHashMap<>();
 
 	// constructor
 
@@ -108,12 +105,16 @@ public class Context {
 	private void loadNamespaces(XdmNode spec) throws DepositException {
 		try {
 			for (XdmItem ns : Saxon.xpath(spec, "/flow/config/namespace"))
-				Global.NAMESPACES.put(Saxon.xpath2string(ns, "@prefix"), Saxon.xpath2string(ns, "@uri"));
+				namespaces.put(Saxon.xpath2string(ns, "@prefix"), Saxon.xpath2string(ns, "@uri"));
 		} catch (SaxonApiException e) {
 			throw new DepositException(e);
 		}
 	}
 
+	public Map<String, String> getNamespaces() {
+		return namespaces;
+	}
+
 	// Properties
 
 	private void loadProperties(XdmNode spec) throws DepositException {
@@ -177,51 +178,58 @@ public class Context {
 	}
 
 	// Save (the SIP)
+	// NOTE: the main flow can run actions in parallel, so the methods that
+	// change the shared state of the context are synchronized
 
-	public boolean save() throws DepositException {
+	public synchronized boolean save() throws DepositException {
 		saveEvent();
 		return (this.hasSIP() ? this.sip.save() : false);
 	}
 
 	// PIDs
 
-	public URI addPID(URI pid, URI red) {
+	public synchronized URI addPID(URI pid, URI red) {
+		if (pidJournal != null)
+			pidJournal.add(pid, red);
 		return pids.put(pid, red);
 	}
 
-	public void delPID(URI pid) {
+	public synchronized void delPID(URI pid) {
 		if (pids.containsKey(pid)) {
 			pids.remove(pid);
+			if (pidJournal != null)
+				pidJournal.delete(pid);
 		}
 	}
 
-	public boolean hasPID(URI pid) {
+	public synchronized boolean hasPID(URI pid) {
 		return pids.containsKey(pid);
 	}
 
-	public URI getPID(URI pid) {
+	public synchronized URI getPID(URI pid) {
 		return pids.get(pid);
 	}
 
-	public Map<URI, URI> getPIDs() {
-		return pids;
+	// a copy, as the PIDs can be changed by actions running in parallel, which should use addPID and delPID
+	public synchronized Map<URI, URI> getPIDs() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(pids));
 	}
 
 	// Memory
 
-	public Object putInMemory(String key, Object val) {
+	public synchronized Object putInMemory(String key, Object val) {
 		logger.debug("put memory key[" + key + "][" + val + "]");
 		return memory.put(key, val);
 	}
 
-	public boolean hasInMemory(String key) {
+	public synchronized boolean hasInMemory(String key) {
 		for (String k : memory.keySet())
 			logger.debug("has memory key[" + k + "]");
 		logger.debug("has memory key[" + key + "][" + memory.containsKey(key) + "]");
 		return memory.containsKey(key);
 	}
 
-	public Object getFromMemory(String key) {
+	public synchronized Object getFromMemory(String key) {
 		logger.debug("get memory key[" + key + "][" + memory.get(key) + "]");
 		return memory.get(key);
 	}
@@ -242,218 +250,212 @@ public class Context {
 		return this.ex;
 	}
 
-	public void saveEvent() {
-		String file = null;
-		fileWriter = null;
+	// appends the PIDs added or deleted since the last save to the journal
+	public synchronized void saveEvent() {
+		if (pidJournal == null)
+			return;
 		try {
-			file = getPidFile();
-			if (file != null) {
-				File f = new File(file);
-				if (!f.exists())
-					f.createNewFile();
-				f.setWritable(true, false);
-				fileWriter = new FileWriter(file);
-			}
+			pidJournal.flush();
 		} catch (IOException ex) {
-			this.logger.debug("Couldn't create/open save pids csv file[" + file + "]", ex);
-			//System.exit(1);
+			this.logger.error("Couldn't append pids to csv file[" + pidJournal.getFile() + "]", ex);
 		}
-		if (fileWriter != null) {
-			try {
-				if (!pids.isEmpty()) {
-					ICsvListWriter saveLog = new CsvListWriter(fileWriter, CsvPreference.STANDARD_PREFERENCE);
-					for (Map.Entry<URI, URI> entry : pids.entrySet()) {
-						saveLog.write(entry.getKey().toString(), entry.getValue().toString());
-						logger.debug("saved["+entry.getKey().toString()+","+entry.getValue().toString()+"]");
-					}
-					saveLog.close();
-				}
-				//else {
-				//	logger.info("Hashmap of pids is empty. Nothing to store into the file!");
-				//} #Not required anymore. It was used for logging during testing phase
-			} catch (IOException e) {
-				this.logger.debug("Couldn't write pids to csv file["+ this.getProperty("dk-pidList", "pids.csv").toString() + "]", e);
-				//System.exit(1);
-			}
-		} else
-			this.logger.debug("No pids saved for this run- saveEvent()!");
 	}
 
 	public String getPidFile() {
 		String filename = null;
-		this.logger.debug("XdmValue= " + this.getProperty("dk-pidList", "pids.csv"));
 		if (this.getProperty("dk-pidList", "pids.csv") != null) {
 			XdmValue pidFileProperty = this.getProperty("dk-pidList", "pids.csv");
-			filename = "./"+pidFileProperty.toString();
+			filename = pidFileProperty.toString();
 		} else {
 			this.logger.debug("There is no pids saved! pids.csv is not present!");
 		}
 		return filename;
 	}
 
-	public void getSave() {
-		String file = null;
-		fileReader = null;
+	// replays the journal of a previous run, and compacts it
+	public synchronized void getSave() throws DepositException {
+		String file = getPidFile();
+		if (file == null) {
+			this.logger.debug("No pids saved for this run!- getSave()");
+			return;
+		}
+		pidJournal = new PIDJournal(claim(new File(file), "pids csv"));
 		try {
-			file = getPidFile();
-			if (file != null) {
-				File f = new File(file);
-				if (f.exists() && f.length() != 0) 
-					fileReader = new FileReader(file);
-				else
-					logger.debug("pids.csv file does not exist in the path!");
+			pids = pidJournal.load();
+			pidJournal.compact(pids);
+		} catch (IOException | RuntimeException ex) {
+			this.logger.debug("Couldn't read save log file[" + file + "]", ex);
+		}
+	}
+
+	// compacts the PID journal and closes the rollback log, e.g., when the flow has finished
+	public synchronized void close() {
+		if (pidJournal != null) {
+			try {
+				pidJournal.compact(pids);
+			} catch (IOException ex) {
+				this.logger.error("Couldn't compact pids csv file[" + pidJournal.getFile() + "]", ex);
 			}
-		} catch (IOException ex) {
-			this.logger.debug("Couldn't create/open save pids csv file[" + file + "]", ex);
-			//System.exit(1);
+			release(pidJournal.getFile());
 		}
-		if (fileReader != null) {
+		if (rollbackLog != null) {
 			try {
-				CSVReader readLog = new CSVReader(fileReader);
-				Map<URI, URI> tempPids = new LinkedHashMap<>();
-				List<String[]> readingData = readLog.readAll();
-				for (String[] list : readingData) {
-					tempPids.put(URI.create(list[0]), URI.create(list[1]));
-				}
-				pids = tempPids;
-			} catch (IOException | CsvException ex) {
-				this.logger.debug("Couldn't read save log file[" + this.getProperty("dk-pidList", "pids.csv").toString() + "]",ex);
-				//System.exit(1);
+				rollbackLog.close();
+			} catch (IOException ex) {
+				this.logger.error("Couldn't close rollback log file[" + rollbackLog.getFile() + "]", ex);
 			}
-		} else
-			this.logger.debug("No pids saved for this run!- getSave()");
+			release(rollbackLog.getFile());
+		}
 	}
 
-	// Rollback
+	static private File canonical(File file) {
+		try {
+			return file.getCanonicalFile();
+		} catch (IOException ex) {
+			return file.getAbsoluteFile();
+		}
+	}
 
-	protected void initRollbackLog() {
-		if (rollbackLog == null) {
-			try {
-				rollbackLog = new PrintWriter(
-						new FileWriter(this.getProperty("dk-rollbackLog", "rollback.log").toString(), true), true);
-			} catch (IOException ex) {
-				this.logger.error("Couldn't create/open rollback log file["
-						+ this.getProperty("dk-rollbackLog", "rollback.log").toString() + "]", ex);
-				System.exit(1);
-			}
+	// fail fast when another run in this JVM is using the file
+	private File claim(File file, String what) throws DepositException {
+		Context other = claims.putIfAbsent(canonical(file), this);
+		if (other != null && other != this) {
+			this.logger.error(what + " file[" + file + "] is already used by another run!");
+			throw new DepositException(what + " file[" + file + "] is already used by another run!");
 		}
+		return file;
 	}
 
-	protected String escXML(String s) {
-		return s.replaceAll("&", "&amp;").replaceAll("\"", "&quot;").replaceAll("'", "&apos;").replaceAll("<", "&lt;")
-				.replaceAll(">", "&gt;");
+	private void release(File file) {
+		claims.remove(canonical(file), this);
 	}
 
-	public void registerRollbackEvent(ActionInterface action, String event, String... params) {
-		initRollbackLog();
+	// Rollback
+
+	protected synchronized RollbackJournal initRollbackLog() throws DepositException {
+		if (rollbackLog == null)
+			rollbackLog = new RollbackJournal(claim(new File(this.getProperty("dk-rollbackLog", "rollback.log").toString()), "rollback log"));
+		return rollbackLog;
+	}
+
+	// not synchronized, so the events of actions running in parallel can be committed as a group
+	// the failure is up to the flow, as other runs in this JVM, e.g., in a batch, should go on
+	public void registerRollbackEvent(ActionInterface action, String event, String... params) throws DepositException {
+		RollbackJournal log = initRollbackLog();
 		if (params.length % 2 != 0) {
 			this.logger.warn("uneven param list for action[" + action.getName() + "] event[" + event + "]!");
 		}
-		rollbackLog.format("<event action=\"%s\" type=\"%s\">", escXML(action.getName()), escXML(event));
-		for (int p = 0; p < params.length; p++) {
-			if ((p + 1) < params.length)
-				rollbackLog.format("<param name=\"%s\" value=\"%s\"/>", escXML(params[p]), escXML(params[++p]));
-			else
-				rollbackLog.format("<param name=\"%s\"/>", escXML(params[p]));
+		try {
+			log.append(action.getName(), event, params);
+		} catch (IOException ex) {
+			this.logger.error("Couldn't create/open rollback log file[" + log.getFile() + "]", ex);
+			throw new DepositException("Couldn't create/open rollback log file[" + log.getFile() + "]", ex);
 		}
-		rollbackLog.format("</event>");
-		rollbackLog.flush();
 	}
 
-	public XdmNode getRollbackLog() {
+	public XdmNode getRollbackLog() throws DepositException {
+		RollbackJournal log = initRollbackLog();
 		try {
-			initRollbackLog();
-			rollbackLog.flush();
-			rollbackLog.close();
-			rollbackLog = null; // force reopening if needed
-			String xml = "<?xml version=\"1.0\" ?>\n" + "<!DOCTYPE rollback [<!ENTITY data SYSTEM \"rollback.log\">]>\n"
-					+ "<rollback>&data;</rollback>";
-			xml = xml.replaceAll("rollback.log", this.getProperty("dk-rollbackLog", "rollback.log").toString());
-			return Saxon.buildDocument(new StreamSource(new StringReader(xml)));
-		} catch (SaxonApiException ex) {
-			this.logger.error("Couldn't read rollback log file["
-					+ this.getProperty("dk-rollbackLog", "rollback.log").toString() + "]", ex);
-			System.exit(1);
+			return log.getLog();
+		} catch (IOException | SaxonApiException ex) {
+			this.logger.error("Couldn't read rollback log file[" + log.getFile() + "]", ex);
+			throw new DepositException("Couldn't read rollback log file[" + log.getFile() + "]", ex);
+		}
+	}
+
+	// the rollback events of one action, looked up in the index of the log
+	public List<XdmItem> getRollbackEvents(String action) throws DepositException {
+		RollbackJournal log = initRollbackLog();
+		try {
+			return log.getEvents(action);
+		} catch (IOException | SaxonApiException ex) {
+			this.logger.error("Couldn't read rollback log file[" + log.getFile() + "]", ex);
+			throw new DepositException("Couldn't read rollback log file[" + log.getFile() + "]", ex);
 		}
-		return null;
 	}
 
 	// Utilities: general method to load properties or parameters
 
 	public Map<String, XdmValue> loadParameters(Map<String, XdmValue> map, XdmValue params, String type)
 			throws SaxonApiException, DepositException {
+		// the values are collected per name, as repeatedly appending to an XdmValue is quadratic,
+		// and only copied into the map when they might be referred to as a variable
+		Map<String, List<XdmItem>> values = new LinkedHashMap<>();
+		Set<String> stale = new HashSet<>();
 		for (XdmItem param : params) {
 			String name = Saxon.xpath2string(param, "@name");
 			if (Saxon.hasAttribute(param, "when")) {
+				flushParameters(map, values, stale);
 				if (!Saxon.xpath2boolean(param, Saxon.xpath2string(param, "@when"), props)) {
 					continue;
 				}
 			}
 			if (Saxon.xpath2boolean(param, "../" + type + "[@name='" + name + "']/@uniq='true'")) {
-				if (map.containsKey(name)) {
+				if (map.containsKey(name) || values.containsKey(name)) {
 					this.logger.error(type + "[" + name + "] should be unique!");
 					throw new DepositException(type + "[" + name + "] should be unique!");
 				}
 			}
 			if (Saxon.hasAttribute(param, "value")) {
-				String avt = Saxon.avt(Saxon.xpath2string(param, "@value"), param, props, Global.NAMESPACES);
-				XdmValue val = new XdmAtomicValue(avt);
-				if (map.containsKey(name))
-					map.put(name, map.get(name).append(val));
-				else
-					map.put(name, val);
+				AVT avt = AVT.compile(Saxon.xpath2string(param, "@value"));
+				if (avt.hasXPath())
+					flushParameters(map, values, stale);
+				addParameter(map, values, stale, name, new XdmAtomicValue(avt.evaluate(param, props, namespaces, true)));
 			} else if (Saxon.hasAttribute(param, "xpath")) {
+				flushParameters(map, values, stale);
 				try {
-					XdmValue val = Saxon.xpath(param, Saxon.xpath2string(param, "@xpath"), props, Global.NAMESPACES);
-					if (map.containsKey(name))
-						map.put(name, map.get(name).append(val));
-					else
-						map.put(name, val);
+					XdmValue val = Saxon.xpath(param, Saxon.xpath2string(param, "@xpath"), props, namespaces);
+					addParameter(map, values, stale, name, val);
 				} catch (SaxonApiException e) {
 					this.logger.error(type + "[" + name + "] xpath[" + Saxon.xpath2string(param, "@xpath")
 							+ "] couldn't be evaluated! " + e.getMessage());
 					throw new DepositException(e);
 				}
 			}
-			int i = 1;
-			for (XdmItem val : map.get(name))
-				this.logger.debug(type + "[" + name + "][" + (i++) + "/" + map.get(name).size() + "]["
-						+ val.getStringValue() + "]");
-		}
-		boolean closure = true;
-		int c = 0;
-		do {
-			c++;
-			closure = true;
-			for (String name : map.keySet()) {
-				XdmValue vals = map.get(name);
-				XdmValue nvals = null;
-				for (XdmItem val : vals) {
-					String avt = Saxon.avt(val.toString(), val, props, Global.NAMESPACES, false);
-					if (!val.toString().equals(avt))
-						closure = false;
-					if (nvals == null)
-						nvals = new XdmAtomicValue(avt);
-					else
-						nvals = nvals.append(new XdmAtomicValue(avt));
-				}
-				map.put(name, nvals);
-				this.logger.debug("closure[" + c + "] " + type + "[" + name + "][" + map.get(name) + "]");
+			if (logger.isDebugEnabled() && values.containsKey(name)) {
+				int i = 1;
+				List<XdmItem> vals = values.get(name);
+				for (XdmItem val : vals)
+					this.logger.debug(type + "[" + name + "][" + (i++) + "/" + vals.size() + "]["
+							+ val.getStringValue() + "]");
 			}
-		} while (!closure);
-		for (String name : map.keySet()) {
-			XdmValue vals = map.get(name);
-			XdmValue nvals = null;
-			for (XdmItem val : vals) {
-				String v = val.toString().replaceAll("\\{\\{", "{").replaceAll("\\}\\}", "}");
-				if (nvals == null)
-					nvals = new XdmAtomicValue(v);
-				else
-					nvals = nvals.append(new XdmAtomicValue(v));
-			}
-			map.put(name, nvals);
+		}
+		for (Map.Entry<String, List<XdmItem>> entry : values.entrySet())
+			map.put(entry.getKey(), ParameterResolver.value(entry.getValue()));
+		// expand the templates left in the values
+		new ParameterResolver(map, props, namespaces, type).resolve();
+		// unescape
+		for (Map.Entry<String, XdmValue> entry : map.entrySet()) {
+			List<XdmItem> nvals = new ArrayList<>(entry.getValue().size());
+			for (XdmItem val : entry.getValue())
+				nvals.add(new XdmAtomicValue(val.toString().replace("{{", "{").replace("}}", "}")));
+			entry.setValue(ParameterResolver.value(nvals));
 		}
 		return map;
 	}
 
+	private void addParameter(Map<String, XdmValue> map, Map<String, List<XdmItem>> values, Set<String> stale,
+			String name, XdmValue val) {
+		List<XdmItem> vals = values.get(name);
+		if (vals == null) {
+			vals = new ArrayList<>();
+			if (map.containsKey(name))
+				for (XdmItem v : map.get(name))
+					vals.add(v);
+			values.put(name, vals);
+		}
+		for (XdmItem v : val)
+			vals.add(v);
+		stale.add(name);
+	}
+
+	private void flushParameters(Map<String, XdmValue> map, Map<String, List<XdmItem>> values, Set<String> stale) {
+		// only needed when the values are also the variables, i.e., the properties
+		if (map != props)
+			return;
+		for (String name : stale)
+			map.put(name, ParameterResolver.value(values.get(name)));
+		stale.clear();
+	}
+
 }
@@ -17,14 +17,29 @@
 package nl.mpi.tla.flat.deposit;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import net.sf.saxon.s9api.XdmAtomicValue;
 import net.sf.saxon.s9api.XdmValue;
+import nl.mpi.tla.flat.deposit.monitor.ActionListenerInterface;
+import nl.mpi.tla.flat.deposit.monitor.ActionStatistics;
+import nl.mpi.tla.flat.deposit.monitor.Metrics;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 /**
  * @author Menzo Windhouwer
@@ -38,6 +53,10 @@ public class DoorKeeper {
         System.err.println("INF: where <OPTIONS> are:");
         System.err.println("INF: -f <action> : from this action (name) (optional)");
         System.err.println("INF: -t <action> : to this action (name) (optional)");
+        System.err.println("INF: -b <FILE|DIR> : batch of SIP workspaces, i.e., a file listing one per line or a directory containing them (optional)");
+        System.err.println("INF: -w <workers> : number of SIP workspaces processed concurrently in batch mode (optional, default: number of processors)");
+        System.err.println("INF: -p <param> : parameter to pass a SIP workspace to the workflow in batch mode (optional, default: work)");
+        System.err.println("INF: -m <FILE|[HOST:]PORT|jmx> : export metrics to a Prometheus text file, a local HTTP endpoint or only JMX (optional)");
     }
     
     static public void addParameter(Map<String,XdmValue> params,String name,String value) {
@@ -52,15 +71,37 @@ public class DoorKeeper {
     public static void main(String[] args) {
         String start = null;
         String stop  = null;
+        String batch = null;
+        int workers = Runtime.getRuntime().availableProcessors();
+        String param = "work";
+        String metrics = null;
         Map<String,XdmValue> params = new HashMap();
     
-        OptionParser parser = new OptionParser("f:t:?*");
+        OptionParser parser = new OptionParser("f:t:b:w:p:m:?*");
         OptionSet options = parser.parse(args);
         
         if (options.has("f"))
             start = (String)options.valueOf("f");
         if (options.has("t"))
             stop = (String)options.valueOf("t");
+        if (options.has("b"))
+            batch = (String)options.valueOf("b");
+        if (options.has("w")) {
+            try {
+                workers = Integer.parseInt((String)options.valueOf("w"));
+            } catch (NumberFormatException ex) {
+                workers = 0;
+            }
+            if (workers < 1) {
+                logger.error("workers["+options.valueOf("w")+"] isn't a positive number!");
+                showHelp();
+                System.exit(1);
+            }
+        }
+        if (options.has("p"))
+            param = (String)options.valueOf("p");
+        if (options.has("m"))
+            metrics = (String)options.valueOf("m");
         
         if (options.has("?")) {
             showHelp();
@@ -97,12 +138,155 @@ public class DoorKeeper {
             }
         }
         
-        try {
-            Flow flw = new Flow(wf,params);
-            flw.run(start,stop);
+        if (metrics != null) {
+            try {
+                Metrics.configure(metrics);
+            } catch (IOException ex) {
+                logger.error("metrics["+metrics+"] can't be exported! "+ex.getMessage());
+                showHelp();
+                System.exit(1);
+            }
+        }
+        
+        if (batch != null) {
+            List<File> sips = null;
+            try {
+                sips = listWorkspaces(new File(batch));
+            } catch (IOException ex) {
+                logger.error("batch["+batch+"] couldn't be read! "+ex.getMessage());
+                showHelp();
+                System.exit(1);
+            }
+            int res = 1;
+            try (CompiledFlow flw = new CompiledFlow(wf)) {
+                res = runBatch(flw,sips,param,params,start,stop,workers);
+                Metrics.stop();
+            } catch (Exception ex) {
+                logger.error("FATAL:",ex);
+            }
+            System.exit(res);
+        }
+        
+        try (CompiledFlow flw = new CompiledFlow(wf)) {
+            flw.newFlow(params).run(start,stop);
+            Metrics.stop();
         } catch (Exception ex) {
             logger.error("FATAL:",ex);
             System.exit(1);
         }
     }
+    
+    /**
+     * List the SIP workspaces of a batch, i.e., the subdirectories of a
+     * directory or the lines of a file (empty lines and lines starting with
+     * # are ignored).
+     */
+    static public List<File> listWorkspaces(File batch) throws IOException {
+        List<File> sips = new ArrayList<>();
+        if (batch.isDirectory()) {
+            File[] dirs = batch.listFiles();
+            if (dirs == null)
+                throw new IOException("directory["+batch+"] can't be listed!");
+            Arrays.sort(dirs);
+            for (File dir:dirs) {
+                if (dir.isDirectory())
+                    sips.add(dir);
+            }
+        } else {
+            for (String line:Files.readAllLines(batch.toPath(),StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#"))
+                    sips.add(new File(line));
+            }
+        }
+        return sips;
+    }
+    
+    // the properties for the files of a run, which default to a file in the workspace in batch mode
+    static private final String[][] WORKSPACE_FILES = {{"dk-pidList","pids.csv"},{"dk-rollbackLog","rollback.log"}};
+
+    /**
+     * Run the workflow for each SIP workspace on a pool of workers, and
+     * report a summary. Returns the exit status: 0 when all SIPs succeeded,
+     * 2 when one or more SIPs failed. Unless the workflow or the parameters
+     * specify them, the PID list and rollback log of a SIP are kept in its
+     * workspace. A workspace listed more than once is only run once.
+     */
+    static public int runBatch(final CompiledFlow flow,List<File> batch,final String param,final Map<String,XdmValue> params,final String start,final String stop,int workers) throws InterruptedException {
+        // a workspace listed twice would be run twice concurrently, so only keep its first listing
+        Map<File,File> unique = new LinkedHashMap<>();
+        for (File sip:batch) {
+            File key;
+            try {
+                key = sip.getCanonicalFile();
+            } catch (IOException ex) {
+                key = sip.getAbsoluteFile();
+            }
+            File first = unique.putIfAbsent(key,sip);
+            if (first!=null)
+                logger.warn("SIP["+sip+"] is the same workspace as SIP["+first+"], it's only run once!");
+        }
+        List<File> sips = new ArrayList<>(unique.values());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,Math.min(workers,sips.size())));
+        Map<File,Future<Boolean>> runs = new LinkedHashMap<>();
+        long begin = System.currentTimeMillis();
+        try {
+            for (final File sip:sips) {
+                runs.put(sip,pool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        try {
+                            Map<String,XdmValue> p = new HashMap<>(params);
+                            p.remove(param);
+                            addParameter(p,param,sip.getAbsolutePath());
+                            // the SIPs can't share the PID list and rollback log, so by default they go into the workspace
+                            for (String[] def:WORKSPACE_FILES) {
+                                if (!flow.hasProperty(def[0]) && !params.containsKey(def[0]))
+                                    addParameter(p,def[0],new File(sip,def[1]).getAbsolutePath());
+                            }
+                            return flow.newFlow(p).run(start,stop);
+                        } finally {
+                            // pooled threads are reused, so don't leak the SIP's MDC into the next one
+                            MDC.clear();
+                        }
+                    }
+                }));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        int succeeded = 0;
+        int failed = 0;
+        int errors = 0;
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<File,Future<Boolean>> run:runs.entrySet()) {
+            String status = null;
+            try {
+                if (run.getValue().get().booleanValue()) {
+                    status = "SUCCEEDED";
+                    succeeded++;
+                } else {
+                    status = "FAILED";
+                    failed++;
+                }
+            } catch (ExecutionException ex) {
+                status = "ERROR: "+ex.getCause().getMessage();
+                errors++;
+                logger.error("SIP["+run.getKey()+"] workflow threw an exception!",ex.getCause());
+            }
+            report.append("INF: SIP[").append(run.getKey()).append("] ").append(status).append('\n');
+        }
+        report.append("INF: batch of ").append(sips.size()).append(" SIPs: ")
+                .append(succeeded).append(" succeeded, ")
+                .append(failed).append(" failed, ")
+                .append(errors).append(" threw an exception in ")
+                .append(System.currentTimeMillis()-begin).append(" ms");
+        for (ActionListenerInterface listener:flow.getListeners()) {
+            if (listener instanceof ActionStatistics)
+                report.append('\n').append("INF: action statistics:\n").append(((ActionStatistics)listener).report());
+        }
+        System.out.println(report);
+        logger.info("batch of "+sips.size()+" SIPs: "+succeeded+" succeeded, "+failed+" failed, "+errors+" threw an exception");
+        return (failed+errors > 0 ? 2 : 0);
+    }
 }
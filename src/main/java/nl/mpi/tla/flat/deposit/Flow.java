@@ -17,24 +17,35 @@
 package nl.mpi.tla.flat.deposit;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import net.sf.saxon.s9api.SaxonApiException;
-import net.sf.saxon.s9api.XdmAtomicValue;
 import net.sf.saxon.s9api.XdmItem;
 import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.s9api.XdmValue;
 import nl.mpi.tla.flat.deposit.action.ActionInterface;
+import nl.mpi.tla.flat.deposit.monitor.ActionListenerInterface;
+import nl.mpi.tla.flat.deposit.monitor.ActionMeasurement;
+import nl.mpi.tla.flat.deposit.monitor.FlowListenerInterface;
+import nl.mpi.tla.flat.deposit.monitor.Timeline;
 import nl.mpi.tla.flat.deposit.util.Saxon;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 /**
  *
@@ -50,6 +61,8 @@ public class Flow {
     
     private static final Logger logger = LoggerFactory.getLogger(Flow.class.getName());
     
+    protected CompiledFlow compiled = null;
+    
     protected XdmNode spec = null;
     
     protected Context context = null;
@@ -71,6 +84,11 @@ public class Flow {
     protected String stop = null;
     
     protected Map<String, Semaphore> semaphores = new HashMap<>();
+    
+    // the listeners of the current run, i.e., the listeners of the compiled flow and the timeline
+    protected List<ActionListenerInterface> listeners = new ArrayList<>();
+    
+    protected Timeline timeline = null;
 
     public Flow(File spec) throws DepositException {
         this(spec,new HashMap<String,XdmValue>());
@@ -92,57 +110,48 @@ public class Flow {
     }
 
     public Flow(Source spec,File base,Map<String,XdmValue> params) throws DepositException {
-        this.base = base;
+        this(new CompiledFlow(spec,base),params);
+    }
+
+    public Flow(CompiledFlow flow) throws DepositException {
+        this(flow,new HashMap<String,XdmValue>());
+    }
+
+    public Flow(CompiledFlow flow,Map<String,XdmValue> params) throws DepositException {
+        this.compiled = flow;
+        this.base = flow.getBase();
+        this.spec = flow.getSpec();
+        this.rollback = flow.hasRollback();
+        this.semaphores = flow.getSemaphores();
+        this.context = new Context(this,this.spec,params);
         try {
-            this.spec = Saxon.buildDocument(spec);
-        } catch(SaxonApiException e) {
-            throw new DepositException(e);
+            loadFlow();
+        } catch (DepositException e) {
+            // release the files claimed by the context
+            context.close();
+            throw e;
         }
-        this.context = new Context(this,this.spec,params);
-        loadFlow();
     }
     
     private void loadFlow() throws DepositException {
-        try {
-            initActions = loadFlow(Saxon.xpath(spec, "/flow/init/action"));
-            mainActions = loadFlow(Saxon.xpath(spec, "/flow/main/action"));
-            exceptionActions = loadFlow(Saxon.xpath(spec, "/flow/exception/action"));
-            finalActions = loadFlow(Saxon.xpath(spec, "/flow/final/action"));
-            rollback = Saxon.xpath2boolean(spec, "exists(/flow/rollback)");
-        } catch (SaxonApiException ex) {
-            throw new DepositException(ex);
-        }
+        initActions = loadFlow(compiled.getInitActions(),"init");
+        mainActions = loadFlow(compiled.getMainActions(),"main");
+        exceptionActions = loadFlow(compiled.getExceptionActions(),"exception");
+        finalActions = loadFlow(compiled.getFinalActions(),"final");
     }
     
-    private List<Action> loadFlow(XdmValue actions) throws DepositException {
-        List<Action> flow = new LinkedList<>();
-        for (XdmItem action:actions) {
+    private List<Action> loadFlow(List<CompiledFlow.ActionSpec> actions,String phase) throws DepositException {
+        List<Action> flow = new ArrayList<>(actions.size());
+        for (CompiledFlow.ActionSpec action:actions) {
             try {
-                String name = Saxon.xpath2string(action,"@name");
-                String clazz = Saxon.xpath2string(action,"@class");
-                if (Saxon.hasAttribute(action,"when")) {
-                    if (!Saxon.xpath2boolean(action,Saxon.xpath2string(action,"@when"),context.getProperties())) {
-                        continue;
-                    }
-                }
-                try {
-                    // use the regular class loader to load the action class
-                    Class<ActionInterface> face = (Class<ActionInterface>) Class.forName(clazz);
-                    // instantiate the class and add it to the workflow
-                    ActionInterface actionImpl = face.newInstance();
-                    actionImpl.setName(name!=null?name:clazz);
-                    flow.add(new Action(actionImpl,Saxon.xpath(action, "parameter")));
-                    if (Saxon.hasAttribute(action,"sema")) {
-                        semaphores.put(actionImpl.getName(),new Semaphore(Integer.parseInt(Saxon.xpath2string(action, "@sema"))));
-                    }
-                } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
-                    Flow.logger.error(" couldn't load action["+name+"]["+clazz+"]! "+e.getMessage());
-                    throw new DepositException(e);
-                }
+                if (!action.isEnabled(context.getProperties()))
+                    continue;
             } catch (SaxonApiException ex) {
                 Flow.logger.error(" couldn't load actions! "+ex.getMessage());
                 throw new DepositException(ex);
             }
+            // instantiate the class and add it to the workflow
+            flow.add(new Action(action.newInstance(),action.getParameters(),action.getDependencies(),phase));
         }
         return flow;
     }
@@ -167,6 +176,10 @@ public class Flow {
         return this.start != null;
     }
     
+    public CompiledFlow getCompiledFlow() {
+        return this.compiled;
+    }
+    
     public Context getContext() {
         return this.context;
     }
@@ -191,43 +204,81 @@ public class Flow {
         if (start != null)
             this.start = start;
         if (stop != null)
-            this.stop = start;
+            this.stop = stop;
+        listeners = compiled.getListeners();
+        timeline = Timeline.open(context);
+        if (timeline != null) {
+            listeners = new ArrayList<>(listeners);
+            listeners.add(timeline);
+        }
+        Timeline.enter(timeline);
+        notifyStarted();
         DepositException t = null;
         try {
-            if (initFlow()) {
-                status = new Boolean(mainFlow(this.start,this.stop));
-            } else
-                status = new Boolean(false);
-        } catch (Exception e) {
-            status = new Boolean(false);
             try {
-                context.setException(e);
-                exceptionFlow(e);
-            } catch(DepositException x) {
-                t = x;
-                Flow.logger.error(" exception during the exception handling flow! "+x.getMessage(),x);
-            }
-            try {
-                if (rollback)
-                    rollback();
-            } catch(Exception x) {
-                Flow.logger.error(" exception during the rollback! "+x.getMessage(),x);
+                if (initFlow()) {
+                    status = new Boolean(mainFlow(this.start,this.stop));
+                } else
+                    status = new Boolean(false);
+            } catch (Exception e) {
+                status = new Boolean(false);
+                try {
+                    context.setException(e);
+                    exceptionFlow(e);
+                } catch(DepositException x) {
+                    t = x;
+                    Flow.logger.error(" exception during the exception handling flow! "+x.getMessage(),x);
+                }
+                try {
+                    if (rollback)
+                        rollback();
+                } catch(Exception x) {
+                    Flow.logger.error(" exception during the rollback! "+x.getMessage(),x);
+                }
+            } finally {
+                try {
+                    finalFlow();
+                } catch(DepositException x) {
+                    t = x;
+                    Flow.logger.error(" exception during the final flow! "+x.getMessage());
+                }
             }
+            if (t != null)
+                context.setException(t);
         } finally {
-            try {
-                finalFlow();
-            } catch(DepositException x) {
-                t = x;
-                Flow.logger.error(" exception during the final flow! "+x.getMessage());
-            }
+            context.close();
+            notifyFinished();
+            Timeline.exit();
         }
-        if (t != null) {
-            context.setException(t);
+        if (t != null)
             throw t;
-        }
         return status.booleanValue();
     }
     
+    private void notifyStarted() {
+        for (ActionListenerInterface listener:listeners) {
+            if (listener instanceof FlowListenerInterface) {
+                try {
+                    ((FlowListenerInterface)listener).started(this);
+                } catch (Exception e) {
+                    Flow.logger.warn("flow listener["+listener.getClass().getName()+"] failed! "+e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private void notifyFinished() {
+        for (ActionListenerInterface listener:listeners) {
+            if (listener instanceof FlowListenerInterface) {
+                try {
+                    ((FlowListenerInterface)listener).finished(this);
+                } catch (Exception e) {
+                    Flow.logger.warn("flow listener["+listener.getClass().getName()+"] failed! "+e.getMessage());
+                }
+            }
+        }
+    }
+    
     private boolean initFlow() throws DepositException {
         Flow.logger.debug("BEGIN  init flow");
         boolean next = true;
@@ -245,6 +296,8 @@ public class Flow {
     }
     
     private boolean mainFlow(String start,String stop) throws DepositException {
+        if (compiled.hasDependencies())
+            return parallelMainFlow(start,stop);
         Flow.logger.debug("BEGIN  main flow start["+start+"] stop["+stop+"]");
         boolean cont = true;
         boolean run  = (start==null);
@@ -275,6 +328,127 @@ public class Flow {
     
     }
 
+    /**
+     * Run the main flow as a DAG, i.e., an action is started as soon as the
+     * actions it depends on have finished. An action without @depends-on
+     * depends on all preceding actions. The start and stop actions delimit
+     * the actions to run in document order, and skipped actions count as
+     * finished.
+     */
+    private boolean parallelMainFlow(String start,String stop) throws DepositException {
+        Flow.logger.debug("BEGIN  main flow start["+start+"] stop["+stop+"] (parallel)");
+        if (next != start)
+            Flow.logger.warn("main flow start["+start+"] doesn't match stop/break["+next+"] from previous run");
+        this.next = null;
+        // the actions to run
+        List<Action> todo = new ArrayList<>();
+        boolean run  = (start==null);
+        for (Action action:mainActions) {
+            if (!run && start!=null && action.getName().equals(start))
+                run = true;
+            if (run) {
+                todo.add(action);
+                if (stop!=null && action.getName().equals(stop))
+                    break;
+            } else
+                Flow.logger.debug("ACTION main flow["+action.getName()+"] skipped!");
+        }
+        // the dependency graph
+        int[] waiting = new int[todo.size()];
+        List<List<Integer>> dependents = new ArrayList<>(todo.size());
+        for (int a=0;a<todo.size();a++) {
+            dependents.add(new ArrayList<Integer>());
+            Set<String> deps = todo.get(a).getDependencies();
+            for (int d=0;d<a;d++) {
+                if (deps==null || deps.contains(todo.get(d).getName())) {
+                    dependents.get(d).add(a);
+                    waiting[a]++;
+                }
+            }
+        }
+        // the scheduler
+        final Map<String,String> mdc = MDC.getCopyOfContextMap();
+        CompletionService<Boolean> done = new ExecutorCompletionService<>(compiled.getExecutor());
+        Map<Future<Boolean>,Integer> running = new HashMap<>();
+        boolean cont = true;
+        Exception ex = null;
+        try {
+            for (int a=0;a<todo.size();a++) {
+                if (waiting[a]==0)
+                    running.put(done.submit(new Perform(todo.get(a),mdc)),a);
+            }
+            while (!running.isEmpty()) {
+                Future<Boolean> f = done.take();
+                int a = running.remove(f);
+                Action action = todo.get(a);
+                try {
+                    if (!f.get()) {
+                        Flow.logger.debug("ACTION main BREAK["+action.getName()+"]");
+                        if (cont)
+                            this.next = action.getName();
+                        cont = false;
+                    }
+                } catch (ExecutionException e) {
+                    if (ex == null) {
+                        this.next = action.getName();
+                        ex = (e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+                    }
+                    cont = false;
+                }
+                if (cont && ex == null) {
+                    if (stop!=null && action.getName().equals(stop))
+                        Flow.logger.debug("ACTION main STOP");
+                    for (int d:dependents.get(a)) {
+                        if (--waiting[d]==0)
+                            running.put(done.submit(new Perform(todo.get(d),mdc)),d);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // the pool is shared, so only cancel the actions of this flow
+            for (Future<Boolean> f:running.keySet())
+                f.cancel(true);
+            throw new DepositException("main flow was interrupted!",e);
+        }
+        if (ex != null) {
+            if (ex instanceof DepositException)
+                throw (DepositException)ex;
+            throw new DepositException(ex);
+        }
+        if (cont && stop!=null && !todo.isEmpty() && todo.get(todo.size()-1).getName().equals(stop))
+            this.next = stop;
+        Flow.logger.debug(" END   main flow["+cont+"]");
+        return cont;
+    }
+    
+    // performs an action of the parallel main flow in its own thread, but within the log context of the flow 
+    class Perform implements Callable<Boolean> {
+        
+        private final Action action;
+        private final Map<String,String> mdc;
+        
+        Perform(Action action,Map<String,String> mdc) {
+            this.action = action;
+            this.mdc = mdc;
+        }
+        
+        @Override
+        public Boolean call() throws Exception {
+            if (mdc != null)
+                MDC.setContextMap(mdc);
+            Timeline.enter(timeline);
+            try {
+                Flow.logger.debug("ACTION main flow["+action.getName()+"]");
+                boolean cont = action.perform(context);
+                context.save();
+                return cont;
+            } finally {
+                Timeline.exit();
+                MDC.clear();
+            }
+        }
+    }
+
     private boolean exceptionFlow(Exception e) throws DepositException {
         Flow.logger.debug("BEGIN  exception flow");
         boolean next = true;
@@ -292,17 +466,10 @@ public class Flow {
         return next;
     }
     
-    private void rollback() {
-        XdmNode log = context.getRollbackLog();
+    private void rollback() throws DepositException {
         for (int a=mainActions.size();a>0;a--) {
             Action action = mainActions.get((a - 1));
-            try {
-                Map vars = new HashMap();
-                vars.put("action",new XdmAtomicValue(action.getName()));
-                action.rollback(context,Saxon.xpathList(log, "/rollback/event[@action=$action]",vars));
-            } catch (SaxonApiException ex) {
-                Flow.logger.error("error during rollback action["+action.getName()+"]",ex);
-            }
+            action.rollback(context,context.getRollbackEvents(action.getName()));
         }
     }
 
@@ -326,10 +493,26 @@ public class Flow {
         
         private ActionInterface action = null;
         private XdmValue params = null;
+        private Set<String> dependencies = null;
+        private String phase = null;
         
         public Action(ActionInterface action,XdmValue params) {
+            this(action,params,null,null);
+        }
+        
+        public Action(ActionInterface action,XdmValue params,Set<String> dependencies,String phase) {
             this.action = action;
             this.params = params;
+            this.dependencies = dependencies;
+            this.phase = phase;
+        }
+        
+        public String getPhase() {
+            return this.phase;
+        }
+        
+        public Set<String> getDependencies() {
+            return this.dependencies;
         }
         
         public String getName() {
@@ -343,33 +526,79 @@ public class Flow {
                 throw new DepositException("Action is unknown!");
             if (this.params==null)
                 throw new DepositException("Action["+this.action.getName()+"] parameters are unknown!");
+            if (listeners.isEmpty())
+                return perform(context,null);
+            ActionMeasurement m = new ActionMeasurement(compiled.getName(),MDC.get("sip"),this.phase,this.getName());
+            boolean res = false;
+            try {
+                res = perform(context,m);
+            } catch (DepositException | RuntimeException | Error e) {
+                notify(m.stop(null,e),false);
+                throw e;
+            }
+            notify(m.stop(res,null),false);
+            return res;
+        }
+        
+        private boolean perform(Context context,ActionMeasurement m) throws DepositException {
             try {
                 this.action.setParameters(context.loadParameters(new LinkedHashMap<String,XdmValue>(),this.params,"parameter"));
             } catch (SaxonApiException e) {
                 throw new DepositException("JIT loading and expanding parameters for action["+this.action.getName()+"] failed!",e);
             }
+            Semaphore sema = semaphores.get(this.getName());
             try {
-                if (semaphores.containsKey(this.getName()))
-                    semaphores.get(this.getName()).acquireUninterruptibly();
+                if (sema!=null) {
+                    long wait = (m!=null?System.nanoTime():0L);
+                    sema.acquireUninterruptibly();
+                    if (m!=null)
+                        m.addSemaphoreWait(System.nanoTime() - wait);
+                }
                 return this.action.perform(context);
             } finally {
-                if (semaphores.containsKey(this.getName()))
-                    semaphores.get(this.getName()).release();
+                if (sema!=null)
+                    sema.release();
+            }
+        }
+        
+        private void notify(ActionMeasurement m,boolean rollback) {
+            for (ActionListenerInterface listener:listeners) {
+                try {
+                    if (rollback)
+                        listener.rolledBack(m);
+                    else
+                        listener.performed(m);
+                } catch (Exception e) {
+                    Flow.logger.warn("action listener["+listener.getClass().getName()+"] failed for action["+this.getName()+"]! "+e.getMessage());
+                }
             }
         }
         
         public void rollback(Context context,List<XdmItem> events) {
             Flow.logger.debug("rollback action["+this.action.getName()+"]["+this.action.getClass().getName()+"]");
-            for (ListIterator<XdmItem> iter = events.listIterator(events.size());iter.hasPrevious();) {
-                try {
-                    XdmItem x = iter.previous();
-                    Flow.logger.debug("- rollback event["+Saxon.xpath2string(x,"@type")+"]");
-                    for (XdmItem p:Saxon.xpath(x, "./param"))
-                        Flow.logger.debug("- - param["+Saxon.xpath2string(p, "@name")+"="+Saxon.xpath2string(p, "@value")+"]");
-                } catch (SaxonApiException ex) {
+            if (Flow.logger.isDebugEnabled()) {
+                for (ListIterator<XdmItem> iter = events.listIterator(events.size());iter.hasPrevious();) {
+                    try {
+                        XdmItem x = iter.previous();
+                        Flow.logger.debug("- rollback event["+Saxon.xpath2string(x,"@type")+"]");
+                        for (XdmItem p:Saxon.xpath(x, "./param"))
+                            Flow.logger.debug("- - param["+Saxon.xpath2string(p, "@name")+"="+Saxon.xpath2string(p, "@value")+"]");
+                    } catch (SaxonApiException ex) {
+                    }
                 }
             }
-            this.action.rollback(context, events);
+            if (listeners.isEmpty()) {
+                this.action.rollback(context, events);
+                return;
+            }
+            ActionMeasurement m = new ActionMeasurement(compiled.getName(),MDC.get("sip"),"rollback",this.getName());
+            try {
+                this.action.rollback(context, events);
+            } catch (RuntimeException | Error e) {
+                notify(m.stop(null,e),true);
+                throw e;
+            }
+            notify(m.stop(true,null),true);
         }
     }
 }
\ No newline at end of file
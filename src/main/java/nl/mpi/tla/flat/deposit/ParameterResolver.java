@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmValue;
+import nl.mpi.tla.flat.deposit.util.AVT;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the closure of loaded properties or parameters, i.e., expands the
+ * {...} templates still left in their values. When the values are also the
+ * variables, i.e., properties, they refer to each other. These references
+ * form a graph, which is resolved depth first so each value is expanded
+ * only once, and after the values it refers to. A cyclic reference is an
+ * error.
+ */
+class ParameterResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParameterResolver.class.getName());
+
+    private final Map<String,XdmValue> map;
+    private final Map<String,XdmValue> vars;
+    private final Map<String,String> nss;
+    private final String type;
+
+    // per name: FALSE when being resolved, TRUE when resolved
+    private final Map<String,Boolean> state = new HashMap<>();
+    private final Deque<String> path = new ArrayDeque<>();
+
+    ParameterResolver(Map<String,XdmValue> map,Map<String,XdmValue> vars,Map<String,String> nss,String type) {
+        this.map = map;
+        this.vars = vars;
+        this.nss = nss;
+        this.type = type;
+    }
+
+    public Map<String,XdmValue> resolve() throws SaxonApiException, DepositException {
+        for (String name:new ArrayList<>(map.keySet()))
+            resolve(name);
+        return map;
+    }
+
+    private void resolve(String name) throws SaxonApiException, DepositException {
+        Boolean resolved = state.get(name);
+        if (resolved != null) {
+            if (resolved)
+                return;
+            StringBuilder cycle = new StringBuilder(name);
+            for (Iterator<String> iter=path.iterator();iter.hasNext();) {
+                String n = iter.next();
+                cycle.insert(0,n+" -> ");
+                if (n.equals(name))
+                    break;
+            }
+            logger.error(type+"["+name+"] has a cyclic reference["+cycle+"]!");
+            throw new DepositException(type+"["+name+"] has a cyclic reference["+cycle+"]!");
+        }
+        state.put(name,Boolean.FALSE);
+        path.push(name);
+        XdmValue vals = map.get(name);
+        List<XdmItem> nvals = new ArrayList<>(vals.size());
+        for (XdmItem val:vals) {
+            XdmItem item = val;
+            String v = val.toString();
+            AVT avt = AVT.compile(v);
+            // an expansion can result in new templates, but never more often than there are values to refer to
+            for (int i=0;avt.hasXPath();i++) {
+                if (i > map.size())
+                    throw new DepositException(type+"["+name+"] value["+val+"] doesn't resolve!");
+                if (map == vars) {
+                    for (String ref:avt.getVariables(nss)) {
+                        if (map.containsKey(ref))
+                            resolve(ref);
+                    }
+                }
+                String r = avt.evaluate(item,vars,nss,false);
+                if (r.equals(v))
+                    break;
+                v = r;
+                item = new XdmAtomicValue(r);
+                avt = AVT.compile(v);
+            }
+            nvals.add(new XdmAtomicValue(v));
+        }
+        map.put(name,value(nvals));
+        path.pop();
+        state.put(name,Boolean.TRUE);
+        if (logger.isDebugEnabled())
+            logger.debug("closure "+type+"["+name+"]["+map.get(name)+"]");
+    }
+
+    /**
+     * Turn a list of items into a value, a single item stays a plain item so
+     * its toString() remains its string value.
+     */
+    static XdmValue value(List<XdmItem> items) {
+        if (items.size() == 1)
+            return items.get(0);
+        return new XdmValue(items);
+    }
+
+}
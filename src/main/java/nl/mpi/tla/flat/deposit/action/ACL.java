@@ -19,6 +19,7 @@ package nl.mpi.tla.flat.deposit.action;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.util.Objects;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.URIResolver;
@@ -31,6 +32,7 @@ import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
 import nl.mpi.tla.flat.deposit.util.Saxon;
 import nl.mpi.tla.flat.deposit.util.SaxonListener;
+import nl.mpi.tla.flat.deposit.monitor.Timeline;
 import org.apache.commons.io.FileUtils;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
@@ -50,7 +52,7 @@ public class ACL extends AbstractAction {
 
     @Override
     public boolean perform(Context context) throws DepositException {
-        URIResolver org = Saxon.getXsltCompiler().getURIResolver();
+        URIResolver resolver = Saxon.getXsltCompiler().getURIResolver();
         try {
             String namespace = this.getParameter("activeFedoraNamespace", context.getProperty("activeFedoraNamespace", "lat").toString());
             // check for the policy
@@ -87,9 +89,9 @@ public class ACL extends AbstractAction {
             }
 
             if (hasParameter("jar_acl2xacml")) {
-                Saxon.getXsltCompiler().setURIResolver(new ACL.JarURIResolver(org,new File(getParameter("jar_acl2xacml"))));
+                resolver = new ACL.JarURIResolver(resolver,new File(getParameter("jar_acl2xacml")));
             } else {
-                Saxon.getXsltCompiler().setURIResolver(new ACL.JarURIResolver(org));
+                resolver = new ACL.JarURIResolver(resolver);
             }
 
             // convert policy N3 to TriX
@@ -98,9 +100,10 @@ public class ACL extends AbstractAction {
             model.read(policy.getAbsolutePath()) ;
             OutputStream trix = new FileOutputStream(new File(dir +"/policy.trix"));
             RDFDataMgr.write(trix, model, Lang.TRIX);
+            Timeline.written(new File(dir +"/policy.trix"));
 
             // convert trix to semantic triples using ACL/sl-trix-to-sem-triples.xsl
-            XsltTransformer trix2sem = Saxon.buildTransformer(ACL.class.getResource("/ACL/sl-trix-to-sem-triples.xsl")).load();
+            XsltTransformer trix2sem = Saxon.buildTransformer(ACL.class.getResource("/ACL/sl-trix-to-sem-triples.xsl"),resolver).load();
             SaxonListener listener = new SaxonListener("ACL",MDC.get("sip"));
             trix2sem.setMessageListener(listener);
             trix2sem.setErrorListener(listener);
@@ -123,14 +126,14 @@ public class ACL extends AbstractAction {
                     logger.error("The stylesheet[" + y + "] can't be read!");
                     return false;
                 }
-                wacl2acl = Saxon.buildTransformer(y).load();
+                wacl2acl = Saxon.buildTransformer(y,resolver).load();
             } else {
-                wacl2acl = Saxon.buildTransformer(ACL.class.getResource("/ACL/WebACL2ACL.xsl")).load();
+                wacl2acl = Saxon.buildTransformer(ACL.class.getResource("/ACL/WebACL2ACL.xsl"),resolver).load();
             }
             wacl2acl.setMessageListener(listener);
             wacl2acl.setErrorListener(listener);
             wacl2acl.setParameter(new QName("ns"), new XdmAtomicValue(namespace));
-            wacl2acl.setParameter(new QName("record"), Saxon.wrapNode(context.getSIP().getRecord()));
+            wacl2acl.setParameter(new QName("record"), context.getSIP().getRecordNode());
             wacl2acl.setParameter(new QName("acl-base"), new XdmAtomicValue(dir.toString()));
             if (this.hasParameter("default-account"))
                 wacl2acl.setParameter(new QName("default-accounts"), this.params.get("default-account"));
@@ -155,9 +158,9 @@ public class ACL extends AbstractAction {
                     logger.error("The stylesheet["+x+"] can't be read!");
                     return false;
                 }
-                acl2xacml =  Saxon.buildTransformer(x).load();
+                acl2xacml =  Saxon.buildTransformer(x,resolver).load();
             } else {
-                acl2xacml =  Saxon.buildTransformer(ACL.class.getResource("/ACL/ACL2XACML.xsl")).load();
+                acl2xacml =  Saxon.buildTransformer(ACL.class.getResource("/ACL/ACL2XACML.xsl"),resolver).load();
             }
             acl2xacml.setMessageListener(listener);
             acl2xacml.setErrorListener(listener);
@@ -175,10 +178,6 @@ public class ACL extends AbstractAction {
             acl2xacml.transform();
         } catch (Exception e) {
             throw new DepositException("The creation of ACL files failed!", e);
-        } finally {
-            // restore the URL
-            if (org!=null)
-                Saxon.getXsltCompiler().setURIResolver(org);
         }
         return true;
     }
@@ -211,5 +210,18 @@ public class ACL extends AbstractAction {
                 return resolver.resolve(href,base);
             }
         }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof JarURIResolver))
+                return false;
+            JarURIResolver jar = (JarURIResolver)other;
+            return Objects.equals(this.resolver,jar.resolver) && Objects.equals(this.xsl,jar.xsl);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.resolver,this.xsl);
+        }
     }
 }
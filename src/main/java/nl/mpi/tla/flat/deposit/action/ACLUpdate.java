@@ -48,8 +48,6 @@ import org.slf4j.MDC;
 public class ACLUpdate extends FedoraAction {
     
     private static final Logger logger = LoggerFactory.getLogger(ACLUpdate.class.getName());
-    
-    private static XsltTransformer strip = null;
 
     @Override
     public boolean perform(Context context) throws DepositException {
@@ -75,7 +73,8 @@ public class ACLUpdate extends FedoraAction {
                 String tpe = "SIP";
                 if (sip.isUpdate()) {
                     tpe = "AIP";
-                    GetObjectProfileResponse res = getObjectProfile(sip.getFID(true).toString()).execute();
+                    String fid = sip.getFID(true).toString();
+                    GetObjectProfileResponse res = fedora("getObjectProfile", () -> getObjectProfile(fid).execute(getFedoraClient()));
                     if (res.getStatus()==200) {
                         oid = res.getOwnerId();
                     } else
@@ -127,7 +126,7 @@ public class ACLUpdate extends FedoraAction {
         if (!policy.exists()) {
             logger.debug("No new POLICY for this "+tpe+"["+fid+"], get existing!");
             try {
-                FedoraResponse res = getDatastreamDissemination(fid,"POLICY").execute();
+                FedoraResponse res = fedora("getDatastreamDissemination", () -> getDatastreamDissemination(fid,"POLICY").execute(getFedoraClient()));
                 if (res.getStatus()==200) {
                     InputStream str = res.getEntityInputStream();
                     Saxon.save(new StreamSource(str),policy);
@@ -146,11 +145,11 @@ public class ACLUpdate extends FedoraAction {
         if (!rels.exists()) {
             logger.debug("No new RELS-EXT for this "+tpe+"["+fid+"], get existing!");
             try {
-                FedoraResponse res = getDatastreamDissemination(fid,"RELS-EXT").execute();
+                FedoraResponse res = fedora("getDatastreamDissemination", () -> getDatastreamDissemination(fid,"RELS-EXT").execute(getFedoraClient()));
                 if (res.getStatus()==200) {
                     InputStream str = res.getEntityInputStream();
-                    if (strip == null)
-                        strip = Saxon.buildTransformer(FOXUpdate.class.getResource("/ACLUpdate/stripRELS-EXT.xsl")).load();
+                    // a transformer isn't thread-safe, so load a fresh one from the (cached) executable
+                    XsltTransformer strip = Saxon.buildTransformer(FOXUpdate.class.getResource("/ACLUpdate/stripRELS-EXT.xsl")).load();
                     SaxonListener listener = new SaxonListener("ACLUpdate",MDC.get("sip"));
                     strip.setMessageListener(listener);
                     strip.setErrorListener(listener);
@@ -26,7 +26,10 @@ import java.util.Map;
 import nl.knaw.meertens.pid.PIDService;
 import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.monitor.ExternalCall;
 import nl.mpi.tla.flat.deposit.sip.Collection;
+import nl.mpi.tla.flat.deposit.sip.FID;
+import nl.mpi.tla.flat.deposit.sip.PID;
 import nl.mpi.tla.flat.deposit.sip.Resource;
 import nl.mpi.tla.flat.deposit.util.Saxon;
 
@@ -98,20 +101,17 @@ public class EPICHandleCreation extends AbstractAction {
             
             if (context.getSIP().hasPID() && context.getSIP().hasFID()) {
 
-                String fid = context.getSIP().getFID().toString().replaceAll("#.*","");
-                String frag   = context.getSIP().getFID().getRawFragment();
-                if (frag == null)
-                    throw new DepositException("SIP FID["+context.getSIP().getFID()+"] isn't complete!");
-                String dsid = frag.replaceAll("@.*","");
-                String asof = frag.replaceAll(".*@","");
+                FID fid = context.getSIP().getParsedFID();
+                if (!fid.hasDatastream())
+                    throw new DepositException("SIP FID["+fid+"] isn't complete!");
 
-                URI    pid  = context.getSIP().getPID();
-                String uuid = pid.toString().replaceAll(".*/","");
-                String loc  = server+"/objects/"+fid+"/datastreams/"+dsid+"/content?asOfDateTime="+asof;
+                PID    pid  = context.getSIP().getParsedPID();
+                String uuid = pid.getSuffix();
+                String loc  = fid.getContentLocation(server);
 
                 logger.info("Create handle["+pid+"]["+uuid+"] -> URI["+loc+"]");
                 context.registerRollbackEvent(this, "epic creation", "uuid", uuid, "loc", loc);
-                String hdl = ps.requestHandle(uuid, loc);
+                String hdl = ExternalCall.call("epic", "requestHandle", () -> ps.requestHandle(uuid, loc));
                 logger.info("Created handle["+hdl+"] -> URI["+loc+"]");
             } else {
                 if (!context.getSIP().hasPID())
@@ -122,34 +122,31 @@ public class EPICHandleCreation extends AbstractAction {
 
             for (Collection col:context.getSIP().getCollections(true)) {
                 if (col.hasPID() && col.hasFID()) {
-                    String fid    = col.getFID().toString().replaceAll("#.*","");
-                    String frag   = col.getFID().getRawFragment();
-                    if (frag == null) {
-                        logger.warn("collection FID["+col.getFID()+"] PID["+col.getPID()+"] isn't updated!");
+                    FID fid       = col.getParsedFID();
+                    if (!fid.hasDatastream()) {
+                        logger.warn("collection FID["+fid+"] PID["+col.getPID()+"] isn't updated!");
                         continue;
                     }
-                    String dsid   = frag.replaceAll("@.*","");
-                    String asof   = frag.replaceAll(".*@","");
 
-                    String pid    = col.getPID().toString().replaceAll("^http(s?)://hdl.handle.net/","hdl:");
-                    String prefix = pid.replaceAll("hdl:([^/]*)/.*","$1");
-                    String uuid   = pid.replaceAll(".*/","");
+                    PID pid       = col.getParsedPID();
+                    String prefix = pid.getPrefix();
+                    String uuid   = pid.getSuffix();
                     
-                    String loc    = server+"/objects/"+fid+"/datastreams/"+dsid+"/content?asOfDateTime="+asof;
+                    String loc    = fid.getContentLocation(server);
 
                     logger.info("Lookup handle["+prefix+"/"+uuid+"]");
-                    String cur    = (isTest?null:ps.getPIDLocation(prefix+"/"+uuid));
+                    String cur    = (isTest?null:ExternalCall.call("epic", "getPIDLocation", () -> ps.getPIDLocation(prefix+"/"+uuid)));
                     logger.info("Looked up handle["+prefix+"/"+uuid+"] -> URI["+cur+"]");
                     
                     if (cur == null) {
                         logger.info("Create handle["+pid+"]["+uuid+"] -> URI["+loc+"]");
                         context.registerRollbackEvent(this, "epic creation", "uuid", uuid, "loc", loc);
-                        String hdl = ps.requestHandle(uuid, loc);
+                        String hdl = ExternalCall.call("epic", "requestHandle", () -> ps.requestHandle(uuid, loc));
                         logger.info("Created handle["+hdl+"] -> URI["+loc+"]");
                     } else {
                         logger.info("Update handle["+pid+"]["+uuid+"]["+cur+"] -> URI["+loc+"]");
                         context.registerRollbackEvent(this, "epic Update", "uuid", uuid, "loc", loc, "cur", cur);
-                        ps.updateLocation(prefix+"/"+uuid, loc);
+                        ExternalCall.run("epic", "updateLocation", () -> ps.updateLocation(prefix+"/"+uuid, loc));
                         logger.info("Updated handle["+prefix+"/"+uuid+"] -> URI["+loc+"]");
                     }
                 } else {
@@ -164,21 +161,17 @@ public class EPICHandleCreation extends AbstractAction {
                 if (res.isInsert() || res.isUpdate()) {
                     // TODO: update might be a PID update
                     if (res.hasPID() && res.hasFID()) {
-                        String fid  = res.getFID().toString().replaceAll("#.*","");
-                        String frag   = res.getFID().getRawFragment();
-                        if (frag == null)
-                            throw new DepositException("resource FID["+res.getFID()+"] isn't complete!");
-                        String dsid = frag.replaceAll("@.*","");
-                        String asof = frag.replaceAll(".*@","");
+                        FID fid = res.getParsedFID();
+                        if (!fid.hasDatastream())
+                            throw new DepositException("resource FID["+fid+"] isn't complete!");
 
-                        String pid    = res.getPID().toString().replaceAll("^http(s?)://hdl.handle.net/","hdl:");
-                        String prefix = pid.replaceAll("hdl:([^/]*)/.*","$1");
-                        String uuid   = pid.replaceAll(".*/","");
-                        String loc  = server+"/objects/"+fid+"/datastreams/"+dsid+"/content?asOfDateTime="+asof;
+                        PID pid     = res.getParsedPID();
+                        String uuid = pid.getSuffix();
+                        String loc  = fid.getContentLocation(server);
 
                         logger.info("Create handle["+pid+"]["+uuid+"] -> URI["+loc+"]");
                         context.registerRollbackEvent(this, "epic creation", "uuid", uuid, "loc", loc);
-                        String hdl  = ps.requestHandle(uuid, loc);
+                        String hdl  = ExternalCall.call("epic", "requestHandle", () -> ps.requestHandle(uuid, loc));
                         logger.info("Created handle["+hdl+"] -> URI["+loc+"]");
                     } else {
                         if (!res.hasPID())
@@ -189,49 +182,46 @@ public class EPICHandleCreation extends AbstractAction {
                 }
             }
             
-            Map<URI,URI> pids = context.getPIDs();
-            for (URI pid:pids.keySet()) {
-                URI red = pids.get(pid);
+            for (Map.Entry<URI,URI> entry:context.getPIDs().entrySet()) {
+                URI pid = entry.getKey();
+                URI red = entry.getValue();
                 if (red == null)
                     continue;
                 boolean c = false;
                 for(XdmItem ns:namespaces) {
                     if (red.toString().startsWith(ns.getStringValue()+":")) {
-                        String fid    = red.toString().replaceAll("#.*","");
-                        String frag   = red.getRawFragment();
-                        if (frag == null) {
+                        FID fid = FID.parse(red);
+                        if (!fid.hasDatastream()) {
                             logger.warn("redirect FID["+red+"] isn't complete!");
                             c = true;
                             break;
                         }
 
-                        String dsid   = frag.replaceAll("@.*","");
-                        String asof   = frag.replaceAll(".*@","");
-                        String loc    = server+"/objects/"+fid+"/datastreams/"+dsid+"/content?asOfDateTime="+asof;
-                        red           = new URI(loc);
+                        red = new URI(fid.getContentLocation(server));
                         break;
                     }
                 }
                 if (c)
                     continue;
                     
-                String pidStr = pid.toString().replaceAll("^http(s?)://hdl.handle.net/","hdl:");
-                String prefix = pidStr.replaceAll("hdl:([^/]*)/.*","$1");
-                String uuid   = pidStr.replaceAll(".*/","");
+                PID handle    = PID.parse(pid);
+                String prefix = handle.getPrefix();
+                String uuid   = handle.getSuffix();
+                String to     = red.toString();
 
                 logger.info("Lookup handle["+prefix+"/"+uuid+"]");
-                String cur    = (isTest?null:ps.getPIDLocation(prefix+"/"+uuid));
+                String cur    = (isTest?null:ExternalCall.call("epic", "getPIDLocation", () -> ps.getPIDLocation(prefix+"/"+uuid)));
                 logger.info("Looked up handle["+prefix+"/"+uuid+"] -> URI["+cur+"]");
                     
                 if (cur == null) {
                     logger.info("Create handle["+pid+"]["+uuid+"] -> URI["+red+"]");
                     context.registerRollbackEvent(this, "epic creation", "uuid", uuid, "loc", red.toString());
-                    String hdl = ps.requestHandle(uuid, red.toString());
+                    String hdl = ExternalCall.call("epic", "requestHandle", () -> ps.requestHandle(uuid, to));
                     logger.info("Created handle["+hdl+"] -> URI["+red.toString()+"]");
                 } else {
                     logger.info("Update handle["+pid+"]["+uuid+"]["+cur+"] -> URI["+red+"]");
                     context.registerRollbackEvent(this, "epic Update", "uuid", uuid, "loc", red.toString(), "cur", cur);
-                    ps.updateLocation(prefix+"/"+uuid, red.toString());
+                    ExternalCall.run("epic", "updateLocation", () -> ps.updateLocation(prefix+"/"+uuid, to));
                     logger.info("Updated handle["+prefix+"/"+uuid+"] -> URI["+red+"]");
                 }
             }
@@ -279,7 +269,7 @@ public class EPICHandleCreation extends AbstractAction {
 	                	
 	                	if(delMode){
 	                		try {
-	                			ps.deleteHandle(uuid);
+	                			ExternalCall.run("epic", "deleteHandle", () -> ps.deleteHandle(uuid));
 	                			logger.debug("rollback action[" + this.getName() + "] event[" + tpe + "] deleted handle [" + uuid + "]");
 	                		}
 	                		catch(IOException e) {
@@ -289,7 +279,7 @@ public class EPICHandleCreation extends AbstractAction {
 	                	}
 	                	
 	                	if(!delMode) {
-	                		ps.updateLocation(uuid, tombstone);
+	                		ExternalCall.run("epic", "updateLocation", () -> ps.updateLocation(uuid, tombstone));
 	                		logger.debug("rollback action[" + this.getName() + "] event[" + tpe + "] updated handle [" + uuid + "]" + " to " + tombstone);
 	                	}
 	                }
@@ -298,7 +288,7 @@ public class EPICHandleCreation extends AbstractAction {
 		                	String loc = Saxon.xpath2string(event, "param[@name='loc']/@value");
 		                	String cur = Saxon.xpath2string(event, "param[@name='cur']/@value");
 		                	
-		                	ps.updateLocation(uuid, cur);
+		                	ExternalCall.run("epic", "updateLocation", () -> ps.updateLocation(uuid, cur));
 	                		logger.debug("rollback action[" + this.getName() + "] event[" + tpe + "] updated handle [" + uuid + "]" + " to " + cur);
 	                }
 	                else {
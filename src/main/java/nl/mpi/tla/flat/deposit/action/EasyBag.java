@@ -36,9 +36,6 @@ import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.Map;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.XdmAtomicValue;
@@ -49,6 +46,7 @@ import nl.mpi.tla.flat.deposit.DepositException;
 import nl.mpi.tla.flat.deposit.sip.Resource;
 import nl.mpi.tla.flat.deposit.sip.SIPInterface;
 import nl.mpi.tla.flat.deposit.util.Saxon;
+import nl.mpi.tla.flat.deposit.monitor.Timeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,18 +68,19 @@ public class EasyBag extends AbstractAction {
             
             // copy the resources
             for (Resource res:sip.getResources()) {
-                Files.copy(res.getPath(),Paths.get(bag.toString(),res.getPath().getFileName().toString()));
+                Path copy = Files.copy(res.getPath(),Paths.get(bag.toString(),res.getPath().getFileName().toString()));
+                Timeline.written(copy.toFile());
             }
             
             // add a for Easy tailored version of the CMD record
             Path cmdi = Paths.get(bag.toString(),"Niet-DC-metadata/CMDI");
             Files.createDirectories(cmdi);
             XsltTransformer cmd = Saxon.buildTransformer(FOXCreate.class.getResource("/EasyBag/cmd.xsl")).load();
-            cmd.setSource(new DOMSource(sip.getRecord(),sip.getBase().toURI().toString()));
+            cmd.setInitialContextNode(sip.getRecordNode());
             XdmDestination destination = new XdmDestination();
             cmd.setDestination(destination);
             cmd.transform();
-            TransformerFactory.newInstance().newTransformer().transform(destination.getXdmNode().asSource(),new StreamResult(Paths.get(cmdi.toString(),"record.xml").toFile()));
+            Saxon.save(destination,Paths.get(cmdi.toString(),"record.xml").toFile());
 
             // turn directory into a bag
             BagFactory bf = new BagFactory();
@@ -105,15 +104,15 @@ public class EasyBag extends AbstractAction {
             destination = new XdmDestination();
             dataset.setDestination(destination);
             dataset.transform();
-            TransformerFactory.newInstance().newTransformer().transform(destination.getXdmNode().asSource(),new StreamResult(Paths.get(meta.toString(),"dataset.xml").toFile()));
+            Saxon.save(destination,Paths.get(meta.toString(),"dataset.xml").toFile());
             
             // create metadata/files.xml
             XsltTransformer files = Saxon.buildTransformer(FOXCreate.class.getResource("/EasyBag/files.xsl")).load();
-            files.setSource(new DOMSource(sip.getRecord(),sip.getBase().toURI().toString()));
+            files.setInitialContextNode(sip.getRecordNode());
             destination = new XdmDestination();
             files.setDestination(destination);
             files.transform();
-            TransformerFactory.newInstance().newTransformer().transform(destination.getXdmNode().asSource(),new StreamResult(Paths.get(meta.toString(),"files.xml").toFile()));
+            Saxon.save(destination,Paths.get(meta.toString(),"files.xml").toFile());
             
             //reload and update the bag            
             b = bf.createBag(bag.toFile(),BagFactory.Version.V0_97,BagFactory.LoadOption.BY_FILES);
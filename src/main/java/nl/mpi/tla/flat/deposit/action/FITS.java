@@ -56,12 +56,13 @@ import net.sf.saxon.s9api.XdmItem;
 import net.sf.saxon.s9api.XdmNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.monitor.ExternalCall;
 import nl.mpi.tla.flat.deposit.sip.Resource;
 import nl.mpi.tla.flat.deposit.sip.cmdi.CMDResource;
-import static nl.mpi.tla.flat.deposit.util.Global.NAMESPACES;
 import nl.mpi.tla.flat.deposit.util.Saxon;
 import org.apache.commons.io.FileUtils;
 
@@ -81,7 +82,8 @@ public class FITS extends AbstractAction {
 	File dir;
 	int unallowed;
 	XdmNode mimetypes;
-	private static volatile boolean isAnyError;
+	// per instance, i.e., per flow, as concurrent flows shouldn't abort each other
+	private volatile boolean isAnyError;
 
 	@Override
 	public boolean perform(Context context) throws DepositException {
@@ -132,6 +134,8 @@ public class FITS extends AbstractAction {
 			throw new DepositException(ex);
 		}
 		threadCounter = 0;
+		// the FITS calls are made from the pool, so pass on the log context of the SIP
+		final Map<String, String> mdc = MDC.getCopyOfContextMap();
 		executor = Executors.newFixedThreadPool(threadLimit);
 		TaskLimitSemaphore obj = new TaskLimitSemaphore(executor, threadLimit);
 		List<Future<Integer>> list = new ArrayList<Future<Integer>>();
@@ -147,18 +151,26 @@ public class FITS extends AbstractAction {
 						URL call = new URL(fitsURL, "examine?file=" + file.getAbsolutePath());
 						if (threadCounter <= threadLimit) {
 							future = obj.submit(() -> {
+								if (mdc != null)
+									MDC.setContextMap(mdc);
 								threadCounter = threadCounter + 1;
 								logger.debug("Running: Thread name = " + Thread.currentThread().getName());
 								logger.debug("Running: Thread counter = " + threadCounter);
 								try {
 									logger.debug("URL call = " + call.toString());
+									ExternalCall measure = ExternalCall.start("fits", "examine");
 									HttpURLConnection con = (HttpURLConnection) call.openConnection();
 									con.setRequestMethod("GET");
 									con.connect();
 									int status = -1;
 									try {
 										status = con.getResponseCode();
+										if (status > 299)
+											measure.fail(String.valueOf(status));
+										else
+											measure.stop(String.valueOf(status));
 									} catch (IOException e) {
+										measure.fail(e);
 										isAnyError = true;
 										logger.debug("set isAnyError TRUE");
 										con.disconnect();
@@ -240,14 +252,14 @@ public class FITS extends AbstractAction {
 									// loop over /mimetypes/mimetype
 									boolean bCheck1 = false; // tells if a mimetype was found for the resource
 									for (Iterator<XdmItem> iter = Saxon.xpathIterator(mimetypes, "/mimetypes/mimetype",
-											null, NAMESPACES); iter.hasNext();) {
+											null, context.getNamespaces()); iter.hasNext();) {
 										XdmItem mt = iter.next();
 										String mime = Saxon.xpath2string(mt, "normalize-space(@value)");
 										logger.debug(". . mimetype[" + mime + "] check");
 										Boolean bCheck2 = new Boolean(true); // tells if all assertion groups succeeded
 										if (Saxon.xpath2boolean(mt, "exists(assertions)")) {
 											for (Iterator<XdmItem> iter2 = Saxon.xpathIterator(mt, "assertions", null,
-													NAMESPACES); iter2.hasNext();) {
+													context.getNamespaces()); iter2.hasNext();) {
 												XdmItem assertions = iter2.next();
 												// get the xpath
 												String xp = Saxon.xpath2string(assertions, "normalize-space(@xpath)");
@@ -259,7 +271,7 @@ public class FITS extends AbstractAction {
 												// evaluate xpath
 												Map vars = new HashMap();
 												vars.put("mime", new XdmAtomicValue(mime));
-												if (!Saxon.xpath2boolean(result, xp, vars, NAMESPACES)) {
+												if (!Saxon.xpath2boolean(result, xp, vars, context.getNamespaces())) {
 													// the assertions XPath failed, continue to the next
 													// /mimetypes/mimetype
 													logger.debug(". . . assertions[" + xp + "] check failed");
@@ -273,12 +285,12 @@ public class FITS extends AbstractAction {
 																		// for
 																		// the resource
 												for (Iterator<XdmItem> iter3 = Saxon.xpathIterator(assertions, "assert",
-														null, NAMESPACES); iter3.hasNext();) {
+														null, context.getNamespaces()); iter3.hasNext();) {
 													XdmItem a = iter3.next();
 													String axp = Saxon.xpath2string(a, "normalize-space(@xpath)");
 													if (!axp.isEmpty()) {
 														// evaluate the assertion xpath
-														bCheck3 = Saxon.xpath2boolean(result, axp, null, NAMESPACES);
+														bCheck3 = Saxon.xpath2boolean(result, axp, null, context.getNamespaces());
 														if (!bCheck3) {
 															// assertion fails, print the AVT log message
 															logger.debug(". . . . assert[" + axp + "] check failed");
@@ -287,7 +299,7 @@ public class FITS extends AbstractAction {
 																	file, mime);
 															logger.error("Message from FITS file: " + Saxon.avt(
 																	Saxon.xpath2string(a, "@message"), result,
-																	context.getProperties(), NAMESPACES));
+																	context.getProperties(), context.getNamespaces()));
 															// break out of the assertion loop
 															break;
 														}
@@ -319,7 +331,7 @@ public class FITS extends AbstractAction {
 											// evaluate xpath
 											Map vars = new HashMap();
 											vars.put("mime", new XdmAtomicValue(mime));
-											if (!Saxon.xpath2boolean(result, xp, vars, NAMESPACES)) {
+											if (!Saxon.xpath2boolean(result, xp, vars, context.getNamespaces())) {
 												// the assertions XPath failed, continue to the next /mimetypes/mimetype
 												logger.debug(". . . assertions[" + xp + "] check failed");
 												bCheck2 = null;
@@ -356,7 +368,7 @@ public class FITS extends AbstractAction {
 										if (o != null) {
 											// check for an xpath
 											String oxp = Saxon.xpath2string(o, "normalize-space(@xpath)");
-											if (oxp.equals("") || Saxon.xpath2boolean(result, oxp, null, NAMESPACES)) {
+											if (oxp.equals("") || Saxon.xpath2boolean(result, oxp, null, context.getNamespaces())) {
 												// no xpath or succesfull xpath, use fallback value as mimetype
 												String fallback = Saxon.xpath2string(o, "normalize-space(@value)");
 												if (!fallback.equals("")) {
@@ -18,12 +18,10 @@ package nl.mpi.tla.flat.deposit.action;
 
 import java.io.File;
 import java.net.URI;
+import java.util.Objects;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.URIResolver;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.XdmAtomicValue;
@@ -54,7 +52,7 @@ public class FOXCreate extends AbstractAction {
 
     @Override
     public boolean perform(Context context) throws DepositException {
-        URIResolver org = Saxon.getXsltCompiler().getURIResolver();
+        URIResolver resolver = Saxon.getXsltCompiler().getURIResolver();
         try {
             
             String namespace = context.getProperty("activeFedoraNamespace", "lat").toString();
@@ -93,11 +91,11 @@ public class FOXCreate extends AbstractAction {
 
             
             if (hasParameter("jar_cmd2fox")) {
-                Saxon.getXsltCompiler().setURIResolver(new JarURIResolver(org,new File(getParameter("jar_cmd2fox"))));
+                resolver = new JarURIResolver(resolver,new File(getParameter("jar_cmd2fox")));
             }
             
             File xsl = new File(getParameter("cmd2fox"));
-            XsltExecutable cmd2fox = Saxon.buildTransformer(xsl);
+            XsltExecutable cmd2fox = Saxon.buildTransformer(xsl,resolver);
             
             XsltTransformer fox = cmd2fox.load();
             SaxonListener listener = new SaxonListener("FOXCreate",MDC.get("sip"));
@@ -141,7 +139,7 @@ public class FOXCreate extends AbstractAction {
             }
             
             // go
-            fox.setSource(new DOMSource(context.getSIP().getRecord(),context.getSIP().getBase().toURI().toString()));
+            fox.setInitialContextNode(context.getSIP().getRecordNode());
             XdmDestination destination = new XdmDestination();
             fox.setDestination(destination);
             fox.transform();
@@ -151,10 +149,10 @@ public class FOXCreate extends AbstractAction {
             if (out.exists()) {
                 // create a backup of the previous run
             }
-            TransformerFactory.newInstance().newTransformer().transform(destination.getXdmNode().asSource(),new StreamResult(out));
+            Saxon.save(destination,out);
             logger.info("created FOX["+out.getAbsolutePath()+"]");
             
-            XdmNode cmd = Saxon.buildDocument(new StreamSource(new File(dir+"/"+fid+"_CMD.xml")));
+            XdmNode cmd = destination.getXdmNode();
             XdmItem self = Saxon.xpathSingle(cmd,"//cmd:CMD/cmd:Header/cmd:MdSelfLink",null,NAMESPACES);
             if (self!=null) {
                 if (Saxon.xpath2boolean(self,"normalize-space(@lat:flatURI)!=''",null,NAMESPACES)) {
@@ -172,10 +170,6 @@ public class FOXCreate extends AbstractAction {
             }
         } catch(Exception e) {
             throw new DepositException("The creation of FOX files failed!",e);
-       } finally {
-            // restore the URL resolver
-            if (org!=null)
-                Saxon.getXsltCompiler().setURIResolver(org);
         }
         return true;
     }
@@ -196,6 +190,19 @@ public class FOXCreate extends AbstractAction {
             } else {
                 return resolver.resolve(href,base);
             }
-        }        
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof JarURIResolver))
+                return false;
+            JarURIResolver jar = (JarURIResolver)other;
+            return Objects.equals(this.resolver,jar.resolver) && Objects.equals(this.xsl,jar.xsl);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.resolver,this.xsl);
+        }
     }
 }
@@ -27,7 +27,6 @@ import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
 import nl.mpi.tla.flat.deposit.sip.Resource;
 import nl.mpi.tla.flat.deposit.sip.SIPInterface;
-import nl.mpi.tla.flat.deposit.util.Global;
 import nl.mpi.tla.flat.deposit.util.Saxon;
 import nl.mpi.tla.flat.deposit.util.SaxonListener;
 import org.apache.jena.ext.com.google.common.io.Files;
@@ -75,8 +74,8 @@ public class FOXUpdate extends AbstractAction {
                 split.setSource(new StreamSource(fox));
                 XdmDestination destination = new XdmDestination();
                 split.setDestination(destination);
-                if (sip.getFID().toString().contains("@")) {
-                    long asof = Global.asOfDateTime(sip.getFID().toString().replaceFirst(".*@","")).getTime();;
+                if (sip.getParsedFID().hasAsOfDateTime()) {
+                    long asof = sip.getParsedFID().getAsOfDate().getTime();
                     split.setParameter(new QName("asof"), new XdmAtomicValue(asof));
                 } else
                     logger.warn("No asOfDateTime known for this SIP["+sip.getFID()+"]!");
@@ -109,8 +108,8 @@ public class FOXUpdate extends AbstractAction {
                         destination = new XdmDestination();
                         split.setDestination(destination);
                         split.clearParameters();
-                        if (res.getFID().toString().contains("@")) {
-                            long asof = Global.asOfDateTime(res.getFID().toString().replaceFirst(".*@","")).getTime();
+                        if (res.getParsedFID().hasAsOfDateTime()) {
+                            long asof = res.getParsedFID().getAsOfDate().getTime();
                             split.setParameter(new QName("asof"), new XdmAtomicValue(asof));
                         } else
                             logger.warn("No asOfDateTime known for this Resource["+res.getFID()+"]!");
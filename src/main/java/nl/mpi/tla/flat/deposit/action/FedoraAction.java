@@ -18,16 +18,21 @@ package nl.mpi.tla.flat.deposit.action;
 
 import com.yourmediashelf.fedora.client.FedoraClient;
 import static com.yourmediashelf.fedora.client.FedoraClient.*;
+import com.yourmediashelf.fedora.client.FedoraClientException;
 import com.yourmediashelf.fedora.client.FedoraCredentials;
-import com.yourmediashelf.fedora.client.request.FedoraRequest;
+import com.yourmediashelf.fedora.client.response.FedoraResponse;
 import com.yourmediashelf.fedora.client.response.RiSearchResponse;
 import java.io.File;
 import java.net.URI;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.xml.transform.stream.StreamSource;
 import net.sf.saxon.s9api.XdmNode;
 import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.monitor.ExternalCall;
+import nl.mpi.tla.flat.deposit.sip.FID;
 import nl.mpi.tla.flat.deposit.util.Saxon;
 import org.apache.commons.configuration.XMLConfiguration;
 import org.slf4j.Logger;
@@ -37,7 +42,13 @@ abstract public class FedoraAction extends AbstractAction {
 
     private static final Logger logger = LoggerFactory.getLogger(FedoraAction.class.getName());
     
-    private static String user = null;
+    // the clients are shared per server and account, instead of the default client of FedoraRequest,
+    // as concurrent flows might connect with different accounts
+    private static final ConcurrentMap<String,FedoraClient> clients = new ConcurrentHashMap<>();
+    
+    private String user = null;
+    
+    private FedoraClient fedora = null;
     
     private XMLConfiguration fedoraConfig = null;
 
@@ -45,16 +56,24 @@ abstract public class FedoraAction extends AbstractAction {
         try {
             fedoraConfig = new XMLConfiguration(new File(getParameter("fedoraConfig")));        
 
+            String server = fedoraConfig.getString("localServer");
             String user = fedoraConfig.getString("userName");
-            if (!FedoraRequest.isDefaultClientSet() || this.user==null || this.user!=user ) {
-                logger.debug("Fedora Commons["+fedoraConfig.getString("localServer")+"]["+user+":"+fedoraConfig.getString("userPass")+"]");
-                FedoraCredentials credentials = new FedoraCredentials(fedoraConfig.getString("localServer"), fedoraConfig.getString("userName"), fedoraConfig.getString("userPass"));
-                FedoraClient fedora = new FedoraClient(credentials);
-                fedora.debug(this.getParameter("fedoraDebug","false").equals("true"));
-                FedoraRequest.setDefaultClient(fedora);
-                this.user = user;
+            String pass = fedoraConfig.getString("userPass");
+            boolean debug = this.getParameter("fedoraDebug","false").equals("true");
+            String key = server+"|"+user+"|"+pass+"|"+debug;
+            FedoraClient fedora = clients.get(key);
+            if (fedora == null) {
+                logger.debug("Fedora Commons["+server+"]["+user+":"+pass+"]");
+                FedoraCredentials credentials = new FedoraCredentials(server, user, pass);
+                fedora = new FedoraClient(credentials);
+                fedora.debug(debug);
+                FedoraClient prev = clients.putIfAbsent(key, fedora);
+                if (prev != null)
+                    fedora = prev;
             }
-            logger.debug("Fedora Commons repository["+FedoraClient.describeRepository().xml(true).execute()+"]");
+            this.fedora = fedora;
+            this.user = user;
+            logger.debug("Fedora Commons repository["+fedora("describeRepository", () -> FedoraClient.describeRepository().xml(true).execute(getFedoraClient()))+"]");
         } catch(Exception e) {
             throw new DepositException("Connecting to Fedora Commons failed!",e);
         }
@@ -64,12 +83,32 @@ abstract public class FedoraAction extends AbstractAction {
         return this.user;
     }
     
+    public FedoraClient getFedoraClient() {
+        return this.fedora;
+    }
+    
+    /**
+     * Execute, and measure, a request to Fedora Commons, e.g.,
+     * fedora("getObjectProfile", () -> getObjectProfile(fid).execute(getFedoraClient())).
+     */
+    protected <T> T fedora(String operation,ExternalCall.Call<T,FedoraClientException> request) throws FedoraClientException {
+        ExternalCall call = ExternalCall.start("fedora",operation);
+        try {
+            T res = request.call();
+            call.stop(res instanceof FedoraResponse ? String.valueOf(((FedoraResponse)res).getStatus()) : "OK");
+            return res;
+        } catch (FedoraClientException | RuntimeException e) {
+            call.fail(e);
+            throw e;
+        }
+    }
+    
     public URI lookupFID(URI pid) throws DepositException {
         URI fid = null;
         try {
             String sparql = "SELECT ?fid WHERE { ?fid <http://purl.org/dc/elements/1.1/identifier> \""+pid.toString().replace("hdl:","https://hdl.handle.net/")+"\" } ";
             logger.debug("SPARQL["+sparql+"]");
-            RiSearchResponse resp = riSearch(sparql).format("sparql").execute();
+            RiSearchResponse resp = fedora("riSearch", () -> riSearch(sparql).format("sparql").execute(getFedoraClient()));
             if (resp.getStatus()==200) {
                 XdmNode tpl = Saxon.buildDocument(new StreamSource(resp.getEntityInputStream()));
                 logger.debug("RESULT["+tpl.toString()+"]");
@@ -87,9 +126,9 @@ abstract public class FedoraAction extends AbstractAction {
     public URI lookupPID(URI fid) throws DepositException {
         URI pid = null;
         try {
-            String sparql = "SELECT ?pid WHERE { <info:fedora/"+fid.toString().replaceAll("#.*","")+"> <http://purl.org/dc/elements/1.1/identifier> ?pid } ";
+            String sparql = "SELECT ?pid WHERE { <info:fedora/"+FID.parse(fid).getId()+"> <http://purl.org/dc/elements/1.1/identifier> ?pid } ";
             logger.debug("SPARQL["+sparql+"]");
-            RiSearchResponse resp = riSearch(sparql).format("sparql").execute();
+            RiSearchResponse resp = fedora("riSearch", () -> riSearch(sparql).format("sparql").execute(getFedoraClient()));
             if (resp.getStatus()==200) {
                 XdmNode tpl = Saxon.buildDocument(new StreamSource(resp.getEntityInputStream()));
                 logger.debug("RESULT["+tpl.toString()+"]");
@@ -106,7 +145,7 @@ abstract public class FedoraAction extends AbstractAction {
     
     public Date lookupAsOfDateTime(URI fid) throws DepositException {
         try {
-            return getObjectProfile(fid.toString().replaceAll("#.*","")).execute().getLastModifiedDate();
+            return fedora("getObjectProfile", () -> getObjectProfile(FID.parse(fid).getId()).execute(getFedoraClient())).getLastModifiedDate();
         } catch(Exception e) {
             throw new DepositException("Connecting to Fedora Commons failed!",e);
         }
@@ -59,11 +59,11 @@ public class FedoraDelete extends FedoraAction {
 
 			SIPInterface sip = context.getSIP();
 
-			String sid = sip.getFID().toString().replaceAll("@.*", "").replaceAll("#.*", "");
+			String sid = sip.getParsedFID().getId();
 			String sparql = "SELECT ?fid WHERE { ?fid <info:fedora/fedora-system:def/relations-external#isConstituentOf> <info:fedora/"
 					+ sid + "> } ";
 			logger.debug("SPARQL[" + sparql + "]");
-			RiSearchResponse resp = riSearch(sparql).format("sparql").execute();
+			RiSearchResponse resp = fedora("riSearch", () -> riSearch(sparql).format("sparql").execute(getFedoraClient()));
 			if (resp.getStatus() == 200) {
 				XdmNode tpl = Saxon.buildDocument(new StreamSource(resp.getEntityInputStream()));
 				logger.debug("RESULT[" + tpl.toString() + "]");
@@ -86,7 +86,7 @@ public class FedoraDelete extends FedoraAction {
 						context.registerRollbackEvent(this, "delete", "fid", fid.toString());
 
 						// remove relation from deleted Resource to SIP from RELS-EXT
-						FedoraResponse res = getDatastreamDissemination(fid.toString(), "RELS-EXT").execute();
+						FedoraResponse res = fedora("getDatastreamDissemination", () -> getDatastreamDissemination(fid.toString(), "RELS-EXT").execute(getFedoraClient()));
 						if (res.getStatus() == 200) {
 							InputStream str = res.getEntityInputStream();
 							XdmNode ext = Saxon.buildDocument(new StreamSource(str));
@@ -96,9 +96,10 @@ public class FedoraDelete extends FedoraAction {
 							XdmDestination destination = new XdmDestination();
 							delRel.setDestination(destination);
 							delRel.transform();
-							ModifyDatastreamResponse mdsResponse = modifyDatastream(fid.toString(), "RELS-EXT")
-									.content(Saxon.toString(destination.getXdmNode().asSource()))
-									.logMessage("Deleted from compound[" + sid + "]").execute();
+							String rels = Saxon.toString(destination.getXdmNode().asSource());
+							ModifyDatastreamResponse mdsResponse = fedora("modifyDatastream", () -> modifyDatastream(fid.toString(), "RELS-EXT")
+									.content(rels)
+									.logMessage("Deleted from compound[" + sid + "]").execute(getFedoraClient()));
 							if (mdsResponse.getStatus() != 200)
 								throw new DepositException("Unexpected status[" + mdsResponse.getStatus()
 										+ "] while interacting with Fedora Commons!");
@@ -109,7 +110,7 @@ public class FedoraDelete extends FedoraAction {
 
 								context.registerRollbackEvent(this, "inactive", "fid", fid.toString());
 
-								FedoraResponse fResponse = modifyObject(fid.toString()).state("I").execute();
+								FedoraResponse fResponse = fedora("modifyObject", () -> modifyObject(fid.toString()).state("I").execute(getFedoraClient()));
 								if (fResponse.getStatus() != 200)
 									throw new DepositException("Unexpected status[" + fResponse.getStatus()
 											+ "] while interacting with Fedora Commons!");
@@ -133,6 +134,9 @@ public class FedoraDelete extends FedoraAction {
 	public void rollback(Context context, List<XdmItem> events) {
 		try {
 			if (events.size() > 0) {
+				// the rollback can run on a fresh instance, e.g., when a rerun starts after this action
+				if (getFedoraClient() == null)
+					connect(context);
 				XsltTransformer addRel = Saxon.buildTransformer(FOXUpdate.class.getResource("/FedoraDelete/addREL.xsl")).load();
 				SaxonListener listener = new SaxonListener("FedoraDelete", MDC.get("sip"));
 				addRel.setMessageListener(listener);
@@ -142,16 +146,16 @@ public class FedoraDelete extends FedoraAction {
 					String tpe = Saxon.xpath2string(event, "@type");
 					if (tpe.equals("inactive")) {
 						String fid = Saxon.xpath2string(event, "param[@name='fid']/@value");
-						FedoraResponse fResponse = modifyObject(fid.toString()).state("A").execute();
+						FedoraResponse fResponse = fedora("modifyObject", () -> modifyObject(fid.toString()).state("A").execute(getFedoraClient()));
 						if (fResponse.getStatus() != 200)
 							throw new DepositException("Rollback:Unexpected status[" + fResponse.getStatus()+ "] while interacting with Fedora Commons!");
 						logger.debug("ROLLBACK DELETE: Resource[" + fid + "] set state[active]");
 					}
 					if (tpe.equals("delete")) {
 						SIPInterface sip = context.getSIP();
-						String sid = sip.getFID().toString().replaceAll("@.*", "").replaceAll("#.*", "");
+						String sid = sip.getParsedFID().getId();
 						String fid = Saxon.xpath2string(event, "param[@name='fid']/@value");
-						FedoraResponse res = getDatastreamDissemination(fid.toString(), "RELS-EXT").execute();
+						FedoraResponse res = fedora("getDatastreamDissemination", () -> getDatastreamDissemination(fid.toString(), "RELS-EXT").execute(getFedoraClient()));
 						if (res.getStatus() == 200) {
 							InputStream str = res.getEntityInputStream();
 							XdmNode ext = Saxon.buildDocument(new StreamSource(str));
@@ -163,7 +167,8 @@ public class FedoraDelete extends FedoraAction {
 							addRel.setDestination(destination);
 							addRel.transform();
 							 logger.debug("out RELS-EXT["+Saxon.toString(destination.getXdmNode().asSource())+"]");
-							ModifyDatastreamResponse mdsResponse = modifyDatastream(fid.toString(), "RELS-EXT").content(Saxon.toString(destination.getXdmNode().asSource())).logMessage("Restored from compound[" + sid + "]").execute();
+							String rels = Saxon.toString(destination.getXdmNode().asSource());
+							ModifyDatastreamResponse mdsResponse = fedora("modifyDatastream", () -> modifyDatastream(fid.toString(), "RELS-EXT").content(rels).logMessage("Restored from compound[" + sid + "]").execute(getFedoraClient()));
 							if (mdsResponse.getStatus() != 200)
 								throw new DepositException("Rollback: Unexpected status[" + mdsResponse.getStatus()+ "] while interacting with Fedora Commons!");
 							logger.debug("ROLLBACK DELETE: Resource[" + fid + "] restored from SIP[" + sid + "]");
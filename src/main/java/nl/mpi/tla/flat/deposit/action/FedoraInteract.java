@@ -40,6 +40,7 @@ import net.sf.saxon.s9api.XdmNode;
 import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
 import nl.mpi.tla.flat.deposit.sip.Collection;
+import nl.mpi.tla.flat.deposit.sip.FID;
 import nl.mpi.tla.flat.deposit.sip.Resource;
 import nl.mpi.tla.flat.deposit.sip.SIPInterface;
 import static nl.mpi.tla.flat.deposit.util.Global.NAMESPACES;
@@ -75,13 +76,13 @@ public class FedoraInteract extends FedoraAction {
 
 				context.registerRollbackEvent(this, "ingest", "fid", fid);
 
-				IngestResponse iResponse = ingest().format("info:fedora/fedora-system:FOXML-1.1").content(fox).logMessage("Initial ingest").ignoreMime(true).execute();
+				IngestResponse iResponse = fedora("ingest", () -> ingest().format("info:fedora/fedora-system:FOXML-1.1").content(fox).logMessage("Initial ingest").ignoreMime(true).execute(getFedoraClient()));
 				if (iResponse.getStatus() != 201)
 					throw new DepositException("Unexpected status[" + iResponse.getStatus() + "] while interacting with Fedora Commons!");
-				Date asof = getObjectProfile(fid).execute().getLastModifiedDate();
-				fid = completeFID(sip, new URI(fid), asof).toString();
+				Date asof = fedora("getObjectProfile", () -> getObjectProfile(fid).execute(getFedoraClient())).getLastModifiedDate();
+				String cfid = completeFID(sip, new URI(fid), asof).toString();
 				logger.info("Created FedoraObject[" + iResponse.getPid() + "][" + iResponse.getLocation() + "][" + dsid+ "][" + asof + "]");
-				logger.debug("Should match FID[" + fid + "]");
+				logger.debug("Should match FID[" + cfid + "]");
 			}
 
 			// - <fid>.<asof>.props (props -> modify (some) properties)
@@ -99,9 +100,9 @@ public class FedoraInteract extends FedoraAction {
 						String value = Saxon.xpath2string(prop, "@VALUE");
 						if (name.equals("info:fedora/fedora-system:def/model#label")) {
 
-							context.registerRollbackEvent(this, "property", "fid", fid, "prop", "label", "old", getObjectProfile(fid).execute().getLabel(), "new", value, "last", Global.asOfDateTime(getObjectProfile(fid).execute().getLastModifiedDate()));
+							context.registerRollbackEvent(this, "property", "fid", fid, "prop", "label", "old", fedora("getObjectProfile", () -> getObjectProfile(fid).execute(getFedoraClient())).getLabel(), "new", value, "last", Global.asOfDateTime(fedora("getObjectProfile", () -> getObjectProfile(fid).execute(getFedoraClient())).getLastModifiedDate()));
 
-							FedoraResponse res = modifyObject(fid).lastModifiedDate(asof).label(value).execute();
+							FedoraResponse res = fedora("modifyObject", () -> modifyObject(fid).lastModifiedDate(asof).label(value).execute(getFedoraClient()));
 							if (res.getStatus() != 200)
 								throw new DepositException("Unexpected status[" + res.getStatus()+ "] while interacting with Fedora Commons!");
 						}
@@ -148,7 +149,7 @@ public class FedoraInteract extends FedoraAction {
 	protected void upsertDatastream(Context context, File fox, String fid, String dsid, String ext) throws DepositException {
 		try {
 			// check if the DS already exists (will throw
-			GetDatastreamResponse res = getDatastream(fid, dsid).execute();
+			GetDatastreamResponse res = fedora("getDatastream", () -> getDatastream(fid, dsid).execute(getFedoraClient()));
 			if (res.getStatus() == 200) {
 				// update DS
 				updateDatastream(context, fox, fid, dsid, ext);
@@ -185,13 +186,13 @@ public class FedoraInteract extends FedoraAction {
 					ad.mimeType(mime);
 				if (lbl != null)
 					ad.dsLabel(lbl);
-				adsResponse = ad.logMessage("Added " + dsid).execute();
+				adsResponse = fedora("addDatastream", () -> ad.logMessage("Added " + dsid).execute(getFedoraClient()));
 			} else {
 				AddDatastream ad = addDatastream(fid, dsid);
 				if (dsid.equals("CMD"))
 					ad.mimeType("application/x-cmdi+xml");
 				ad.content(fox);
-				adsResponse = ad.logMessage("Added " + dsid).execute();
+				adsResponse = fedora("addDatastream", () -> ad.logMessage("Added " + dsid).execute(getFedoraClient()));
 			}
 			if (adsResponse.getStatus() != 201)
 				throw new DepositException("Unexpected status[" + adsResponse.getStatus() + "] while interacting with Fedora Commons!");
@@ -216,7 +217,7 @@ public class FedoraInteract extends FedoraAction {
 	void updateDatastream(Context context, File fox, String fid, String dsid, Date asof, String ext)
 			throws DepositException {
 		try {
-			context.registerRollbackEvent(this, "update", "fid", fid, "dsid", dsid, "last", Global.asOfDateTime(getDatastream(fid, dsid).execute().getLastModifiedDate()));
+			context.registerRollbackEvent(this, "update", "fid", fid, "dsid", dsid, "last", Global.asOfDateTime(fedora("getDatastream", () -> getDatastream(fid, dsid).execute(getFedoraClient())).getLastModifiedDate()));
 
 			SIPInterface sip = context.getSIP();
 			ModifyDatastreamResponse mdsResponse = null;
@@ -234,7 +235,7 @@ public class FedoraInteract extends FedoraAction {
 					md.mimeType(mime);
 				if (lbl != null)
 					md.dsLabel(lbl);
-				mdsResponse = md.logMessage("Updated " + dsid).execute();
+				mdsResponse = fedora("modifyDatastream", () -> md.logMessage("Updated " + dsid).execute(getFedoraClient()));
 			} else {
 				ModifyDatastream md = modifyDatastream(fid, dsid);
 				if (asof != null)
@@ -242,14 +243,14 @@ public class FedoraInteract extends FedoraAction {
 				if (dsid.equals("CMD"))
 					md.mimeType("application/x-cmdi+xml");
 				md.content(fox);
-				mdsResponse = md.logMessage("Updated " + dsid).execute();
+				mdsResponse = fedora("modifyDatastream", () -> md.logMessage("Updated " + dsid).execute(getFedoraClient()));
 			}
 			if (mdsResponse.getStatus() != 200)
 				throw new DepositException("Unexpected status[" + mdsResponse.getStatus() + "] while interacting with Fedora Commons!");
 			logger.info("Updated FedoraObject[" + fid + "][" + dsid + "][" + mdsResponse.getLastModifiedDate() + "]");
 			// we should update the PID asOfDateTime
-			fid = completeFID(sip, new URI(fid), mdsResponse.getLastModifiedDate()).toString();
-			logger.debug("Should match FID[" + fid + "]");
+			String cfid = completeFID(sip, new URI(fid), mdsResponse.getLastModifiedDate()).toString();
+			logger.debug("Should match FID[" + cfid + "]");
 		} catch (FedoraClientException e) {
 			if (e.getStatus() == 404) {
 				throw new DepositException("FedoraObject[" + fid + "] and/or datastream[" + dsid + "] doesn't exist!",e);
@@ -284,6 +285,15 @@ public class FedoraInteract extends FedoraAction {
 
 	public void rollback(Context context, List<XdmItem> events) {
 		if (events.size() > 0) {
+			// the rollback can run on a fresh instance, e.g., when a rerun starts after this action
+			if (getFedoraClient() == null) {
+				try {
+					connect(context);
+				} catch (DepositException ex) {
+					logger.error("rollback action[" + this.getName() + "] couldn't connect to Fedora Commons!", ex);
+					return;
+				}
+			}
 			for (ListIterator<XdmItem> iter = events.listIterator(events.size()); iter.hasPrevious();) {
 				XdmItem event = iter.previous();
 				try {
@@ -291,8 +301,8 @@ public class FedoraInteract extends FedoraAction {
 					if (tpe.equals("ingest")) {
 						String fid = Saxon.xpath2string(event, "param[@name='fid']/@value");
 						if (fid != null) {
-							if (getObjectProfile(fid).execute().getLastModifiedDate().equals(Global.asOfDateTime(context.getSIP().getFID().getRawFragment().replaceAll(".*@", "")))) {
-								purgeObject(fid).logMessage("rollback of ingest").execute();
+							if (fedora("getObjectProfile", () -> getObjectProfile(fid).execute(getFedoraClient())).getLastModifiedDate().equals(context.getSIP().getParsedFID().getAsOfDate())) {
+								fedora("purgeObject", () -> purgeObject(fid).logMessage("rollback of ingest").execute(getFedoraClient()));
 								logger.debug("ingest rollback for fid["+fid+"]");
 							} else {
 								logger.warn("couldn't rollback ingest[" + fid + "] as it has been updated already!");
@@ -303,9 +313,9 @@ public class FedoraInteract extends FedoraAction {
 						String fid = Saxon.xpath2string(event, "param[@name='fid']/@value");
 						String last = Saxon.xpath2string(event, "param[@name='last']/@value");
 						Date dlast = Global.asOfDateTime(last);
-						if (getObjectProfile(fid).execute().getLastModifiedDate().after(dlast)) {
+						if (fedora("getObjectProfile", () -> getObjectProfile(fid).execute(getFedoraClient())).getLastModifiedDate().after(dlast)) {
 							String old = Saxon.xpath2string(event, "param[@name='old']/@value");
-							modifyObject(fid).label(old).logMessage("rollback of label update").execute();
+							fedora("modifyObject", () -> modifyObject(fid).label(old).logMessage("rollback of label update").execute(getFedoraClient()));
 							logger.debug("property rollback for fid["+fid+"]");
 						} else {
 							logger.debug("ignoring property rollback for fid[" + fid+ "] as no changes happened");
@@ -315,32 +325,31 @@ public class FedoraInteract extends FedoraAction {
 						String fid = Saxon.xpath2string(event, "param[@name='fid']/@value");
 						String dsid = Saxon.xpath2string(event, "param[@name='dsid']/@value");
 						if (fid != null & dsid != null) {
-							URI ufid = null;
-							if (context.getSIP().getFID().toString().startsWith(fid)) {
+							FID ufid = null;
+							if (context.getSIP().getParsedFID().getId().equals(fid)) {
 								// update of a datastream in the compound
-								ufid = context.getSIP().getFID();
+								ufid = context.getSIP().getParsedFID();
 							}
 							if (ufid == null) {
 								Resource res = context.getSIP().getResourceByFID(new URI(fid));
 								if (res != null) {
 									// update of a datastream in a resource
-									ufid = res.getFID();
+									ufid = res.getParsedFID();
 								}
 							}
 							if (ufid == null) {
 								Collection col = context.getSIP().getCollectionByFID(new URI(fid));
 								if (col != null) {
 									// update of a datastream in a collection
-									ufid = col.getFID();
+									ufid = col.getParsedFID();
 								}
 							}
 							if (ufid != null) {
-								String fragment = ufid.getRawFragment();
-								if (fragment != null) {
-									Date asof = Global.asOfDateTime(context.getSIP().getResourceByFID(ufid).getFID().getRawFragment().replaceAll(".*@", ""));
-									Date lmod = getObjectProfile(fid).execute().getLastModifiedDate();
+								if (ufid.hasAsOfDateTime()) {
+									Date asof = ufid.getAsOfDate();
+									Date lmod = fedora("getObjectProfile", () -> getObjectProfile(fid).execute(getFedoraClient())).getLastModifiedDate();
 									if (lmod.equals(asof)) {
-										purgeDatastream(fid, dsid).logMessage("rollback of insert").execute();
+										fedora("purgeDatastream", () -> purgeDatastream(fid, dsid).logMessage("rollback of insert").execute(getFedoraClient()));
 										logger.debug("insert rollback for fid["+ fid +"] dsid["+ dsid+"]");
 									} else {
                                                                             logger.debug("ignored rollback insert[" + fid + "] [" + dsid + "] the asof out of sync (asof[" + asof + "]!=lmod[" + lmod+ "])");
@@ -362,35 +371,34 @@ public class FedoraInteract extends FedoraAction {
 						Date dlast = Global.asOfDateTime(last);
                                                 Date min = getNextDatastreamMod(fid,dsid,dlast);
 						if (min!=null) {
-							URI ufid = null;
-							if (context.getSIP().getFID().toString().startsWith(fid)) {
+							FID ufid = null;
+							if (context.getSIP().getParsedFID().getId().equals(fid)) {
 								// update of a datastream in the compound
-								ufid = context.getSIP().getFID();
+								ufid = context.getSIP().getParsedFID();
 							}
 							if (ufid == null) {
 								Resource res = context.getSIP().getResourceByFID(new URI(fid));
 								if (res != null) {
 									// update of a datastream in a resource
-									ufid = res.getFID();
+									ufid = res.getParsedFID();
 								}
 							}
 							if (ufid == null) {
 								Collection col = context.getSIP().getCollectionByFID(new URI(fid));
 								if (col != null) {
 									// update of a datastream in a collection
-									ufid = col.getFID();
+									ufid = col.getParsedFID();
 								}
 							}
 							if (ufid != null) {
-								String fragment = ufid.getRawFragment();
-								if (fragment != null) {
-									Date max = Global.asOfDateTime(fragment.replaceAll(".*@", ""));
-									Date lmod = getDatastream(fid, dsid).execute().getLastModifiedDate();
+								if (ufid.hasAsOfDateTime()) {
+									Date max = ufid.getAsOfDate();
+									Date lmod = fedora("getDatastream", () -> getDatastream(fid, dsid).execute(getFedoraClient())).getLastModifiedDate();
                                                                         logger.debug("update rollback mod["+lmod+"]["+lmod.toInstant().toEpochMilli()+"] in range[min["+min+"]["+min.toInstant().toEpochMilli()+"],max["+max+"]["+max.toInstant().toEpochMilli()+"]]?["+((lmod.equals(min)||lmod.after(min))&&(lmod.equals(max)||lmod.before(max)))+"]");
 									if (lmod.after(max)) {
                                                                                 logger.warn("couldn't rollback update[" + fid + "] [" + dsid+ "] as it has been updated already (asof[" + max + "]<lmod[" + lmod+ "])!");
 									} else {
-										purgeDatastream(fid, dsid).startDT(min).endDT(max).logMessage("rollback of update").execute();
+										fedora("purgeDatastream", () -> purgeDatastream(fid, dsid).startDT(min).endDT(max).logMessage("rollback of update").execute(getFedoraClient()));
 										logger.debug("update rollback for fid["+ fid +"] dsid["+ dsid+"]");
                                                                         }
 								} else {
@@ -414,7 +422,7 @@ public class FedoraInteract extends FedoraAction {
             logger.debug("getNextDatastreamMod(fid["+fid+"],dsid["+dsid+"],last["+last+"])");
             Date nxt=null;
             try {
-                GetDatastreamHistoryResponse res = getDatastreamHistory(fid,dsid).execute();
+                GetDatastreamHistoryResponse res = fedora("getDatastreamHistory", () -> getDatastreamHistory(fid,dsid).execute(getFedoraClient()));
                 if (res.getStatus() == 200) {
                     boolean get = false;
                     List profs = res.getDatastreamProfile().getDatastreamProfile();
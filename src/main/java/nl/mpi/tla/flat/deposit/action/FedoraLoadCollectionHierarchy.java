@@ -34,6 +34,7 @@ import net.sf.saxon.s9api.XdmValue;
 import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
 import nl.mpi.tla.flat.deposit.sip.Collection;
+import nl.mpi.tla.flat.deposit.sip.FID;
 import nl.mpi.tla.flat.deposit.sip.SIPInterface;
 import nl.mpi.tla.flat.deposit.sip.cmdi.CMD;
 import nl.mpi.tla.flat.deposit.sip.cmdi.CMDCollection;
@@ -83,7 +84,7 @@ public class FedoraLoadCollectionHierarchy extends FedoraAction {
                 // fetch collections
                 String sparql = "SELECT ?fid WHERE { <info:fedora/"+sip.getFID(true).toString()+"> <info:fedora/fedora-system:def/relations-external#isMemberOfCollection> ?fid } ";
                 logger.debug("SPARQL["+sparql+"]");
-                RiSearchResponse resp = riSearch(sparql).format("sparql").execute();
+                RiSearchResponse resp = fedora("riSearch", () -> riSearch(sparql).format("sparql").execute(getFedoraClient()));
                 if (resp.getStatus()==200) {
                     XdmNode tpl = Saxon.buildDocument(new StreamSource(resp.getEntityInputStream()));
                     logger.debug("RESULT["+tpl.toString()+"]");
@@ -123,7 +124,7 @@ public class FedoraLoadCollectionHierarchy extends FedoraAction {
         // fetch parent collections
         String sparql = "SELECT ?fid WHERE { <info:fedora/"+col.getFID(true).toString()+"> <info:fedora/fedora-system:def/relations-external#isMemberOfCollection> ?fid } ";
         logger.debug("SPARQL["+sparql+"]");
-        RiSearchResponse resp = riSearch(sparql).format("sparql").execute();
+        RiSearchResponse resp = fedora("riSearch", () -> riSearch(sparql).format("sparql").execute(getFedoraClient()));
         if (resp.getStatus()==200) {
             XdmNode tpl = Saxon.buildDocument(new StreamSource(resp.getEntityInputStream()));
             logger.debug("RESULT["+tpl.toString()+"]");
@@ -131,7 +132,7 @@ public class FedoraLoadCollectionHierarchy extends FedoraAction {
                 XdmItem n = iter.next();
                 String f = n.getStringValue();
                 if (f!=null && !f.isEmpty()) {
-                    URI fid = new URI(f.replace("info:fedora/","").replaceAll("#.*",""));
+                    URI fid = FID.parse(new URI(f.replace("info:fedora/",""))).getObject().toURI();
                     if (hasCMDDatastream(fid)) {
                         URI pid = lookupPID(fid);
                         CMDCollection pcol = new CMDCollection(pid,fid,namespace,namespaces);
@@ -167,7 +168,8 @@ public class FedoraLoadCollectionHierarchy extends FedoraAction {
                 else 
                     throw new DepositException("Unknown Collection["+col+"]!");
                 if (hasCMDDatastream(fid)) {
-                    Date asof = getObjectProfile(fid.toString()).execute().getLastModifiedDate();
+                    String pid = fid.toString();
+                    Date asof = fedora("getObjectProfile", () -> getObjectProfile(pid).execute(getFedoraClient())).getLastModifiedDate();
                     col.setFIDasOfTimeDate(asof);
                     logger.debug("Fedora Collection datastream["+(col.hasPID()?col.getPID():"")+"]->["+col.getFID()+"]=["+fid+"][CMD]["+asof+"] completed!");
                 }
@@ -179,7 +181,7 @@ public class FedoraLoadCollectionHierarchy extends FedoraAction {
     
     protected boolean hasCMDDatastream(URI fid) throws DepositException {
         try {
-            for(DatastreamProfile p:getDatastreams(fid.toString()).execute().getDatastreamProfiles()) {
+            for(DatastreamProfile p:fedora("getDatastreams", () -> getDatastreams(fid.toString()).execute(getFedoraClient())).getDatastreamProfiles()) {
                 if (p.getDsID().equals("CMD"))
                     return true;
             }
@@ -19,6 +19,7 @@ package nl.mpi.tla.flat.deposit.action;
 import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
 import nl.mpi.tla.flat.deposit.sip.Collection;
+import nl.mpi.tla.flat.deposit.sip.FID;
 import nl.mpi.tla.flat.deposit.sip.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,11 +39,9 @@ public class HandleCreation extends AbstractAction {
         
         if (context.getSIP().hasPID() && context.getSIP().hasFID()) {
 
-            String fid = context.getSIP().getFID().toString().replaceAll("#.*","");
-            String dsid = context.getSIP().getFID().getRawFragment().replaceAll("@.*","");
-            String asof = context.getSIP().getFID().getRawFragment().replaceAll(".*@","");
+            FID fid = context.getSIP().getParsedFID();
 
-            logger.info("Create handle["+context.getSIP().getPID()+"] -> URI["+fedora+"/objects/"+fid+"/datastreams/"+dsid+"/content?asOfDateTime="+asof+"]");
+            logger.info("Create handle["+context.getSIP().getPID()+"] -> URI["+fid.getContentLocation(fedora)+"]");
         } else {
             if (!context.getSIP().hasPID())
                 logger.debug("SIP has no PID!");
@@ -52,11 +51,9 @@ public class HandleCreation extends AbstractAction {
         
         for (Collection col:context.getSIP().getCollections(true)) {
             if (col.hasPID() && col.hasFID()) {
-                String cfid = col.getFID().toString().replaceAll("#.*","");
-                String cdsid = col.getFID().getRawFragment().replaceAll("@.*","");
-                String casof = col.getFID().getRawFragment().replaceAll(".*@","");
+                FID cfid = col.getParsedFID();
 
-                logger.info("Create or update handle["+col.getPID()+"] -> URI["+fedora+"/objects/"+cfid+"/datastreams/"+cdsid+"/content?asOfDateTime="+casof+"]");
+                logger.info("Create or update handle["+col.getPID()+"] -> URI["+cfid.getContentLocation(fedora)+"]");
             } else {
                 if (!col.hasPID())
                     logger.debug("Collection["+col+"] has no PID!");
@@ -67,11 +64,9 @@ public class HandleCreation extends AbstractAction {
         
         for (Resource res:context.getSIP().getResources()) {
             if (res.hasPID() && res.hasFID()) {
-                String rfid = res.getFID().toString().replaceAll("#.*","");
-                String rdsid = res.getFID().getRawFragment().replaceAll("@.*","");
-                String rasof = res.getFID().getRawFragment().replaceAll(".*@","");
+                FID rfid = res.getParsedFID();
 
-                logger.info("Create handle["+res.getPID()+"] -> URI["+fedora+"/objects/"+rfid+"/datastreams/"+rdsid+"/content?asOfDateTime="+rasof+"]");
+                logger.info("Create handle["+res.getPID()+"] -> URI["+rfid.getContentLocation(fedora)+"]");
             } else {
                 if (!res.hasPID())
                     logger.debug("Resource["+res+"] has no PID!");
@@ -16,12 +16,15 @@
  */
 package nl.mpi.tla.flat.deposit.action;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.Authenticator;
-import java.net.PasswordAuthentication;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Scanner;
@@ -32,6 +35,7 @@ import org.slf4j.LoggerFactory;
 import net.sf.saxon.s9api.XdmItem;
 import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.monitor.ExternalCall;
 import nl.mpi.tla.flat.deposit.sip.Collection;
 import nl.mpi.tla.flat.deposit.sip.Resource;
 import nl.mpi.tla.flat.deposit.sip.SIPInterface;
@@ -62,17 +66,11 @@ public class Index extends AbstractAction {
 		try {
 			URL gsearchEndpoint = new URL(gsearchService);
 
-			Authenticator.setDefault(new Authenticator() {
-				protected PasswordAuthentication getPasswordAuthentication() {
-					return new PasswordAuthentication(gsearchUser, gsearchPass.toCharArray());
-				}
-			});
-
 			context.registerRollbackEvent(this, "index", "fid", sip.getFID(true).toString());
 			URL call = new URL(gsearchEndpoint, "rest?operation=updateIndex&action=fromPid&value="
 					+ URLEncoder.encode(sip.getFID(true).toString(), "UTF-8"));
 
-			InputStream response = call.openStream();
+			InputStream response = openStream(call, gsearchUser, gsearchPass);
 			try (Scanner scanner = new Scanner(response)) {
 				String responseBody = scanner.useDelimiter("\\A").next();
 				// System.err.println(responseBody);
@@ -83,7 +81,7 @@ public class Index extends AbstractAction {
 				call = new URL(gsearchEndpoint, "rest?operation=updateIndex&action=fromPid&value="
 						+ URLEncoder.encode(res.getFID(true).toString(), "UTF-8"));
 
-				response = call.openStream();
+				response = openStream(call, gsearchUser, gsearchPass);
 				try (Scanner scanner = new Scanner(response)) {
 					String responseBody = scanner.useDelimiter("\\A").next();
 					// System.err.println(responseBody);
@@ -95,7 +93,7 @@ public class Index extends AbstractAction {
 				call = new URL(gsearchEndpoint, "rest?operation=updateIndex&action=fromPid&value="
 						+ URLEncoder.encode(col.getFID(true).toString(), "UTF-8"));
 
-				response = call.openStream();
+				response = openStream(call, gsearchUser, gsearchPass);
 				try (Scanner scanner = new Scanner(response)) {
 					String responseBody = scanner.useDelimiter("\\A").next();
 					// System.err.println(responseBody);
@@ -108,6 +106,22 @@ public class Index extends AbstractAction {
 		return true;
 	}
 
+	// the credentials are passed per request, as the default Authenticator is shared by all (concurrent) flows
+	static InputStream openStream(URL call, String user, String pass) throws IOException {
+		ExternalCall measure = ExternalCall.start("gsearch", "updateIndex");
+		try {
+			URLConnection conn = call.openConnection();
+			conn.setRequestProperty("Authorization", "Basic "
+					+ Base64.getEncoder().encodeToString((user + ":" + pass).getBytes(StandardCharsets.UTF_8)));
+			InputStream in = conn.getInputStream();
+			measure.stop(conn instanceof HttpURLConnection ? String.valueOf(((HttpURLConnection) conn).getResponseCode()) : "OK");
+			return in;
+		} catch (IOException | RuntimeException e) {
+			measure.fail(e);
+			throw e;
+		}
+	}
+
 	public void rollback(Context context, List<XdmItem> events) {
 		if (events.size() > 0) {
 			List<String> indexedFids = new ArrayList<String>();
@@ -17,8 +17,6 @@
 package nl.mpi.tla.flat.deposit.action;
 
 import java.io.InputStream;
-import java.net.Authenticator;
-import java.net.PasswordAuthentication;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.List;
@@ -66,18 +64,12 @@ public class IndexRollback extends AbstractAction {
 
 					gsearchEndpoint = new URL(gsearchService);
 
-					Authenticator.setDefault(new Authenticator() {
-						protected PasswordAuthentication getPasswordAuthentication() {
-							return new PasswordAuthentication(gsearchUser, gsearchPass.toCharArray());
-						}
-					});
-
 					for (int i = 0; i < indexedFids.size(); i++) {
 						try {
 							URL call = new URL(gsearchEndpoint, "rest?operation=updateIndex&action=fromPid&value="
 									+ URLEncoder.encode(sip.getFID(true).toString(), "UTF-8"));
 
-							InputStream response = call.openStream();
+							InputStream response = Index.openStream(call, gsearchUser, gsearchPass);
 							try (Scanner scanner = new Scanner(response)) {
 								String responseBody = scanner.useDelimiter("\\A").next();
 							}
@@ -16,10 +16,10 @@
  */
 package nl.mpi.tla.flat.deposit.action;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReentrantLock;
 import net.sf.saxon.s9api.XdmAtomicValue;
 import net.sf.saxon.s9api.XdmSequenceIterator;
@@ -38,7 +38,8 @@ public class Locking extends AbstractAction {
     
     private static final String MEMO = "nl.mpi.tla.flat.deposit.action.Locking.LOCKED";
     
-    private static Map<String,ReentrantLock> locks = new HashMap<>();
+    // shared by all flows, so the lookup and creation of a lock needs to be atomic
+    private static final ConcurrentMap<String,ReentrantLock> locks = new ConcurrentHashMap<>();
     
     @Override
     public boolean perform(Context context) throws DepositException {
@@ -55,9 +56,7 @@ public class Locking extends AbstractAction {
                 String what = iter.next().getStringValue();
                 if (what.equals("sip")) {
                     String uri = context.getSIP().getFID(true).toString();
-                    if (!locks.containsKey(uri))
-                        locks.put(uri, new ReentrantLock());
-                    ReentrantLock lock = locks.get(uri);
+                    ReentrantLock lock = getLock(uri);
                     logger.debug("lock["+lock+"] sip["+uri+"]");
                     lock.lock();
                     locked.add(lock);
@@ -66,18 +65,14 @@ public class Locking extends AbstractAction {
                     // loop over collections
                     for (Collection col:context.getSIP().getCollections(!mode.contains("parent"))) {
                         String uri = col.getFID(true).toString();
-                        if (!locks.containsKey(uri))
-                            locks.put(uri, new ReentrantLock());
-                        ReentrantLock lock = locks.get(uri);
+                        ReentrantLock lock = getLock(uri);
                         logger.debug("lock["+lock+"] collection["+uri+"]");
                         lock.lock();
                         locked.add(lock);
                         logger.debug("locked["+lock+"] collection["+uri+"]");
                     }
                 } else {
-                    if (!locks.containsKey(what))
-                        locks.put(what, new ReentrantLock());
-                    ReentrantLock lock = locks.get(what);
+                    ReentrantLock lock = getLock(what);
                     logger.debug("lock["+lock+"] something["+what+"]");
                     lock.lock();
                     locked.add(lock);
@@ -97,5 +92,9 @@ public class Locking extends AbstractAction {
         logger.error("Unknown locking mode["+mode+"]!");
         return false;
     }
+    
+    private static ReentrantLock getLock(String what) {
+        return locks.computeIfAbsent(what, k -> new ReentrantLock());
+    }
         
 }
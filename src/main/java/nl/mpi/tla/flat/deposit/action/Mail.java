@@ -24,7 +24,6 @@ import javax.mail.MessagingException;
 import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
-import javax.xml.transform.dom.DOMSource;
 
 import java.io.File;
 import java.net.URI;
@@ -40,6 +39,7 @@ import net.sf.saxon.s9api.XsltExecutable;
 import net.sf.saxon.s9api.XsltTransformer;
 import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.monitor.ExternalCall;
 import nl.mpi.tla.flat.deposit.sip.SIPInterface;
 import nl.mpi.tla.flat.deposit.util.Saxon;
 import nl.mpi.tla.flat.deposit.util.SaxonListener;
@@ -177,7 +177,7 @@ public class Mail extends FedoraAction {
 			fox.setParameter(new QName("outcome"), new XdmAtomicValue(outcome));
 			logger.debug("Outcome: " + outcome);
 
-			fox.setSource(new DOMSource(context.getSIP().getRecord(), context.getSIP().getBase().toURI().toString()));
+			fox.setInitialContextNode(context.getSIP().getRecordNode());
 			XdmDestination destination = new XdmDestination();
 			fox.setDestination(destination);
 			fox.transform();
@@ -223,7 +223,7 @@ public class Mail extends FedoraAction {
 			try {
 				// sends the e-mail
 				logger.debug("Sending the email. . . . . . . .");
-				Transport.send(msg);
+				ExternalCall.run("smtp", "send", () -> Transport.send(msg));
 				logger.info("Email was sent successfully. . . . !");
 			} catch (MessagingException ex) {
 				logger.error("Error while trying to send mail message to the user!!", ex);
@@ -30,6 +30,7 @@ import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
 import nl.mpi.tla.flat.deposit.util.Saxon;
 import nl.mpi.tla.flat.deposit.util.SaxonListener;
+import nl.mpi.tla.flat.deposit.monitor.Timeline;
 import org.apache.commons.io.FileUtils;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
@@ -84,6 +85,7 @@ public class Owner extends AbstractAction {
                 model.read(policy.getAbsolutePath()) ;
                 OutputStream trix = new FileOutputStream(new File(dir +"/policy.trix"));
                 RDFDataMgr.write(trix, model, Lang.TRIX);
+                Timeline.written(new File(dir +"/policy.trix"));
 
                 // convert trix to semantic triples using ACL/sl-trix-to-sem-triples.xsl
                 XsltTransformer trix2sem = Saxon.buildTransformer(Owner.class.getResource("/ACL/sl-trix-to-sem-triples.xsl")).load();
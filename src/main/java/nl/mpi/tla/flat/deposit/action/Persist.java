@@ -43,6 +43,7 @@ import nl.mpi.tla.flat.deposit.action.persist.util.PersistencePolicy;
 import nl.mpi.tla.flat.deposit.action.persist.util.PersistencePolicyLoader;
 import nl.mpi.tla.flat.deposit.action.persist.util.PersistencePolicyMatcher;
 import nl.mpi.tla.flat.deposit.util.Saxon;
+import nl.mpi.tla.flat.deposit.monitor.Timeline;
 
 /**
  *
@@ -66,7 +67,7 @@ public class Persist extends AbstractAction {
     	
     	PersistDatasetNameRetriever datasetNameRetrieved = newPersistDatasetNameRetriever();
     	logger.debug("xpath_dataset_name: " + getParameter("xpathDatasetName"));
-    	String datasetName = datasetNameRetrieved.getDatasetName(sip.getRecord(), getParameter("xpathDatasetName"));
+    	String datasetName = datasetNameRetrieved.getDatasetName(sip.getRecordNode(), getParameter("xpathDatasetName"), context.getNamespaces());
     	
     	PersistencePolicies policies;
         try {
@@ -103,6 +104,7 @@ public class Persist extends AbstractAction {
                     // move the file to its persistent place
                     context.registerRollbackEvent(this, "mv", "src", res.getFile().toPath().toString(),"dst",newResourceFile.toPath().toString());
                     Files.move(res.getFile().toPath(), newResourceFile.toPath());
+                    Timeline.written(newResourceFile);
                 } catch (IOException ex) {
                     String message = "Error moving resource from " + res.getFile() + " to " + newResourceFile; 
                     logger.error(message, ex);
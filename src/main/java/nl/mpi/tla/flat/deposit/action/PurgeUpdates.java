@@ -87,7 +87,7 @@ public class PurgeUpdates extends FedoraAction {
                         throw new DepositException("file for Resource["+res.getURI()+"] can't be read!");
                     
                     XdmNode fd = Saxon.buildDocument(new StreamSource(f));
-                    String checksum = Saxon.xpath2string(fd,xp,null,Global.NAMESPACES);
+                    String checksum = Saxon.xpath2string(fd,xp,null,context.getNamespaces());
                     
                     if (checksum.isEmpty())
                         throw new DepositException("checksum for Resource["+res.getURI()+"] is unknown!");
@@ -95,7 +95,8 @@ public class PurgeUpdates extends FedoraAction {
                     logger.debug("checksum["+checksum+"] for Resource["+res.getURI()+"]");
                     
                     // get repository checksum (from FC DO DC)                    
-                    FedoraResponse resp = getDatastreamDissemination(res.getFID().toString(),"DC").execute();
+                    String fid = res.getFID().toString();
+                    FedoraResponse resp = fedora("getDatastreamDissemination", () -> getDatastreamDissemination(fid,"DC").execute(getFedoraClient()));
                     if (resp.getStatus()!=200)
                         throw new DepositException("Unexpected status["+resp.getStatus()+"] while querying Fedora Commons!");
                         
@@ -59,7 +59,17 @@ public class SIPLoad extends AbstractAction {
         }
 
         logger.debug("SIP["+mr.getAbsolutePath()+"]");
-        context.setSIP(new CMD(mr,namespace,namespaces));
+        CMD cmd = new CMD(mr,namespace,namespaces);
+        // number of timestamped backups of the record to keep
+        String backups = this.getParameter("backups",null);
+        if (backups!=null) {
+            try {
+                cmd.setBackups(Integer.parseInt(backups.trim()));
+            } catch (NumberFormatException e) {
+                throw new DepositException("Parameter backups["+backups+"] isn't a number!",e);
+            }
+        }
+        context.setSIP(cmd);
 
         return true;
     }
@@ -28,8 +28,6 @@ import java.util.Date;
 import java.util.Deque;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.SaxonApiException;
@@ -115,7 +113,8 @@ public class UpdateCollections extends FedoraAction {
                         if (col.getFID().toString().startsWith(ns.getStringValue()+":")) {
                             try {
                                 // load the collection's CMD
-                                FedoraResponse res = getDatastreamDissemination(col.getFID(true).toString(),"CMD").execute();
+                                String fid = col.getFID(true).toString();
+                                FedoraResponse res = fedora("getDatastreamDissemination", () -> getDatastreamDissemination(fid,"CMD").execute(getFedoraClient()));
                                 if (res.getStatus()==200) {
                                     InputStream str = res.getEntityInputStream();
                                     XdmNode old = Saxon.buildDocument(new StreamSource(str));
@@ -127,7 +126,7 @@ public class UpdateCollections extends FedoraAction {
                                     // write to fox dir: <fid>.CMD.xml
                                     logger.debug("collection["+col.getFID()+"]");
                                     File out = new File(first + "/"+col.getFID(true).toString().replaceAll("[^a-zA-Z0-9\\-]", "_")+".CMD.xml");
-                                    TransformerFactory.newInstance().newTransformer().transform(destination.getXdmNode().asSource(),new StreamResult(out));
+                                    Saxon.save(destination,out);
                                     logger.info("created CMD["+out.getAbsolutePath()+"]");
                                     String newPID = Saxon.xpath2string(destination.getXdmNode(), "/cmd:CMD/cmd:Header/cmd:MdSelfLink",null,NAMESPACES);
                                     if (!newPID.equals(oldPID)) {
@@ -168,7 +167,8 @@ public class UpdateCollections extends FedoraAction {
     private void updateCollection(Deque<URI> hist, Collection col, URI fidPart, String oldPart, String newPart, String namespace, XdmValue namespaces) throws Exception {
         try {
             // load the collection's CMD
-            FedoraResponse res = getDatastreamDissemination(col.getFID(true).toString(),"CMD").execute();
+            String fid = col.getFID(true).toString();
+            FedoraResponse res = fedora("getDatastreamDissemination", () -> getDatastreamDissemination(fid,"CMD").execute(getFedoraClient()));
             if (res.getStatus()==200) {
                 // set parameters
                 upsert.clearParameters();
@@ -227,7 +227,7 @@ public class UpdateCollections extends FedoraAction {
     private XsltTransformer dc = null;
     
     private void updateDC(File fox, URI fid, URI pid) throws FedoraClientException, SaxonApiException, TransformerConfigurationException, TransformerException, DepositException {
-        FedoraResponse res = getDatastreamDissemination(fid.toString(),"DC").execute();
+        FedoraResponse res = fedora("getDatastreamDissemination", () -> getDatastreamDissemination(fid.toString(),"DC").execute(getFedoraClient()));
         if (res.getStatus()==200) {
             InputStream str = res.getEntityInputStream();
             XdmNode old = Saxon.buildDocument(new StreamSource(str));
@@ -245,7 +245,7 @@ public class UpdateCollections extends FedoraAction {
             if (!Saxon.xpath2boolean(destination.getXdmNode(), "/null")) {
                 // write to fox dir: <fid>.DC.xml
                 File  out = new File(fox + "/"+fid.toString().replaceAll("[^a-zA-Z0-9\\-]", "_")+".DC.xml");
-                TransformerFactory.newInstance().newTransformer().transform(destination.getXdmNode().asSource(),new StreamResult(out));
+                Saxon.save(destination,out);
             }
         } else
             throw new DepositException("Unexpected status["+res.getStatus()+"] while querying Fedora Commons!");
@@ -25,6 +25,7 @@ import java.nio.file.Paths;
 import java.util.Properties;
 import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.monitor.Timeline;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -63,6 +64,7 @@ public class UpdateSwordStatus extends AbstractAction {
                 FileOutputStream out = new FileOutputStream(ppath.toFile());
                 props.store(out,"SWORD SIP status");
                 out.close();
+                Timeline.written(ppath.toFile());
             } catch (IOException ex) {
                 throw new DepositException(ex);
             }
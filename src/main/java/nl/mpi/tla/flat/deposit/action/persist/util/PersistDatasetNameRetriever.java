@@ -16,6 +16,8 @@
  */
 package nl.mpi.tla.flat.deposit.action.persist.util;
 
+import java.util.Map;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -41,11 +43,32 @@ public class PersistDatasetNameRetriever {
 	 * @return name to use as base for the dataset folder
 	 */
 	public String getDatasetName(Document sipRecord, String datasetNameXpath) throws DepositException {
+		return getDatasetName(sipRecord, datasetNameXpath, Global.NAMESPACES);
+	}
+
+	/**
+	 * Gets the dataset name by using the given xpath expression on the given SIP record.
+	 * @param sipRecord SIP record to get the value from
+	 * @param datasetNameXpath XPATH expression to use 
+	 * @param namespaces namespace bindings to use in the xpath expression
+	 * @return name to use as base for the dataset folder
+	 */
+	public String getDatasetName(Document sipRecord, String datasetNameXpath, Map<String, String> namespaces) throws DepositException {
+		return getDatasetName(Saxon.wrapNode(sipRecord), datasetNameXpath, namespaces);
+	}
+
+	/**
+	 * Gets the dataset name by using the given xpath expression on the given SIP record node.
+	 * @param sipNode SIP record node to get the value from
+	 * @param datasetNameXpath XPATH expression to use
+	 * @param namespaces namespace bindings to use in the xpath expression
+	 * @return name to use as base for the dataset folder
+	 */
+	public String getDatasetName(XdmNode sipNode, String datasetNameXpath, Map<String, String> namespaces) throws DepositException {
 
-            XdmNode sipNode = Saxon.wrapNode(sipRecord);
             String datasetName;
             try {
-                datasetName = Saxon.xpath2string(sipNode, datasetNameXpath, null, Global.NAMESPACES);
+                datasetName = Saxon.xpath2string(sipNode, datasetNameXpath, null, namespaces);
             } catch (SaxonApiException ex) {
                 String message = "Error extracting name to use as base folder for the resource policy";
                 logger.error(message, ex);
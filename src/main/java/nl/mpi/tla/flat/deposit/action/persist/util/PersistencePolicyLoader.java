@@ -61,7 +61,7 @@ public class PersistencePolicyLoader {
 	 * @throws SaxonApiException
 	 * @throws DepositException 
 	 */
-	public PersistencePolicies loadPersistencePolicies(Source persistencePoliciesSource, SIPInterface sip, String datasetName) throws SaxonApiException {
+	public PersistencePolicies loadPersistencePolicies(Source persistencePoliciesSource, SIPInterface sip, String datasetName) throws SaxonApiException, DepositException {
 		
 		logger.debug("Loading persistence policy from source {}", persistencePoliciesSource.getSystemId());
 		
@@ -73,7 +73,7 @@ public class PersistencePolicyLoader {
         	throw new IllegalStateException("Should have one default policy");
         }
         
-    	XdmNode sipNode = Saxon.wrapNode(sip.getRecord());
+    	XdmNode sipNode = sip.getRecordNode();
         
         String defaultTarget = Saxon.xpath2string(persistenceDefaultPolicyValues.iterator().next(), "@target");
         String defaultActualTarget = getTargetWithResolvedVariable(defaultTarget, sipNode, datasetName);
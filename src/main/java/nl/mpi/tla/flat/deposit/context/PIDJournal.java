@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.supercsv.io.CsvListReader;
+import org.supercsv.io.CsvListWriter;
+import org.supercsv.io.ICsvListReader;
+import org.supercsv.io.ICsvListWriter;
+import org.supercsv.prefs.CsvPreference;
+
+/**
+ * Append-only CSV journal of the PIDs of a flow and their redirects. A row
+ * with a PID and a redirect adds the PID, a row with only a PID deletes it.
+ * The additions and deletions are appended, and synced to disk, in batches
+ * by {@link #flush()}. Replaying the journal gives the current PIDs, and
+ * {@link #compact(Map)} rewrites it to just those.
+ */
+public class PIDJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(PIDJournal.class.getName());
+
+    protected final File file;
+
+    protected final List<String[]> pending = new ArrayList<>();
+
+    // rows in the journal, which can be more than the current PIDs
+    protected int rows = 0;
+
+    public PIDJournal(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Replay the journal.
+     */
+    public synchronized Map<URI,URI> load() throws IOException {
+        Map<URI,URI> pids = new LinkedHashMap<>();
+        this.rows = 0;
+        if (!file.exists() || file.length()==0)
+            return pids;
+        try (Reader in = Files.newBufferedReader(file.toPath(),StandardCharsets.UTF_8);
+             ICsvListReader csv = new CsvListReader(in,CsvPreference.STANDARD_PREFERENCE)) {
+            for (List<String> row = csv.read();row!=null;row = csv.read()) {
+                if (row.isEmpty() || row.get(0)==null)
+                    continue;
+                URI pid = URI.create(row.get(0));
+                if (row.size()>1)
+                    pids.put(pid,(row.get(1)!=null?URI.create(row.get(1)):null));
+                else
+                    pids.remove(pid);
+                this.rows++;
+            }
+        }
+        logger.debug("replayed PID journal["+file+"] rows["+this.rows+"] PIDs["+pids.size()+"]");
+        return pids;
+    }
+
+    public synchronized void add(URI pid,URI red) {
+        pending.add(new String[]{pid.toString(),(red!=null?red.toString():null)});
+    }
+
+    public synchronized void delete(URI pid) {
+        pending.add(new String[]{pid.toString()});
+    }
+
+    public synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Append the pending additions and deletions, and sync them to disk.
+     * When this fails they stay pending.
+     */
+    public synchronized void flush() throws IOException {
+        if (pending.isEmpty())
+            return;
+        boolean create = !file.exists();
+        try (FileOutputStream out = new FileOutputStream(file,true)) {
+            ICsvListWriter csv = new CsvListWriter(new OutputStreamWriter(out,StandardCharsets.UTF_8),CsvPreference.STANDARD_PREFERENCE);
+            for (String[] row:pending)
+                csv.write((Object[])row);
+            csv.flush();
+            out.getFD().sync();
+        }
+        if (create)
+            file.setWritable(true,false);
+        this.rows += pending.size();
+        logger.debug("appended["+pending.size()+"] rows to PID journal["+file+"]");
+        pending.clear();
+    }
+
+    /**
+     * Rewrite the journal to only hold the current PIDs, if it holds more.
+     */
+    public synchronized void compact(Map<URI,URI> pids) throws IOException {
+        flush();
+        if (this.rows<=pids.size())
+            return;
+        File tmp = new File(file.getPath()+".new");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            ICsvListWriter csv = new CsvListWriter(new OutputStreamWriter(out,StandardCharsets.UTF_8),CsvPreference.STANDARD_PREFERENCE);
+            for (Map.Entry<URI,URI> entry:pids.entrySet())
+                csv.write(entry.getKey().toString(),(entry.getValue()!=null?entry.getValue().toString():null));
+            csv.flush();
+            out.getFD().sync();
+        }
+        tmp.setWritable(true,false);
+        Files.move(tmp.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("compacted PID journal["+file+"] rows["+this.rows+"] to PIDs["+pids.size()+"]");
+        this.rows = pids.size();
+    }
+}
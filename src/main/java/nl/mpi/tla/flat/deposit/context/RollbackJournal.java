@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.context;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+import nl.mpi.tla.flat.deposit.util.Saxon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The rollback log, i.e., a file of
+ * {@code <event action="..." type="..."><param name="..." value="..."/></event>}
+ * fragments, which is appended to by all runs of a flow.
+ * <p>
+ * Events registered at the same time by actions running in parallel are
+ * written to the log in one go, and synced to disk once (group commit), and
+ * an event is on disk when {@link #append(String,String,String...)} returns.
+ * The log is scanned once, which indexes the byte ranges of the events by
+ * the name of their action, and the index is kept up to date by the appends.
+ * Only the events of the actions asked for are read back and turned into XDM
+ * nodes, so the rollback of a large ingest doesn't need the whole log in
+ * memory.
+ */
+public class RollbackJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(RollbackJournal.class.getName());
+
+    static private final byte[] EVENT = "<event".getBytes(StandardCharsets.US_ASCII);
+    static private final byte[] END = "</event>".getBytes(StandardCharsets.US_ASCII);
+
+    // an event waiting to be written
+    static private final class Pending {
+        final String action;
+        final byte[] xml;
+
+        Pending(String action, byte[] xml) {
+            this.action = action;
+            this.xml = xml;
+        }
+    }
+
+    protected final File file;
+
+    protected final List<Pending> pending = new ArrayList<>();
+
+    // sequence numbers of the last event appended and of the last one in the log
+    private long appended = 0;
+    private long committed = 0;
+
+    // serializes the writers and the scan, the pending events are guarded by this
+    private final Object commit = new Object();
+    private FileOutputStream out = null;
+    // the size of the log, guarded by commit
+    private long size = 0;
+
+    // the whole log, and the offset and length of the events indexed by action
+    private XdmNode log = null;
+    private Map<String,List<long[]>> index = null;
+
+    public RollbackJournal(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    static protected String escXML(String s) {
+        StringBuilder sb = null;
+        for (int i=0;i<s.length();i++) {
+            String esc;
+            switch (s.charAt(i)) {
+                case '&': esc = "&amp;"; break;
+                case '"': esc = "&quot;"; break;
+                case '\'': esc = "&apos;"; break;
+                case '<': esc = "&lt;"; break;
+                case '>': esc = "&gt;"; break;
+                default: esc = null;
+            }
+            if (esc!=null) {
+                if (sb==null)
+                    sb = new StringBuilder(s.length()+16).append(s, 0, i);
+                sb.append(esc);
+            } else if (sb!=null)
+                sb.append(s.charAt(i));
+        }
+        return (sb!=null?sb.toString():s);
+    }
+
+    static protected String unescXML(String s) {
+        if (s.indexOf('&')<0)
+            return s;
+        return s.replace("&quot;", "\"").replace("&apos;", "'").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+
+    /**
+     * Append an event to the log, params are name/value pairs.
+     */
+    public void append(String action, String type, String... params) throws IOException {
+        StringBuilder event = new StringBuilder();
+        event.append("<event action=\"").append(escXML(action)).append("\" type=\"").append(escXML(type)).append("\">");
+        for (int p=0;p<params.length;p++) {
+            if ((p+1)<params.length)
+                event.append("<param name=\"").append(escXML(params[p])).append("\" value=\"").append(escXML(params[++p])).append("\"/>");
+            else
+                event.append("<param name=\"").append(escXML(params[p])).append("\"/>");
+        }
+        event.append("</event>");
+        long seq;
+        synchronized (this) {
+            pending.add(new Pending(action, event.toString().getBytes(StandardCharsets.UTF_8)));
+            seq = ++appended;
+            log = null;
+        }
+        commit(seq);
+    }
+
+    // write and sync the pending events up to and including seq, if another thread didn't do so already
+    private void commit(long seq) throws IOException {
+        synchronized (commit) {
+            if (committed>=seq)
+                return;
+            List<Pending> group;
+            long last;
+            synchronized (this) {
+                group = new ArrayList<>(pending);
+                pending.clear();
+                last = appended;
+            }
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            for (Pending event : group)
+                buf.write(event.xml, 0, event.xml.length);
+            try {
+                if (out==null) {
+                    out = new FileOutputStream(file, true);
+                    size = out.getChannel().size();
+                }
+                buf.writeTo(out);
+                out.getChannel().force(false);
+            } catch (IOException ex) {
+                // keep them pending for the next commit, which reopens the log and rescans it,
+                // as part of the group might have been written
+                synchronized (this) {
+                    pending.addAll(0, group);
+                    index = null;
+                }
+                if (out!=null) {
+                    try {
+                        out.close();
+                    } catch (IOException x) {
+                        logger.debug("couldn't close rollback log["+file+"]", x);
+                    }
+                    out = null;
+                }
+                throw ex;
+            }
+            synchronized (this) {
+                if (index!=null) {
+                    long offset = size;
+                    for (Pending event : group) {
+                        index.computeIfAbsent(event.action, k -> new ArrayList<>()).add(new long[]{offset, event.xml.length});
+                        offset += event.xml.length;
+                    }
+                }
+            }
+            size += buf.size();
+            committed = last;
+            if (group.size()>1)
+                logger.debug("committed a group of ["+group.size()+"] rollback events");
+        }
+    }
+
+    // the log as a document, i.e., the events wrapped in a rollback element
+    private InputStream open() throws IOException {
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream("<rollback>".getBytes(StandardCharsets.UTF_8)),
+                (file.exists()?new FileInputStream(file):new ByteArrayInputStream(new byte[0])),
+                new ByteArrayInputStream("</rollback>".getBytes(StandardCharsets.UTF_8)))));
+    }
+
+    // make sure all events appended so far are in the log
+    private void sync() throws IOException {
+        long seq;
+        synchronized (this) {
+            seq = appended;
+        }
+        commit(seq);
+    }
+
+    /**
+     * The whole log, i.e., the events wrapped in a rollback element.
+     */
+    public XdmNode getLog() throws IOException, SaxonApiException {
+        sync();
+        synchronized (this) {
+            if (log==null) {
+                try (InputStream in = open()) {
+                    log = Saxon.buildDocument(new StreamSource(in, file.toURI().toString()));
+                }
+            }
+            return log;
+        }
+    }
+
+    static private boolean matches(byte[] tag, int len, byte[] prefix) {
+        if (len<prefix.length)
+            return false;
+        for (int i=0;i<prefix.length;i++) {
+            if (tag[i]!=prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    // index the events in the log by action in one streaming pass over its tags, as any < or > in a
+    // value is escaped, each < starts a tag and the next > ends it
+    private Map<String,List<long[]>> scan() throws IOException {
+        Map<String,List<long[]>> idx = new HashMap<>();
+        if (!file.exists())
+            return idx;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 64*1024)) {
+            byte[] tag = new byte[256];
+            int len = -1;
+            long pos = 0;
+            long start = -1;
+            String action = null;
+            for (int b = in.read(); b>=0; b = in.read(), pos++) {
+                if (b=='<') {
+                    len = 0;
+                } else if (len<0) {
+                    continue;
+                }
+                if (len==tag.length)
+                    tag = Arrays.copyOf(tag, tag.length*2);
+                tag[len++] = (byte) b;
+                if (b!='>')
+                    continue;
+                if (matches(tag, len, EVENT) && (tag[EVENT.length]==' ' || tag[EVENT.length]=='>' || tag[EVENT.length]=='/')) {
+                    start = pos-len+1;
+                    String open = new String(tag, 0, len, StandardCharsets.UTF_8);
+                    int a = open.indexOf(" action=\"");
+                    action = (a<0?"":unescXML(open.substring(a+9, open.indexOf('"', a+9))));
+                    if (tag[len-2]=='/') {
+                        idx.computeIfAbsent(action, k -> new ArrayList<>()).add(new long[]{start, pos+1-start});
+                        start = -1;
+                    }
+                } else if (start>=0 && matches(tag, len, END)) {
+                    idx.computeIfAbsent(action, k -> new ArrayList<>()).add(new long[]{start, pos+1-start});
+                    start = -1;
+                }
+                len = -1;
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * The events of an action, in the order they were registered.
+     */
+    public List<XdmItem> getEvents(String action) throws IOException, SaxonApiException {
+        sync();
+        List<long[]> ranges;
+        // no commits during the scan, so the index and the log are in line
+        synchronized (commit) {
+            synchronized (this) {
+                if (index==null)
+                    index = scan();
+                ranges = index.get(action);
+                if (ranges==null)
+                    return Collections.<XdmItem>emptyList();
+                ranges = new ArrayList<>(ranges);
+            }
+        }
+        // the log is only appended to, so the events can be read back without a lock
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        xml.write("<rollback>".getBytes(StandardCharsets.UTF_8));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] buf = new byte[4096];
+            for (long[] range : ranges) {
+                if (buf.length<range[1])
+                    buf = new byte[(int) range[1]];
+                raf.seek(range[0]);
+                raf.readFully(buf, 0, (int) range[1]);
+                xml.write(buf, 0, (int) range[1]);
+            }
+        }
+        xml.write("</rollback>".getBytes(StandardCharsets.UTF_8));
+        // only the events of this action are parsed into a tree, which isn't kept
+        XdmNode doc = Saxon.buildDocument(new StreamSource(new ByteArrayInputStream(xml.toByteArray()), file.toURI().toString()));
+        List<XdmItem> evs = new ArrayList<>();
+        for (XdmSequenceIterator root = doc.axisIterator(Axis.CHILD); root.hasNext();) {
+            XdmNode rollback = (XdmNode) root.next();
+            if (rollback.getNodeKind()!=XdmNodeKind.ELEMENT)
+                continue;
+            for (XdmSequenceIterator iter = rollback.axisIterator(Axis.CHILD); iter.hasNext();) {
+                XdmNode event = (XdmNode) iter.next();
+                if (event.getNodeKind()==XdmNodeKind.ELEMENT)
+                    evs.add(event);
+            }
+        }
+        return Collections.unmodifiableList(evs);
+    }
+
+    public void close() throws IOException {
+        sync();
+        synchronized (commit) {
+            if (out!=null) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+}
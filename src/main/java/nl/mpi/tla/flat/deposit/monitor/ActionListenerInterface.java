@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.monitor;
+
+/**
+ * Listens to the actions performed, and rolled back, by a flow. A listener
+ * is shared by all the flows of a {@link nl.mpi.tla.flat.deposit.CompiledFlow},
+ * and actions of the main flow can run in parallel, so an implementation
+ * should be thread-safe.
+ */
+public interface ActionListenerInterface {
+
+    public void performed(ActionMeasurement measurement);
+
+    public void rolledBack(ActionMeasurement measurement);
+
+}
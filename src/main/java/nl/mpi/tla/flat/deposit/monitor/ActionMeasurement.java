@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The measurement of one action performed, or rolled back, for one SIP. The
+ * CPU time and allocated bytes are those of the thread running the action,
+ * i.e., work an action hands over to other threads isn't included, and are
+ * -1 when the JVM doesn't support measuring them.
+ */
+public class ActionMeasurement {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActionMeasurement.class.getName());
+
+    static private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    static private final boolean cpu;
+
+    static private final boolean allocation;
+
+    static {
+        boolean c = false;
+        try {
+            c = threads.isCurrentThreadCpuTimeSupported();
+            if (c && !threads.isThreadCpuTimeEnabled())
+                threads.setThreadCpuTimeEnabled(true);
+        } catch (UnsupportedOperationException | SecurityException e) {
+            logger.warn("Couldn't enable measuring the CPU time of actions! "+e.getMessage());
+            c = false;
+        }
+        cpu = c;
+        boolean a = false;
+        try {
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean)threads;
+                a = sun.isThreadAllocatedMemorySupported();
+                if (a && !sun.isThreadAllocatedMemoryEnabled())
+                    sun.setThreadAllocatedMemoryEnabled(true);
+            }
+        } catch (UnsupportedOperationException | SecurityException e) {
+            logger.warn("Couldn't enable measuring the bytes allocated by actions! "+e.getMessage());
+            a = false;
+        }
+        allocation = a;
+    }
+
+    private final String flow;
+    private final String sip;
+    private final String phase;
+    private final String action;
+    private final long start = System.currentTimeMillis();
+    private final long wallStart = System.nanoTime();
+    private final long cpuStart = cpuTime();
+    private final long allocStart = allocatedBytes();
+    private long wall = -1L;
+    private long cpuTime = -1L;
+    private long allocated = -1L;
+    private long semaphoreWait = 0L;
+    private Boolean status = null;
+    private Throwable exception = null;
+
+    /**
+     * Start measuring an action in the current thread.
+     */
+    public ActionMeasurement(String flow,String sip,String phase,String action) {
+        this.flow = flow;
+        this.sip = sip;
+        this.phase = phase;
+        this.action = action;
+    }
+
+    static private long cpuTime() {
+        return (cpu?threads.getCurrentThreadCpuTime():-1L);
+    }
+
+    static private long allocatedBytes() {
+        if (!allocation)
+            return -1L;
+        return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public void addSemaphoreWait(long nanos) {
+        this.semaphoreWait += nanos;
+    }
+
+    /**
+     * Stop measuring the action, which should happen in the same thread as
+     * it was started.
+     */
+    public ActionMeasurement stop(Boolean status,Throwable exception) {
+        this.wall = System.nanoTime() - wallStart;
+        long c = cpuTime();
+        this.cpuTime = (c < 0 || cpuStart < 0 ? -1L : c - cpuStart);
+        long a = allocatedBytes();
+        this.allocated = (a < 0 || allocStart < 0 ? -1L : a - allocStart);
+        this.status = status;
+        this.exception = exception;
+        return this;
+    }
+
+    public String getFlow() {
+        return this.flow;
+    }
+
+    public String getSIP() {
+        return this.sip;
+    }
+
+    /**
+     * The part of the flow, i.e., init, main, exception, final or rollback.
+     */
+    public String getPhase() {
+        return this.phase;
+    }
+
+    public String getAction() {
+        return this.action;
+    }
+
+    /**
+     * The start time in milliseconds since the epoch.
+     */
+    public long getStart() {
+        return this.start;
+    }
+
+    /**
+     * The wall clock time in nanoseconds.
+     */
+    public long getWallTime() {
+        return this.wall;
+    }
+
+    /**
+     * The CPU time in nanoseconds, or -1 if unknown.
+     */
+    public long getCPUTime() {
+        return this.cpuTime;
+    }
+
+    /**
+     * The allocated bytes, or -1 if unknown.
+     */
+    public long getAllocatedBytes() {
+        return this.allocated;
+    }
+
+    /**
+     * The time in nanoseconds spend waiting for the action's semaphore (see
+     * the @sema attribute).
+     */
+    public long getSemaphoreWait() {
+        return this.semaphoreWait;
+    }
+
+    /**
+     * The result of the action, or null when it threw an exception.
+     */
+    public Boolean getStatus() {
+        return this.status;
+    }
+
+    public Throwable getException() {
+        return this.exception;
+    }
+
+    public boolean hasSucceeded() {
+        return (this.status != null && this.status.booleanValue());
+    }
+
+    @Override
+    public String toString() {
+        return "flow["+flow+"] "+phase+" action["+action+"] sip["+sip+"] status["+(exception!=null?"exception":status)+"] wall["+wall+"ns] cpu["+cpuTime+"ns] alloc["+allocated+"B] sema["+semaphoreWait+"ns]";
+    }
+}
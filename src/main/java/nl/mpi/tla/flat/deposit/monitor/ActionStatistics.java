@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.monitor;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The default action listener, which aggregates the measurements per phase
+ * and action into histograms.
+ */
+public class ActionStatistics implements ActionListenerInterface {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActionStatistics.class.getName());
+
+    /**
+     * The aggregated measurements of one action.
+     */
+    static public class Statistics {
+
+        private final String phase;
+        private final String action;
+
+        private final Histogram wall = new Histogram();
+        private final Histogram cpu = new Histogram();
+        private final Histogram allocated = new Histogram();
+        private final Histogram semaphoreWait = new Histogram();
+
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong rollbacks = new AtomicLong();
+
+        Statistics(String phase,String action) {
+            this.phase = phase;
+            this.action = action;
+        }
+
+        void add(ActionMeasurement m) {
+            wall.record(m.getWallTime());
+            cpu.record(m.getCPUTime());
+            allocated.record(m.getAllocatedBytes());
+            semaphoreWait.record(m.getSemaphoreWait());
+        }
+
+        public String getPhase() {
+            return phase;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        /**
+         * The wall clock times in nanoseconds.
+         */
+        public Histogram getWallTime() {
+            return wall;
+        }
+
+        /**
+         * The CPU times in nanoseconds.
+         */
+        public Histogram getCPUTime() {
+            return cpu;
+        }
+
+        public Histogram getAllocatedBytes() {
+            return allocated;
+        }
+
+        /**
+         * The semaphore wait times in nanoseconds.
+         */
+        public Histogram getSemaphoreWait() {
+            return semaphoreWait;
+        }
+
+        public long getSucceeded() {
+            return succeeded.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public long getRollbacks() {
+            return rollbacks.get();
+        }
+
+        @Override
+        public String toString() {
+            return phase+" action["+action+"] succeeded["+getSucceeded()+"] failed["+getFailed()+"] errors["+getErrors()+"] rollbacks["+getRollbacks()+"]"
+                +"\n  wall(ns):  "+wall
+                +"\n  cpu(ns):   "+cpu
+                +"\n  alloc(B):  "+allocated
+                +"\n  sema(ns):  "+semaphoreWait;
+        }
+    }
+
+    private final Map<String,Statistics> statistics = new ConcurrentHashMap<>();
+
+    private Statistics get(ActionMeasurement m) {
+        return statistics.computeIfAbsent(m.getPhase()+"/"+m.getAction(), k -> new Statistics(m.getPhase(), m.getAction()));
+    }
+
+    @Override
+    public void performed(ActionMeasurement m) {
+        Statistics s = get(m);
+        s.add(m);
+        if (m.getException() != null)
+            s.errors.incrementAndGet();
+        else if (m.hasSucceeded())
+            s.succeeded.incrementAndGet();
+        else
+            s.failed.incrementAndGet();
+    }
+
+    @Override
+    public void rolledBack(ActionMeasurement m) {
+        Statistics s = get(m);
+        s.add(m);
+        s.rollbacks.incrementAndGet();
+        if (m.getException() != null)
+            s.errors.incrementAndGet();
+    }
+
+    /**
+     * The statistics per action, keyed by phase/action.
+     */
+    public Map<String,Statistics> getStatistics() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(statistics));
+    }
+
+    public void clear() {
+        statistics.clear();
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Statistics s:statistics.values())
+            sb.append(s).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Log the report.
+     */
+    public void log() {
+        for (Statistics s:statistics.values())
+            logger.info(s.toString());
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.monitor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * The measurement of a call to an external service, e.g., Fedora Commons,
+ * FITS, gsearch, EPIC or SMTP. The listeners are shared by all flows in the
+ * JVM, and the call is attributed to the SIP in the log context (MDC) of the
+ * calling thread. Without listeners a call isn't measured.
+ */
+public class ExternalCall {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExternalCall.class.getName());
+
+    static private final List<CallListenerInterface> listeners = new CopyOnWriteArrayList<>();
+
+    // the call returned when there are no listeners
+    static private final ExternalCall NONE = new ExternalCall();
+
+    /**
+     * A call which returns a result.
+     */
+    public interface Call<T,E extends Exception> {
+        public T call() throws E;
+    }
+
+    /**
+     * A call which doesn't return a result.
+     */
+    public interface Task<E extends Exception> {
+        public void run() throws E;
+    }
+
+    private final String sip;
+    private final String service;
+    private final String operation;
+    private final long start;
+    private final long nanoStart;
+    private long duration = -1L;
+    private String status = null;
+    private boolean failed = false;
+    private Throwable exception = null;
+
+    private ExternalCall() {
+        this.sip = null;
+        this.service = null;
+        this.operation = null;
+        this.start = 0L;
+        this.nanoStart = 0L;
+    }
+
+    private ExternalCall(String service,String operation) {
+        this.sip = MDC.get("sip");
+        this.service = service;
+        this.operation = operation;
+        this.start = System.currentTimeMillis();
+        this.nanoStart = System.nanoTime();
+    }
+
+    static public void addListener(CallListenerInterface listener) {
+        if (!listeners.contains(listener))
+            listeners.add(listener);
+    }
+
+    static public void removeListener(CallListenerInterface listener) {
+        listeners.remove(listener);
+    }
+
+    static public boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Start measuring a call, which should be ended by {@link #stop(String)}
+     * or {@link #fail(Throwable)}.
+     */
+    static public ExternalCall start(String service,String operation) {
+        if (listeners.isEmpty())
+            return NONE;
+        return new ExternalCall(service,operation);
+    }
+
+    static public <T,E extends Exception> T call(String service,String operation,Call<T,E> call) throws E {
+        ExternalCall c = start(service,operation);
+        try {
+            T res = call.call();
+            c.stop("OK");
+            return res;
+        } catch (Exception | Error e) {
+            c.fail(e);
+            throw e;
+        }
+    }
+
+    static public <E extends Exception> void run(String service,String operation,Task<E> task) throws E {
+        ExternalCall c = start(service,operation);
+        try {
+            task.run();
+            c.stop("OK");
+        } catch (Exception | Error e) {
+            c.fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * The call ended with the status, e.g., an HTTP status code.
+     */
+    public void stop(String status) {
+        end(status,false,null);
+    }
+
+    /**
+     * The call failed with the status, e.g., an HTTP error status code.
+     */
+    public void fail(String status) {
+        end(status,true,null);
+    }
+
+    /**
+     * The call failed with an exception.
+     */
+    public void fail(Throwable exception) {
+        end(exception.getClass().getSimpleName(),true,exception);
+    }
+
+    private void end(String status,boolean failed,Throwable exception) {
+        if (this == NONE || this.duration >= 0)
+            return;
+        this.duration = System.nanoTime() - nanoStart;
+        this.status = status;
+        this.failed = failed;
+        this.exception = exception;
+        for (CallListenerInterface listener:listeners) {
+            try {
+                listener.called(this);
+            } catch (Exception e) {
+                logger.warn("call listener["+listener.getClass().getName()+"] failed for call["+service+"]["+operation+"]! "+e.getMessage());
+            }
+        }
+    }
+
+    public String getSIP() {
+        return this.sip;
+    }
+
+    public String getService() {
+        return this.service;
+    }
+
+    public String getOperation() {
+        return this.operation;
+    }
+
+    /**
+     * The start time in milliseconds since the epoch.
+     */
+    public long getStart() {
+        return this.start;
+    }
+
+    /**
+     * The duration in nanoseconds.
+     */
+    public long getDuration() {
+        return this.duration;
+    }
+
+    public String getStatus() {
+        return this.status;
+    }
+
+    public Throwable getException() {
+        return this.exception;
+    }
+
+    public boolean hasFailed() {
+        return this.failed;
+    }
+
+    @Override
+    public String toString() {
+        return "call["+service+"]["+operation+"] sip["+sip+"] status["+status+"] duration["+duration+"ns]";
+    }
+}
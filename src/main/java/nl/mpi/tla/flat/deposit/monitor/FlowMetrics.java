@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.monitor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The SIPs processed by a flow.
+ */
+public class FlowMetrics implements FlowMetricsMXBean {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private volatile Map<String,Semaphore> semaphores = Collections.emptyMap();
+
+    void started(Map<String,Semaphore> semaphores) {
+        if (semaphores != null)
+            this.semaphores = semaphores;
+        started.incrementAndGet();
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * A SIP has been processed: true (succeeded), false (failed) or null
+     * (error).
+     */
+    void finished(Boolean outcome) {
+        inFlight.decrementAndGet();
+        if (outcome == null)
+            errors.incrementAndGet();
+        else if (outcome.booleanValue())
+            succeeded.incrementAndGet();
+        else
+            failed.incrementAndGet();
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getStarted() {
+        return started.get();
+    }
+
+    @Override
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public Map<String,Integer> getSemaphoreQueueLengths() {
+        Map<String,Integer> res = new TreeMap<>();
+        for (Map.Entry<String,Semaphore> sema:semaphores.entrySet())
+            res.put(sema.getKey(),sema.getValue().getQueueLength());
+        return res;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.monitor;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the SIPs processed by a flow.
+ */
+public interface FlowMetricsMXBean {
+
+    public int getInFlight();
+
+    public long getStarted();
+
+    public long getSucceeded();
+
+    public long getFailed();
+
+    public long getErrors();
+
+    /**
+     * The number of threads waiting for the semaphore of an action.
+     */
+    public Map<String,Integer> getSemaphoreQueueLengths();
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A thread-safe histogram of non-negative long values, e.g., durations in
+ * nanoseconds or sizes in bytes. Each power of two is split into 8 buckets,
+ * so a percentile is accurate within 12.5%, while the histogram has a fixed
+ * size whatever the range of the values.
+ */
+public class Histogram {
+
+    static private final int SUB = 8;
+    static private final int SHIFT = 3;
+    static private final int BUCKETS = (64 - SHIFT) * SUB;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    static private int bucket(long value) {
+        if (value < SUB)
+            return (int)value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exp - SHIFT)) & (SUB - 1);
+        return (exp - SHIFT + 1) * SUB + sub;
+    }
+
+    // the highest value that ends up in the bucket
+    static private long upper(int bucket) {
+        if (bucket < SUB)
+            return bucket;
+        int exp = bucket / SUB + SHIFT - 1;
+        long sub = bucket % SUB;
+        return ((SUB + sub + 1) << (exp - SHIFT)) - 1;
+    }
+
+    /**
+     * Record a value, negative values (i.e., unknown) are ignored.
+     */
+    public void record(long value) {
+        if (value < 0)
+            return;
+        buckets.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMin() {
+        return (getCount() == 0 ? 0 : min.get());
+    }
+
+    public long getMax() {
+        return (getCount() == 0 ? 0 : max.get());
+    }
+
+    public double getMean() {
+        long c = getCount();
+        return (c == 0 ? 0.0 : (double)getSum() / c);
+    }
+
+    /**
+     * Get the value below which the given percentage of the values fall,
+     * e.g., 50.0 for the median or 99.0 for the 99th percentile.
+     */
+    public long getPercentile(double percentile) {
+        long c = getCount();
+        if (c == 0)
+            return 0;
+        long rank = (long)Math.ceil(percentile / 100.0 * c);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets.get(b);
+            if (seen >= rank)
+                return Math.max(Math.min(upper(b), getMax()), getMin());
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "count["+getCount()+"] min["+getMin()+"] mean["+Math.round(getMean())+"] p50["+getPercentile(50)+"] p90["+getPercentile(90)+"] p99["+getPercentile(99)+"] max["+getMax()+"]";
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latencies, in nanoseconds, and outcomes of an action or an external
+ * call.
+ */
+public class Latency implements LatencyMXBean {
+
+    static private final double MILLIS = 1000000.0;
+
+    private final Histogram histogram = new Histogram();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Record a duration, and its outcome: true (succeeded), false (failed)
+     * or null (error).
+     */
+    public void record(long nanos,Boolean outcome) {
+        histogram.record(nanos);
+        if (outcome == null)
+            errors.incrementAndGet();
+        else if (outcome.booleanValue())
+            succeeded.incrementAndGet();
+        else
+            failed.incrementAndGet();
+    }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return histogram.getMean() / MILLIS;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return histogram.getPercentile(50) / MILLIS;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return histogram.getPercentile(90) / MILLIS;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return histogram.getPercentile(99) / MILLIS;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return histogram.getMax() / MILLIS;
+    }
+}
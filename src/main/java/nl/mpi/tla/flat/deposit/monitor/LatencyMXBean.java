@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.monitor;
+
+/**
+ * The JMX view of the latencies of an action or an external call.
+ */
+public interface LatencyMXBean {
+
+    public long getCount();
+
+    public long getSucceeded();
+
+    public long getFailed();
+
+    public long getErrors();
+
+    public double getMeanMillis();
+
+    public double getP50Millis();
+
+    public double getP90Millis();
+
+    public double getP99Millis();
+
+    public double getMaxMillis();
+
+}
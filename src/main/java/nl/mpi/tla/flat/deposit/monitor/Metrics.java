@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.monitor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import nl.mpi.tla.flat.deposit.Flow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The live metrics of all flows in the JVM: SIPs in flight and processed per
+ * flow, latencies per action and per external call, and the semaphore queue
+ * lengths. They are registered as JMX MBeans in the
+ * {@value #DOMAIN} domain, and can be exported in the Prometheus text format
+ * to a file or a local HTTP endpoint.
+ * <p>
+ * Once enabled, e.g., by {@link #configure(String)} or the
+ * {@value #PROPERTY} system property, all flows compiled afterwards report
+ * to the one instance.
+ */
+public class Metrics implements FlowListenerInterface, CallListenerInterface {
+
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class.getName());
+
+    static public final String DOMAIN = "nl.mpi.tla.flat.deposit";
+
+    static public final String PROPERTY = "nl.mpi.tla.flat.deposit.metrics";
+
+    static private final Metrics instance = new Metrics();
+
+    static private volatile boolean enabled = false;
+
+    static private HttpServer server = null;
+
+    static private ScheduledExecutorService writer = null;
+
+    static private File file = null;
+
+    static {
+        String target = System.getProperty(PROPERTY);
+        if (target != null && !target.trim().isEmpty()) {
+            try {
+                configure(target.trim());
+            } catch (IOException e) {
+                logger.error("couldn't export the metrics to["+target+"]! "+e.getMessage());
+            }
+        }
+    }
+
+    private final ConcurrentMap<String,FlowMetrics> flows = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String,Latency> actions = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String,Latency> calls = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    static public Metrics getInstance() {
+        return instance;
+    }
+
+    static public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start collecting metrics, which are available as JMX MBeans.
+     */
+    static public synchronized void enable() {
+        if (!enabled) {
+            ExternalCall.addListener(instance);
+            enabled = true;
+        }
+    }
+
+    /**
+     * Enable the metrics and export them to the target: 'jmx' (JMX only),
+     * a [HOST:]PORT (HTTP endpoint, by default on the loopback interface) or
+     * a file (rewritten every 15 seconds).
+     */
+    static public synchronized void configure(String target) throws IOException {
+        if (target.equalsIgnoreCase("jmx")) {
+            enable();
+        } else if (target.matches("([^:/\\\\]+:)?[0-9]+")) {
+            int sep = target.lastIndexOf(':');
+            int port = Integer.parseInt(target.substring(sep+1));
+            if (sep < 0)
+                exportHTTP(new InetSocketAddress(InetAddress.getLoopbackAddress(),port));
+            else
+                exportHTTP(new InetSocketAddress(target.substring(0,sep),port));
+        } else {
+            exportFile(new File(target),15);
+        }
+    }
+
+    /**
+     * Serve the metrics in the Prometheus text format on /metrics.
+     */
+    static public synchronized void exportHTTP(InetSocketAddress address) throws IOException {
+        enable();
+        if (server != null)
+            server.stop(0);
+        server = HttpServer.create(address,0);
+        server.createContext("/metrics",new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = instance.toPrometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type","text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200,body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        logger.info("metrics are served on http://"+address.getHostString()+":"+server.getAddress().getPort()+"/metrics");
+    }
+
+    /**
+     * Write the metrics in the Prometheus text format to a file, e.g., for
+     * the node exporter's textfile collector, every period (seconds).
+     */
+    static public synchronized void exportFile(File target,long period) throws IOException {
+        enable();
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("directory["+dir+"] can't be created!");
+        if (writer != null)
+            writer.shutdownNow();
+        file = target;
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r,"metrics-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        writer.scheduleAtFixedRate(() -> {
+            try {
+                instance.writePrometheus(target);
+            } catch (IOException e) {
+                logger.warn("couldn't write the metrics to["+target+"]! "+e.getMessage());
+            }
+        },0,period,TimeUnit.SECONDS);
+        logger.info("metrics are written to["+target.getAbsolutePath()+"]");
+    }
+
+    /**
+     * Stop the exporters, the metrics file is written one last time.
+     */
+    static public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (writer != null) {
+            writer.shutdownNow();
+            writer = null;
+            try {
+                instance.writePrometheus(file);
+            } catch (IOException e) {
+                logger.warn("couldn't write the metrics to["+file+"]! "+e.getMessage());
+            }
+        }
+    }
+
+    private static void register(Object mbean,String name) {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(DOMAIN+":"+name);
+            if (!mbs.isRegistered(on))
+                mbs.registerMBean(mbean,on);
+        } catch (JMException e) {
+            logger.warn("couldn't register MBean["+name+"]! "+e.getMessage());
+        }
+    }
+
+    private FlowMetrics flow(String flow) {
+        return flows.computeIfAbsent(flow, k -> {
+            FlowMetrics m = new FlowMetrics();
+            register(m,"type=Flow,name="+ObjectName.quote(k));
+            return m;
+        });
+    }
+
+    private Latency action(String flow,String phase,String action) {
+        return actions.computeIfAbsent(flow+"\u0000"+phase+"\u0000"+action, k -> {
+            Latency l = new Latency();
+            register(l,"type=Action,flow="+ObjectName.quote(flow)+",phase="+phase+",name="+ObjectName.quote(action));
+            return l;
+        });
+    }
+
+    private Latency call(String service,String operation) {
+        return calls.computeIfAbsent(service+"\u0000"+operation, k -> {
+            Latency l = new Latency();
+            register(l,"type=Call,service="+ObjectName.quote(service)+",name="+ObjectName.quote(operation));
+            return l;
+        });
+    }
+
+    @Override
+    public void started(Flow flow) {
+        flow(flow.getCompiledFlow().getName()).started(flow.getCompiledFlow().getSemaphores());
+    }
+
+    @Override
+    public void finished(Flow flow) {
+        Boolean outcome = flow.getStatus();
+        if (flow.getContext().getException() != null)
+            outcome = null;
+        else if (outcome == null)
+            outcome = Boolean.FALSE;
+        flow(flow.getCompiledFlow().getName()).finished(outcome);
+    }
+
+    @Override
+    public void performed(ActionMeasurement m) {
+        action(m.getFlow(),m.getPhase(),m.getAction()).record(m.getWallTime(),(m.getException()!=null?null:m.hasSucceeded()));
+    }
+
+    @Override
+    public void rolledBack(ActionMeasurement m) {
+        action(m.getFlow(),m.getPhase(),m.getAction()).record(m.getWallTime(),(m.getException()!=null?null:Boolean.TRUE));
+    }
+
+    @Override
+    public void called(ExternalCall c) {
+        call(c.getService(),c.getOperation()).record(c.getDuration(),(c.hasFailed()?null:Boolean.TRUE));
+    }
+
+    public Map<String,FlowMetricsMXBean> getFlows() {
+        return new TreeMap<String,FlowMetricsMXBean>(flows);
+    }
+
+    // Prometheus text format
+
+    static private String label(String value) {
+        return value.replace("\\","\\\\").replace("\"","\\\"").replace("\n","\\n");
+    }
+
+    static private String labels(String... kv) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i=0;i<kv.length;i+=2) {
+            if (i>0)
+                sb.append(',');
+            sb.append(kv[i]).append("=\"").append(label(kv[i+1])).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    static private double seconds(long nanos) {
+        return nanos / 1000000000.0;
+    }
+
+    static private void header(Writer w,String name,String type,String help) throws IOException {
+        w.write("# HELP "+name+" "+help+"\n");
+        w.write("# TYPE "+name+" "+type+"\n");
+    }
+
+    static private void summary(Writer w,String name,Map<String,Latency> latencies,String label1,String label2,String label3) throws IOException {
+        for (Map.Entry<String,Latency> e:latencies.entrySet()) {
+            String[] k = e.getKey().split("\u0000",-1);
+            Histogram h = e.getValue().getHistogram();
+            String[] kv = (label3==null?new String[] {label1,k[0],label2,k[1]}:new String[] {label1,k[0],label2,k[1],label3,k[2]});
+            String l = labels(kv);
+            String q = l.substring(0,l.length()-1)+",quantile=\"";
+            w.write(name+q+"0.5\"} "+seconds(h.getPercentile(50))+"\n");
+            w.write(name+q+"0.9\"} "+seconds(h.getPercentile(90))+"\n");
+            w.write(name+q+"0.99\"} "+seconds(h.getPercentile(99))+"\n");
+            w.write(name+"_sum"+l+" "+seconds(h.getSum())+"\n");
+            w.write(name+"_count"+l+" "+h.getCount()+"\n");
+        }
+    }
+
+    public void writePrometheus(Writer w) throws IOException {
+        Map<String,FlowMetrics> fs = new TreeMap<>(flows);
+        header(w,"doorkeeper_sips_in_flight","gauge","SIPs being processed.");
+        for (Map.Entry<String,FlowMetrics> f:fs.entrySet())
+            w.write("doorkeeper_sips_in_flight"+labels("flow",f.getKey())+" "+f.getValue().getInFlight()+"\n");
+        header(w,"doorkeeper_sips_total","counter","SIPs processed.");
+        for (Map.Entry<String,FlowMetrics> f:fs.entrySet()) {
+            w.write("doorkeeper_sips_total"+labels("flow",f.getKey(),"status","succeeded")+" "+f.getValue().getSucceeded()+"\n");
+            w.write("doorkeeper_sips_total"+labels("flow",f.getKey(),"status","failed")+" "+f.getValue().getFailed()+"\n");
+            w.write("doorkeeper_sips_total"+labels("flow",f.getKey(),"status","error")+" "+f.getValue().getErrors()+"\n");
+        }
+        header(w,"doorkeeper_semaphore_queue_length","gauge","Threads waiting for the semaphore of an action.");
+        for (Map.Entry<String,FlowMetrics> f:fs.entrySet()) {
+            for (Map.Entry<String,Integer> q:f.getValue().getSemaphoreQueueLengths().entrySet())
+                w.write("doorkeeper_semaphore_queue_length"+labels("flow",f.getKey(),"action",q.getKey())+" "+q.getValue()+"\n");
+        }
+        Map<String,Latency> as = new TreeMap<>(actions);
+        header(w,"doorkeeper_action_seconds","summary","Wall clock time of an action.");
+        summary(w,"doorkeeper_action_seconds",as,"flow","phase","action");
+        header(w,"doorkeeper_action_total","counter","Actions performed.");
+        for (Map.Entry<String,Latency> e:as.entrySet()) {
+            String[] k = e.getKey().split("\u0000",-1);
+            w.write("doorkeeper_action_total"+labels("flow",k[0],"phase",k[1],"action",k[2],"status","succeeded")+" "+e.getValue().getSucceeded()+"\n");
+            w.write("doorkeeper_action_total"+labels("flow",k[0],"phase",k[1],"action",k[2],"status","failed")+" "+e.getValue().getFailed()+"\n");
+            w.write("doorkeeper_action_total"+labels("flow",k[0],"phase",k[1],"action",k[2],"status","error")+" "+e.getValue().getErrors()+"\n");
+        }
+        Map<String,Latency> cs = new TreeMap<>(calls);
+        header(w,"doorkeeper_call_seconds","summary","Duration of a call to an external service.");
+        summary(w,"doorkeeper_call_seconds",cs,"service","operation",null);
+        header(w,"doorkeeper_call_errors_total","counter","Calls to an external service which failed.");
+        for (Map.Entry<String,Latency> e:cs.entrySet()) {
+            String[] k = e.getKey().split("\u0000",-1);
+            w.write("doorkeeper_call_errors_total"+labels("service",k[0],"operation",k[1])+" "+e.getValue().getErrors()+"\n");
+        }
+    }
+
+    public String toPrometheus() {
+        StringWriter w = new StringWriter();
+        try {
+            writePrometheus(w);
+        } catch (IOException e) {
+            // a StringWriter doesn't throw
+        }
+        return w.toString();
+    }
+
+    // write to a temporary file first, so a reader never sees a partial file
+    public void writePrometheus(File target) throws IOException {
+        File tmp = new File(target.getAbsoluteFile().getParentFile(),"."+target.getName()+".tmp");
+        try (Writer w = new OutputStreamWriter(Files.newOutputStream(tmp.toPath()),StandardCharsets.UTF_8)) {
+            writePrometheus(w);
+        }
+        Files.move(tmp.toPath(),target.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.monitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import nl.mpi.tla.flat.deposit.Context;
+import nl.mpi.tla.flat.deposit.Flow;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * The timeline of one flow run, i.e., of one SIP: the actions performed and
+ * rolled back, the calls to external services and the files written. It's
+ * written as XML when the run has finished to the file specified by the
+ * dk-timeline property, e.g., {$work}/logs/timeline.xml. Without this
+ * property no timeline is kept.
+ * <p>
+ * Calls and files are attributed to the timeline of the flow running the
+ * current thread or else, e.g., for threads started by an action, to the
+ * timeline of the SIP in the log context (MDC).
+ */
+public class Timeline implements FlowListenerInterface {
+
+    private static final Logger logger = LoggerFactory.getLogger(Timeline.class.getName());
+
+    static public final String PROPERTY = "dk-timeline";
+
+    static private final List<Timeline> active = new CopyOnWriteArrayList<>();
+
+    static private final ThreadLocal<Timeline> current = new ThreadLocal<>();
+
+    static private final CallListenerInterface calls = new CallListenerInterface() {
+        @Override
+        public void called(ExternalCall call) {
+            Timeline timeline = lookup(call.getSIP());
+            if (timeline != null)
+                timeline.add(new Event("call",call.getStart(),call.getDuration())
+                    .with("service",call.getService())
+                    .with("operation",call.getOperation())
+                    .with("status",call.getStatus())
+                    .with("failed",String.valueOf(call.hasFailed())));
+        }
+    };
+
+    // an entry of the timeline
+    static class Event {
+
+        final String type;
+        final long start;
+        final long duration;
+        final List<String> attrs = new ArrayList<>();
+
+        Event(String type,long start,long duration) {
+            this.type = type;
+            this.start = start;
+            this.duration = duration;
+        }
+
+        Event with(String name,String value) {
+            if (value != null) {
+                attrs.add(name);
+                attrs.add(value);
+            }
+            return this;
+        }
+    }
+
+    private final File file;
+
+    private final List<Event> events = Collections.synchronizedList(new ArrayList<Event>());
+
+    private volatile String sip = null;
+
+    private long start = 0L;
+
+    private Timeline(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Create a timeline for a flow run, if its context specifies the
+     * dk-timeline property, else return null.
+     */
+    static public Timeline open(Context context) {
+        if (!context.hasProperty(PROPERTY))
+            return null;
+        String path = context.getProperty(PROPERTY,null).toString().trim();
+        if (path.isEmpty())
+            return null;
+        return new Timeline(new File(path));
+    }
+
+    static private synchronized void activate(Timeline timeline) {
+        active.add(timeline);
+        ExternalCall.addListener(calls);
+    }
+
+    static private synchronized void deactivate(Timeline timeline) {
+        active.remove(timeline);
+        if (active.isEmpty())
+            ExternalCall.removeListener(calls);
+    }
+
+    static private Timeline lookup(String sip) {
+        Timeline timeline = current.get();
+        if (timeline != null) {
+            // the SIP might only become known during the run, e.g., by WorkspaceLogSetup
+            if (sip != null)
+                timeline.sip = sip;
+            return timeline;
+        }
+        if (sip != null) {
+            for (Timeline t:active) {
+                if (sip.equals(t.sip))
+                    return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Attribute the current thread to a timeline, or to none if null.
+     */
+    static public void enter(Timeline timeline) {
+        if (timeline != null)
+            current.set(timeline);
+        else
+            current.remove();
+    }
+
+    static public void exit() {
+        current.remove();
+    }
+
+    /**
+     * Record that a file has been written.
+     */
+    static public void written(File file) {
+        if (active.isEmpty())
+            return;
+        Timeline timeline = lookup(MDC.get("sip"));
+        if (timeline != null)
+            timeline.add(new Event("file",System.currentTimeMillis(),-1L).with("path",file.getAbsolutePath()));
+    }
+
+    private void add(Event event) {
+        events.add(event);
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    @Override
+    public void started(Flow flow) {
+        this.start = System.currentTimeMillis();
+        this.sip = MDC.get("sip");
+        activate(this);
+    }
+
+    private void action(ActionMeasurement m) {
+        if (MDC.get("sip") != null)
+            this.sip = MDC.get("sip");
+        add(new Event("action",m.getStart(),m.getWallTime())
+            .with("phase",m.getPhase())
+            .with("name",m.getAction())
+            .with("status",(m.getException()!=null?"exception":String.valueOf(m.getStatus())))
+            .with("cpu",(m.getCPUTime()<0?null:millis(m.getCPUTime())))
+            .with("allocated",(m.getAllocatedBytes()<0?null:String.valueOf(m.getAllocatedBytes())))
+            .with("sema",millis(m.getSemaphoreWait())));
+    }
+
+    @Override
+    public void performed(ActionMeasurement m) {
+        action(m);
+    }
+
+    @Override
+    public void rolledBack(ActionMeasurement m) {
+        action(m);
+    }
+
+    @Override
+    public void finished(Flow flow) {
+        deactivate(this);
+        if (this.sip == null)
+            this.sip = MDC.get("sip");
+        try {
+            save(flow);
+        } catch (IOException | XMLStreamException e) {
+            logger.warn("couldn't save the timeline["+file+"]! "+e.getMessage());
+        }
+    }
+
+    static private String millis(long nanos) {
+        return String.valueOf(nanos / 1000000.0);
+    }
+
+    private void save(Flow flow) throws IOException, XMLStreamException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists())
+            FileUtils.forceMkdir(dir);
+        List<Event> list;
+        synchronized (events) {
+            list = new ArrayList<>(events);
+        }
+        Collections.sort(list,new Comparator<Event>() {
+            @Override
+            public int compare(Event e1,Event e2) {
+                return Long.compare(e1.start,e2.start);
+            }
+        });
+        long end = System.currentTimeMillis();
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            XMLStreamWriter w = XMLOutputFactory.newInstance().createXMLStreamWriter(out,"UTF-8");
+            w.writeStartDocument("UTF-8","1.0");
+            w.writeCharacters("\n");
+            w.writeStartElement("timeline");
+            w.writeAttribute("flow",flow.getCompiledFlow().getName());
+            if (sip != null)
+                w.writeAttribute("sip",sip);
+            w.writeAttribute("start",Instant.ofEpochMilli(start).toString());
+            w.writeAttribute("duration",String.valueOf(end - start));
+            w.writeAttribute("status",(flow.getContext().getException()!=null?"exception":String.valueOf(flow.getStatus())));
+            for (Event e:list) {
+                w.writeCharacters("\n  ");
+                w.writeEmptyElement(e.type);
+                // times are in milliseconds, relative to the start of the run
+                w.writeAttribute("at",String.valueOf(e.start - start));
+                if (e.duration >= 0)
+                    w.writeAttribute("duration",millis(e.duration));
+                for (int i=0;i<e.attrs.size();i+=2)
+                    w.writeAttribute(e.attrs.get(i),e.attrs.get(i+1));
+            }
+            w.writeCharacters("\n");
+            w.writeEndElement();
+            w.writeCharacters("\n");
+            w.writeEndDocument();
+            w.close();
+        }
+    }
+}
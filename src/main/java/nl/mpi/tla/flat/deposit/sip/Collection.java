@@ -17,7 +17,6 @@
 package nl.mpi.tla.flat.deposit.sip;
 
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.text.ParseException;
 import java.util.Date;
 import java.util.LinkedHashSet;
@@ -35,49 +34,48 @@ abstract public class Collection {
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(Collection.class.getName());
     
     protected URI uri = null;
-    protected URI pid = null;
-    protected URI fid = null;
+    protected PID pid = null;
+    protected FID fid = null;
     protected Set<Collection> collections = new LinkedHashSet();
     protected boolean dirty = false;
     
+    protected SIPIndex<Collection> index = null;
+    
     public URI getURI() {
         return this.uri;
     }
     
     // PID
-    public boolean hasPID() {
+    synchronized public boolean hasPID() {
         return (this.pid != null);
     }
     
-    public void setPID(URI pid) throws DepositException {
+    synchronized public void setPID(URI pid) throws DepositException {
+        PID prev = this.pid;
         if (this.pid!=null)
             logger.warn("Collection["+this.uri+"] has already a PID["+this.pid+"]! new PID["+pid+"]");
-        if (pid.toString().startsWith("hdl:")) {
-            this.pid = pid;
-        } else if (pid.toString().matches("http(s)?://hdl.handle.net/.*")) {
-            try {
-                this.pid = new URI(pid.toString().replace("http(s)?://hdl.handle.net/", "hdl:"));
-            } catch (URISyntaxException ex) {
-                throw new DepositException(ex);
-            }
-        } else {
-            throw new DepositException("The URI["+pid+"] isn't a valid PID!");
-        }
+        this.pid = PID.parse(pid);
+        if (this.index!=null)
+            this.index.updatePID(this,prev,this.pid);
         dirty();
     }
     
-    public URI getPID() throws DepositException {
+    synchronized public URI getPID() throws DepositException {
+        return this.getParsedPID().toURI();
+    }
+    
+    synchronized public PID getParsedPID() throws DepositException {
         if (this.pid==null)
-            throw new DepositException("Resource["+this.uri+"] has no PID yet!");
+            throw new DepositException("Collection["+this.uri+"] has no PID yet!");
         return this.pid;
     }
     
     // FID
-    public boolean hasFID() {
+    synchronized public boolean hasFID() {
         return (this.fid != null);
     }
     
-    public void setFID(URI fid) throws DepositException {
+    synchronized public void setFID(URI fid) throws DepositException {
         if (this.fid!=null) {
             if (this.getFID(true).toString().equals(fid.toString())) {
                 logger.warn("Collection["+this.uri+"] has already this Fedora Commons PID["+this.fid+"], retaining it!");
@@ -85,91 +83,77 @@ abstract public class Collection {
             }
             logger.warn("Collection["+this.uri+"] has already a Fedora Commons PID["+this.fid+"]! new Fedora Commons PID["+fid+"]");
         }
-        this.fid = fid;
+        FID prev = this.fid;
+        this.fid = FID.parse(fid);
+        if (this.index!=null)
+            this.index.updateFID(this,prev,this.fid);
         dirty();
     }
     
-    public void setFIDStream(String dsid) throws DepositException {
+    synchronized public void setFIDStream(String dsid) throws DepositException {
         if (this.fid==null)
             throw new DepositException("Collection["+this.uri+"] has no Fedora Commons PID yet!");
-        try {
-            String _fid = this.fid.toString().replaceAll("#.*","");
-            String _asof = this.fid.getRawFragment();
-            String _dsid = null;
-            if (_asof!=null && _asof.contains("@")) {
-                _dsid = _asof.replaceAll("@.*","");
-                _asof = _asof.replaceAll(".*@","");
-            }
-            if (_dsid!=null && !_dsid.equals(dsid))
-                logger.warn("FID["+this.fid+"] changing the DSID to ["+dsid+"]");
-            this.fid = new URI(_fid+"#"+dsid+(_asof!=null?"@"+_asof:""));
-        } catch (URISyntaxException ex) {
-           throw new DepositException(ex);
-        }
+        if (this.fid.hasAsOfDateTime() && !dsid.equals(this.fid.getDatastream()))
+            logger.warn("FID["+this.fid+"] changing the DSID to ["+dsid+"]");
+        this.fid = this.fid.withDatastream(dsid);
+        dirty();
     }
     
-    public void setFIDasOfTimeDate(Date date) throws DepositException {
+    synchronized public void setFIDasOfTimeDate(Date date) throws DepositException {
         if (this.fid==null)
             throw new DepositException("Collection["+this.uri+"] has no Fedora Commons PID yet!");
+        String _dsid = (this.fid.hasAsOfDateTime()?this.fid.getDatastream():"CMD");
+        String _asof = this.fid.getAsOfDateTime();
         try {
-            String _fid = this.fid.toString().replaceAll("#.*","");
-            String _asof = this.fid.getRawFragment();
-            String _dsid = null;
-            if (_asof!=null && _asof.contains("@")) {
-                _dsid = _asof.replaceAll("@.*","");
-                _asof = _asof.replaceAll(".*@","");
-            } else
-                _dsid = "CMD";
-            try {
-                if (_asof!=null) {
-                    if (Global.asOfDateTime(_asof).after(date)) {
-                        logger.warn("FID["+this.fid+"] keeping the later asOfDateTime, ignoring earlier ["+date+"]");
-                    } else {
-                        logger.debug("FID["+this.fid+"] changing the asOfDateTime to later ["+date+"]");
-                        _asof = Global.asOfDateTime(date);
-                    }
-                } else
+            if (_asof!=null) {
+                if (this.fid.getAsOfDate().after(date)) {
+                    logger.warn("FID["+this.fid+"] keeping the later asOfDateTime, ignoring earlier ["+date+"]");
+                } else {
+                    logger.debug("FID["+this.fid+"] changing the asOfDateTime to later ["+date+"]");
                     _asof = Global.asOfDateTime(date);
-            } catch (ParseException ex) {
-                logger.error("FID["+this.fid+"] invalid asOfDateTime["+_asof+"], changing to ["+date+"]");
-                        _asof = Global.asOfDateTime(date);
-            }
-            this.fid = new URI(_fid+"#"+_dsid+"@"+_asof);
-        } catch (URISyntaxException ex) {
-           throw new DepositException(ex);
+                }
+            } else
+                _asof = Global.asOfDateTime(date);
+        } catch (ParseException ex) {
+            logger.error("FID["+this.fid+"] invalid asOfDateTime["+_asof+"], changing to ["+date+"]");
+            _asof = Global.asOfDateTime(date);
         }
+        this.fid = this.fid.withAsOfDateTime(_dsid,_asof);
         dirty();
     }
     
-    public URI getFID(boolean clean) throws DepositException {
-        if (this.fid==null)
-            throw new DepositException("Collection["+this.uri+"] has no Fedora Commons PID yet!");
-        if (clean) {
-            try {
-                return new URI(this.fid.toString().replaceAll("#.*",""));
-            } catch (URISyntaxException ex) {
-               throw new DepositException(ex);
-            }
-        }
-        return this.fid;
+    synchronized public URI getFID(boolean clean) throws DepositException {
+        FID _fid = this.getParsedFID();
+        return (clean?_fid.getObject():_fid).toURI();
     }
     
-    public URI getFID() throws DepositException {
+    synchronized public URI getFID() throws DepositException {
         return this.getFID(false);
     }
     
+    synchronized public FID getParsedFID() throws DepositException {
+        if (this.fid==null)
+            throw new DepositException("Collection["+this.uri+"] has no Fedora Commons PID yet!");
+        return this.fid;
+    }
+    
     // parent collections
     
-    public boolean hasParentCollections() {
+    synchronized public boolean hasParentCollections() {
         return !this.collections.isEmpty();
     }
     
-    public void addParentCollection(Collection col) throws DepositException {
+    synchronized public void addParentCollection(Collection col) throws DepositException {
         this.collections.add(col);
+        // the index of the SIP covers all the ancestor collections
+        if (this.index!=null) {
+            col.index(this.index);
+            this.index.linked();
+        }
         dirty();
     }
     
-    public Set<Collection> getParentCollections(boolean deep) {
+    synchronized public Set<Collection> getParentCollections(boolean deep) {
         Set<Collection> colls =  new LinkedHashSet();
         colls.addAll(this.collections);
         if (deep) {
@@ -180,21 +164,45 @@ abstract public class Collection {
         return colls;
     }
            
-    public Set<Collection> getParentCollections() {
+    synchronized public Set<Collection> getParentCollections() {
         return getParentCollections(false);
     }
            
+    // index
+    
+    /**
+     * Add the collection, and its ancestors, to the index of its SIP, which
+     * is kept in sync when the PID or FID changes, and is told when the
+     * collection gets dirty.
+     */
+    synchronized public void index(SIPIndex<Collection> index) {
+        if (this.index==index)
+            return;
+        if (this.index!=null)
+            this.index.remove(this,this.pid,this.fid);
+        this.index = index;
+        if (this.index!=null) {
+            this.index.put(this,this.pid,this.fid);
+            if (this.dirty)
+                this.index.changed(this);
+        }
+        for (Collection col:this.collections)
+            col.index(index);
+    }
+    
     // dirty or not 
     
-    protected void dirty() {
+    synchronized protected void dirty() {
         this.dirty = true;
+        if (this.index!=null)
+            this.index.changed(this);
     }
     
-    public boolean isDirty() {
+    synchronized public boolean isDirty() {
         return this.dirty;
     }
     
-    protected void clean() {
+    synchronized protected void clean() {
         this.dirty = false;
     }
     
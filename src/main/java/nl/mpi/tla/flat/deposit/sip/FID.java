@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.sip;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.Date;
+import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.util.Global;
+
+/**
+ * A Fedora Commons PID, i.e., <namespace>:<id>#<dsid>@<asOfDateTime>, where
+ * the datastream and asOfDateTime are optional. A fragment without @ is taken
+ * to be the datastream.
+ */
+public final class FID {
+
+    private final String id;
+    private final String dsid;
+    private final String asof;
+    private final URI uri;
+    private FID object = null;
+
+    private FID(String id, String dsid, String asof, URI uri) {
+        this.id = id;
+        this.dsid = dsid;
+        this.asof = asof;
+        this.uri = uri;
+    }
+
+    private FID(String id, String dsid, String asof) throws DepositException {
+        this.id = id;
+        this.dsid = dsid;
+        this.asof = asof;
+        try {
+            this.uri = new URI(id+(dsid!=null?"#"+dsid+(asof!=null?"@"+asof:""):""));
+        } catch (URISyntaxException ex) {
+            throw new DepositException(ex);
+        }
+    }
+
+    static public FID parse(URI fid) {
+        String s = fid.toString();
+        int hash = s.indexOf('#');
+        if (hash<0)
+            return new FID(s,null,null,fid);
+        String frag = fid.getRawFragment();
+        int at = frag.indexOf('@');
+        if (at<0)
+            return new FID(s.substring(0,hash),frag,null,fid);
+        return new FID(s.substring(0,hash),frag.substring(0,at),frag.substring(frag.lastIndexOf('@')+1),fid);
+    }
+
+    /**
+     * The object id, i.e., <namespace>:<id>.
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    public String getNamespace() {
+        int colon = this.id.indexOf(':');
+        return (colon<0?null:this.id.substring(0,colon));
+    }
+
+    public boolean hasDatastream() {
+        return (this.dsid!=null);
+    }
+
+    public String getDatastream() {
+        return this.dsid;
+    }
+
+    public boolean hasAsOfDateTime() {
+        return (this.asof!=null);
+    }
+
+    public String getAsOfDateTime() {
+        return this.asof;
+    }
+
+    public Date getAsOfDate() throws ParseException {
+        if (this.asof==null)
+            return null;
+        return Global.asOfDateTime(this.asof);
+    }
+
+    /**
+     * The FID of the object, i.e., without datastream and asOfDateTime.
+     */
+    public FID getObject() {
+        if (this.dsid==null)
+            return this;
+        if (this.object==null)
+            this.object = new FID(this.id,null,null,URI.create(this.id));
+        return this.object;
+    }
+
+    public FID withDatastream(String dsid) throws DepositException {
+        return new FID(this.id,dsid,this.asof);
+    }
+
+    public FID withAsOfDateTime(String dsid, String asof) throws DepositException {
+        return new FID(this.id,dsid,asof);
+    }
+
+    /**
+     * The URL of the content of the datastream as of its asOfDateTime.
+     */
+    public String getContentLocation(String server) {
+        return server+"/objects/"+this.id+"/datastreams/"+this.dsid+"/content"+(this.asof!=null?"?asOfDateTime="+this.asof:"");
+    }
+
+    public URI toURI() {
+        return this.uri;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other==this)
+            return true;
+        if (!(other instanceof FID))
+            return false;
+        return this.uri.equals(((FID)other).uri);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.uri.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.uri.toString();
+    }
+}
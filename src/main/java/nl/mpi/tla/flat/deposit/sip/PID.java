@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.sip;
+
+import java.net.URI;
+import nl.mpi.tla.flat.deposit.DepositException;
+
+/**
+ * A handle PID, i.e., hdl:<prefix>/<suffix>, parsed once from either its
+ * hdl: or its http(s)://hdl.handle.net/ form.
+ */
+public final class PID {
+
+    static public final String HDL = "hdl:";
+    static public final String PROXY = "hdl.handle.net/";
+
+    private final String prefix;
+    private final String suffix;
+    private final URI uri;
+
+    private PID(String prefix, String suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.uri = URI.create(HDL+prefix+"/"+suffix);
+    }
+
+    /**
+     * Does the URI use one of the handle forms?
+     */
+    static public boolean isHandle(URI uri) {
+        String s = uri.toString();
+        return s.startsWith(HDL) || s.startsWith("http://"+PROXY) || s.startsWith("https://"+PROXY);
+    }
+
+    /**
+     * Parse the PID, returns null if it isn't a handle.
+     */
+    static public PID parseOrNull(URI pid) {
+        if (pid==null)
+            return null;
+        String s = pid.toString();
+        int start;
+        if (s.startsWith(HDL))
+            start = HDL.length();
+        else if (s.startsWith("http://"+PROXY))
+            start = 7+PROXY.length();
+        else if (s.startsWith("https://"+PROXY))
+            start = 8+PROXY.length();
+        else
+            return null;
+        int slash = s.indexOf('/',start);
+        if (slash<=start || slash==s.length()-1)
+            return null;
+        return new PID(s.substring(start,slash),s.substring(slash+1));
+    }
+
+    static public PID parse(URI pid) throws DepositException {
+        PID p = parseOrNull(pid);
+        if (p==null)
+            throw new DepositException("The URI["+pid+"] isn't a valid PID!");
+        return p;
+    }
+
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    public String getSuffix() {
+        return this.suffix;
+    }
+
+    /**
+     * The handle without the hdl: scheme, i.e., <prefix>/<suffix>.
+     */
+    public String getHandle() {
+        return this.prefix+"/"+this.suffix;
+    }
+
+    public URI toURI() {
+        return this.uri;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other==this)
+            return true;
+        if (!(other instanceof PID))
+            return false;
+        return this.uri.equals(((PID)other).uri);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.uri.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.uri.toString();
+    }
+}
@@ -18,7 +18,6 @@ package nl.mpi.tla.flat.deposit.sip;
 
 import java.io.File;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.text.ParseException;
 import java.util.Date;
@@ -37,85 +36,84 @@ abstract public class Resource {
     public enum Status { NOOP, INSERT, UPDATE, DELETE };
     
     protected URI uri = null;
-    protected URI pid = null;
-    protected URI fid = null;
+    protected PID pid = null;
+    protected FID fid = null;
     protected File file = null;
     protected String mime = null;
     
     protected boolean dirty = false;
     
+    protected SIPIndex<Resource> index = null;
+    
     protected Status status = Status.INSERT;
 
     public URI getURI() {
         return this.uri;
     }
     
-    public void setFile(File file) {
+    synchronized public void setFile(File file) {
         this.file = file;
         dirty();
     }
     
-    public boolean hasFile() {
+    synchronized public boolean hasFile() {
         return (this.file!=null);
     }
     
-    public File getFile() {
+    synchronized public File getFile() {
         return this.file;
     }
     
-    public Path getPath() {
+    synchronized public Path getPath() {
         return this.file.toPath();
     }
     
-    public void setMime(String mime) {
+    synchronized public void setMime(String mime) {
         this.mime = mime;
         dirty();
     }
     
-    public boolean hasMime() {
+    synchronized public boolean hasMime() {
         return (this.mime!=null);
     }
     
-    public String getMime() {
+    synchronized public String getMime() {
         if (hasMime())
             return this.mime;
         return "application/octet-stream";
     }
     
     // PID
-    public boolean hasPID() {
+    synchronized public boolean hasPID() {
         return (this.pid != null);
     }
     
-    public void setPID(URI pid) throws DepositException {
+    synchronized public void setPID(URI pid) throws DepositException {
+        PID prev = this.pid;
         if (this.pid!=null)
             logger.warn("Resource["+this.uri+"] has already a PID["+this.pid+"]! new PID["+pid+"]");
-        if (pid.toString().startsWith("hdl:")) {
-            this.pid = pid;
-        } else if (pid.toString().matches("http(s)?://hdl.handle.net/.*")) {
-            try {
-                this.pid = new URI(pid.toString().replace("http(s)?://hdl.handle.net/", "hdl:"));
-            } catch (URISyntaxException ex) {
-                throw new DepositException(ex);
-            }
-        } else {
-            throw new DepositException("The URI["+pid+"] isn't a valid PID!");
-        }
+        this.pid = PID.parse(pid);
+        if (this.index!=null)
+            this.index.updatePID(this,prev,this.pid);
         dirty();
     }
     
-    public URI getPID() throws DepositException {
+    synchronized public URI getPID() throws DepositException {
+        return this.getParsedPID().toURI();
+    }
+    
+    synchronized public PID getParsedPID() throws DepositException {
         if (this.pid==null)
             throw new DepositException("Resource["+this.uri+"] has no PID yet!");
         return this.pid;
     }
     
     // FID
-    public boolean hasFID() {
+    synchronized public boolean hasFID() {
         return (this.fid != null);
     }
     
-    public void setFID(URI fid) throws DepositException {
+    synchronized public void setFID(URI fid) throws DepositException {
         if (this.fid!=null) {
             if (this.getFID(true).toString().equals(fid.toString())) {
                 logger.warn("Resource["+this.uri+"] has already this Fedora Commons PID["+this.fid+"], retaining it!");
@@ -123,117 +121,119 @@ abstract public class Resource {
             }
             logger.warn("Resource["+this.uri+"] has already a Fedora Commons PID["+this.fid+"]! new Fedora Commons PID["+fid+"]");
         }
-        this.fid = fid;
+        FID prev = this.fid;
+        this.fid = FID.parse(fid);
+        if (this.index!=null)
+            this.index.updateFID(this,prev,this.fid);
         dirty();
     }
     
-    public void setFIDStream(String dsid) throws DepositException {
+    synchronized public void setFIDStream(String dsid) throws DepositException {
         if (this.fid==null)
             throw new DepositException("Resource["+this.uri+"] has no Fedora Commons PID yet!");
-        try {
-            String _fid = this.fid.toString().replaceAll("#.*","");
-            String _asof = this.fid.getRawFragment();
-            String _dsid = null;
-            if (_asof!=null && _asof.contains("@")) {
-                _dsid = _asof.replaceAll("@.*","");
-                _asof = _asof.replaceAll(".*@","");
-            }
-            if (_dsid!=null && !_dsid.equals(dsid))
-                logger.warn("FID["+this.fid+"] changing the DSID to ["+dsid+"]");
-            this.fid = new URI(_fid+"#"+dsid+(_asof!=null?"@"+_asof:""));
-        } catch (URISyntaxException ex) {
-           throw new DepositException(ex);
-        }
+        if (this.fid.hasAsOfDateTime() && !dsid.equals(this.fid.getDatastream()))
+            logger.warn("FID["+this.fid+"] changing the DSID to ["+dsid+"]");
+        this.fid = this.fid.withDatastream(dsid);
         dirty();
     }
     
-    public void setFIDasOfTimeDate(Date date) throws DepositException {
+    synchronized public void setFIDasOfTimeDate(Date date) throws DepositException {
         if (this.fid==null)
             throw new DepositException("Resource["+this.uri+"] has no Fedora Commons PID yet!");
+        String _dsid = (this.fid.hasAsOfDateTime()?this.fid.getDatastream():"OBJ");
+        String _asof = this.fid.getAsOfDateTime();
         try {
-            String _fid = this.fid.toString().replaceAll("#.*","");
-            String _asof = this.fid.getRawFragment();
-            String _dsid = null;
-            if (_asof!=null && _asof.contains("@")) {
-                _dsid = _asof.replaceAll("@.*","");
-                _asof = _asof.replaceAll(".*@","");
-            } else
-                _dsid = "OBJ";
-            try {
-                if (_asof!=null) {
-                    if (Global.asOfDateTime(_asof).after(date)) {
-                        logger.warn("FID["+this.fid+"] keeping the later asOfDateTime, ignoring earlier ["+date+"]");
-                    } else {
-                        logger.debug("FID["+this.fid+"] changing the asOfDateTime to later ["+date+"]");
-                        _asof = Global.asOfDateTime(date);
-                    }
-                } else
+            if (_asof!=null) {
+                if (this.fid.getAsOfDate().after(date)) {
+                    logger.warn("FID["+this.fid+"] keeping the later asOfDateTime, ignoring earlier ["+date+"]");
+                } else {
+                    logger.debug("FID["+this.fid+"] changing the asOfDateTime to later ["+date+"]");
                     _asof = Global.asOfDateTime(date);
-            } catch (ParseException ex) {
-                logger.error("FID["+this.fid+"] invalid asOfDateTime["+_asof+"], changing to ["+date+"]");
-                        _asof = Global.asOfDateTime(date);
-            }
-            this.fid = new URI(_fid+"#"+_dsid+"@"+_asof);
-        } catch (URISyntaxException ex) {
-           throw new DepositException(ex);
+                }
+            } else
+                _asof = Global.asOfDateTime(date);
+        } catch (ParseException ex) {
+            logger.error("FID["+this.fid+"] invalid asOfDateTime["+_asof+"], changing to ["+date+"]");
+            _asof = Global.asOfDateTime(date);
         }
+        this.fid = this.fid.withAsOfDateTime(_dsid,_asof);
         dirty();
     }
     
-    public URI getFID(boolean clean) throws DepositException {
+    synchronized public URI getFID(boolean clean) throws DepositException {
+        FID _fid = this.getParsedFID();
+        return (clean?_fid.getObject():_fid).toURI();
+    }
+    
+    synchronized public URI getFID() throws DepositException {
+        return this.getFID(false);
+    }
+    
+    synchronized public FID getParsedFID() throws DepositException {
         if (this.fid==null)
             throw new DepositException("Resource["+this.uri+"] has no Fedora Commons PID yet!");
-        if (clean) {
-            try {
-                return new URI(this.fid.toString().replaceAll("#.*",""));
-            } catch (URISyntaxException ex) {
-               throw new DepositException(ex);
-            }
-        }
         return this.fid;
     }
     
-    public URI getFID() throws DepositException {
-        return this.getFID(false);
+    // index
+    
+    /**
+     * Add the resource to the index of its SIP, which is kept in sync when
+     * the PID or FID changes, and is told when the resource gets dirty.
+     */
+    synchronized public void index(SIPIndex<Resource> index) {
+        if (this.index!=null)
+            this.index.remove(this,this.pid,this.fid);
+        this.index = index;
+        if (this.index!=null) {
+            this.index.put(this,this.pid,this.fid);
+            if (this.dirty)
+                this.index.changed(this);
+        }
     }
     
     // dirty or not 
     
-    protected void dirty() {
+    synchronized protected void dirty() {
         this.dirty = true;
+        if (this.index!=null)
+            this.index.changed(this);
     }
     
-    public boolean isDirty() {
+    synchronized public boolean isDirty() {
         return this.dirty;
     }
     
-    protected void clean() {
+    synchronized protected void clean() {
         this.dirty = false;
     }
     
     // status
     
-    public void setStatus(Status status) {
-        this.status = status;
+    synchronized public void setStatus(Status status) {
+        if (this.status!=status) {
+            this.status = status;
+            dirty();
+        }
     }
     
-    public Status getStatus() {
+    synchronized public Status getStatus() {
         return this.status;
     }
     
-    public boolean isInsert() {
+    synchronized public boolean isInsert() {
         return this.status == Status.INSERT;
     }
     
-    public boolean isUpdate() {
+    synchronized public boolean isUpdate() {
         return this.status == Status.UPDATE;
     }
     
-    public boolean isDelete() {
+    synchronized public boolean isDelete() {
         return this.status == Status.DELETE;
     }
     
-    public boolean isNoop() {
+    synchronized public boolean isNoop() {
         return this.status == Status.NOOP;
     }
     
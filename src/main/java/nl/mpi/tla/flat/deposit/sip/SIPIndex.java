@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.sip;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the resources or collections of a SIP by their normalized PID,
+ * i.e., hdl:<prefix>/<suffix>, and their FID without the datastream and
+ * asOfDateTime. The entries keep the index in sync when their PID or FID
+ * changes. When entries share a PID or FID the first one wins.
+ * <p>
+ * The entries also report here when they get dirty, so the SIP only has to
+ * save this change set instead of walking all its entries. Changes to the
+ * links between the entries bump the generation, so the SIP knows when to
+ * recompute what it derived from them.
+ * <p>
+ * All methods synchronize on the index, as the actions of a parallel main
+ * flow may update the entries concurrently.
+ */
+public class SIPIndex<T> {
+
+    private final Map<PID,T> pids = new HashMap<>();
+    private final Map<String,T> fids = new HashMap<>();
+    private final Set<T> changes = new LinkedHashSet<>();
+    private int generation = 0;
+
+    synchronized public void put(T entry,PID pid,FID fid) {
+        if (pid!=null)
+            pids.putIfAbsent(pid,entry);
+        if (fid!=null)
+            fids.putIfAbsent(fid.getId(),entry);
+    }
+
+    synchronized public void remove(T entry,PID pid,FID fid) {
+        if (pid!=null)
+            pids.remove(pid,entry);
+        if (fid!=null)
+            fids.remove(fid.getId(),entry);
+    }
+
+    /**
+     * The PID of the entry changed.
+     */
+    synchronized public void updatePID(T entry,PID prev,PID pid) {
+        if (prev!=null)
+            pids.remove(prev,entry);
+        if (pid!=null)
+            pids.putIfAbsent(pid,entry);
+    }
+
+    /**
+     * The FID of the entry changed.
+     */
+    synchronized public void updateFID(T entry,FID prev,FID fid) {
+        if (prev!=null)
+            fids.remove(prev.getId(),entry);
+        if (fid!=null)
+            fids.putIfAbsent(fid.getId(),entry);
+    }
+
+    synchronized public T getByPID(URI pid) {
+        PID key = PID.parseOrNull(pid);
+        return (key==null?null:pids.get(key));
+    }
+
+    synchronized public T getByFID(URI fid) {
+        return fids.get(FID.parse(fid).getId());
+    }
+
+    /**
+     * The entry got dirty.
+     */
+    synchronized public void changed(T entry) {
+        changes.add(entry);
+    }
+
+    synchronized public boolean hasChanges() {
+        return !changes.isEmpty();
+    }
+
+    /**
+     * Hand over the changed entries, in the order they got dirty, and start
+     * a new change set.
+     */
+    synchronized public List<T> takeChanges() {
+        List<T> taken = new ArrayList<>(changes);
+        changes.clear();
+        return taken;
+    }
+
+    /**
+     * The links between the entries changed.
+     */
+    synchronized public void linked() {
+        generation++;
+    }
+
+    synchronized public int getGeneration() {
+        return generation;
+    }
+
+    synchronized public void clear() {
+        pids.clear();
+        fids.clear();
+        changes.clear();
+        generation++;
+    }
+}
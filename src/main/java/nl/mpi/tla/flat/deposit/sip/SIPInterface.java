@@ -20,6 +20,7 @@ import java.io.File;
 import java.net.URI;
 import java.util.Date;
 import java.util.Set;
+import net.sf.saxon.s9api.XdmNode;
 import nl.mpi.tla.flat.deposit.DepositException;
 import org.w3c.dom.Document;
 
@@ -31,14 +32,31 @@ public interface SIPInterface {
     
     public File getBase();
     
+    /**
+     * The record as a live DOM, which isn't thread-safe.
+     *
+     * @deprecated the DOM is the editable state of the SIP, which should
+     * only be changed via the SIP, readers should use {@link #getRecordNode()}.
+     */
+    @Deprecated
     public Document getRecord();
     
+    /**
+     * The record as a native Saxon tree, for read-only use, e.g., XSLT or
+     * XPath. It reflects the last save of the SIP. The tree is a copy of the
+     * record, which the SIP keeps till the record is rewritten, i.e., the
+     * next save with changes, so the actions in between share it.
+     */
+    public XdmNode getRecordNode() throws DepositException;
+    
     // PID
     public boolean hasPID();
     
     public void setPID(URI pid) throws DepositException;
     
     public URI getPID() throws DepositException;
+    
+    public PID getParsedPID() throws DepositException;
        
     // FID
     public boolean hasFID();
@@ -53,6 +71,8 @@ public interface SIPInterface {
        
     public URI getFID() throws DepositException;
        
+    public FID getParsedFID() throws DepositException;
+       
     // resources
     
     public Set<Resource> getResources();
@@ -67,6 +87,11 @@ public interface SIPInterface {
     
     public Set<Collection> getCollections();
     
+    /**
+     * The collections the SIP is part of, when deep also their ancestors.
+     * The deep set is read-only, and may be shared until the collection
+     * hierarchy changes.
+     */
     public Set<Collection> getCollections(boolean deep);
     
     public Collection getCollection(URI pid) throws DepositException;
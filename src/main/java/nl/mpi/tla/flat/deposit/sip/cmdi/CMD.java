@@ -17,17 +17,29 @@
 package nl.mpi.tla.flat.deposit.sip.cmdi;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.xml.transform.dom.DOMSource;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.XdmItem;
@@ -35,17 +47,23 @@ import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.s9api.XdmValue;
 import nl.mpi.tla.flat.deposit.DepositException;
 import nl.mpi.tla.flat.deposit.sip.Collection;
+import nl.mpi.tla.flat.deposit.sip.FID;
+import nl.mpi.tla.flat.deposit.sip.PID;
 import nl.mpi.tla.flat.deposit.sip.Resource;
+import nl.mpi.tla.flat.deposit.sip.SIPIndex;
 import nl.mpi.tla.flat.deposit.sip.SIPInterface;
 import nl.mpi.tla.flat.deposit.util.Global;
 import static nl.mpi.tla.flat.deposit.util.Global.NAMESPACES;
 import nl.mpi.tla.flat.deposit.util.Saxon;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.slf4j.Marker;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -60,20 +78,43 @@ public class CMD implements SIPInterface {
     
     public static String CMD_NS = "http://www.clarin.eu/cmd/";
     public static String LAT_NS = "http://lat.mpi.nl/";
+    
+    // system property for the number of threads checking the local files of the resources
+    static public final String PROBES = "nl.mpi.tla.flat.deposit.sip.probes";
+
+    // the bounded pool shared by all SIPs checking their files, so concurrent loads don't spawn a pool each
+    static private ExecutorService probePool = null;
 
+    // the actions of a parallel main flow share the SIP, so its state, including the DOM, is guarded by this,
+    // the resources and collections guard their own state, and the locks are taken in the order SIP, entry, index
     protected Node self = null;
     protected File base = null;
-    protected URI pid = null;
-    protected URI fid = null;
+    protected PID pid = null;
+    protected FID fid = null;
 
     protected Document rec = null;
     
+    // native snapshot of the record, which is only dropped when the DOM is rewritten, guarded by this
+    protected XdmNode snapshot = null;
+    
     protected Set<Resource> resources = new LinkedHashSet();
     protected Set<Collection> collections = new LinkedHashSet();
     
+    // lookup by PID or FID
+    protected SIPIndex<Resource> resourceIndex = new SIPIndex<>();
+    protected SIPIndex<Collection> collectionIndex = new SIPIndex<>();
+    
+    // transitive closure of the collections, valid for one generation of the collection index, guarded by this
+    protected Set<Collection> closure = null;
+    protected int closureGeneration = -1;
+    
     protected Map<String,String> namespaces = new LinkedHashMap<>();
     
     protected boolean dirty = false;
+    protected boolean saved = false;
+    
+    // number of timestamped backups of the record to keep, negative is all
+    protected int backups = -1;
     
     protected boolean update = false;
     
@@ -85,8 +126,6 @@ public class CMD implements SIPInterface {
         this.namespace = namespace;
         this.fedoraNamespaces = namespaces;
         load(spec);
-        loadResources();
-        loadCollections();
     }
     
     @Override
@@ -95,36 +134,48 @@ public class CMD implements SIPInterface {
     }
     
     @Override
+    @Deprecated
     public Document getRecord() {
         return this.rec;
     }
     
+    @Override
+    synchronized public XdmNode getRecordNode() throws DepositException {
+        if (this.snapshot==null) {
+            try {
+                this.snapshot = Saxon.buildDocument(new DOMSource(this.rec,this.base.toURI().toString()));
+            } catch (SaxonApiException e) {
+                throw new DepositException(e);
+            }
+        }
+        return this.snapshot;
+    }
+    
+    synchronized protected void changed() {
+        this.snapshot = null;
+    }
+    
     // PID
     @Override
-    public boolean hasPID() {
+    synchronized public boolean hasPID() {
         return (this.pid != null);
     }
     
     @Override
-    public void setPID(URI pid) throws DepositException {
+    synchronized public void setPID(URI pid) throws DepositException {
         if (this.pid!=null)
             logger.warn("SIP["+this.base+"] has already a PID["+this.pid+"]! new PID["+pid+"]");
-        if (pid.toString().startsWith("hdl:")) {
-            this.pid = pid;
-        } else if (pid.toString().matches("http(s)?://hdl.handle.net/.*")) {
-            try {
-                this.pid = new URI(pid.toString().replace("http(s)?://hdl.handle.net/", "hdl:"));
-            } catch (URISyntaxException ex) {
-                throw new DepositException(ex);
-            }
-        } else {
-            throw new DepositException("The URI["+pid+"] isn't a valid PID!");
-        }
+        this.pid = PID.parse(pid);
         dirty();
     }
     
     @Override
-    public URI getPID() throws DepositException {
+    synchronized public URI getPID() throws DepositException {
+        return this.getParsedPID().toURI();
+    }
+    
+    @Override
+    synchronized public PID getParsedPID() throws DepositException {
         if (this.pid==null)
             throw new DepositException("SIP["+this.base+"] has no PID yet!");
         return this.pid;
@@ -132,12 +183,12 @@ public class CMD implements SIPInterface {
        
     // FID
     @Override
-    public boolean hasFID() {
+    synchronized public boolean hasFID() {
         return (this.fid != null);
     }
     
     @Override
-    public void setFID(URI fid) throws DepositException {
+    synchronized public void setFID(URI fid) throws DepositException {
         if (this.fid!=null) {
             if (this.getFID(true).toString().equals(fid.toString())) {
                 logger.warn("SIP["+this.base+"] has already this Fedora Commons PID["+this.fid+"], retaining it!");
@@ -146,7 +197,7 @@ public class CMD implements SIPInterface {
             logger.warn("SIP["+this.base+"] has already a Fedora Commons PID["+this.fid+"]! new Fedora Commons PID["+fid+"]");
         }
         if (fid.toString().startsWith(namespace+":")) {
-            this.fid = fid;
+            this.fid = FID.parse(fid);
         } else {
             for(XdmItem ns:fedoraNamespaces) {
                 if (fid.toString().startsWith(ns.getStringValue()+":")) {
@@ -159,184 +210,203 @@ public class CMD implements SIPInterface {
     }
     
     @Override
-    public void setFIDStream(String dsid) throws DepositException {
+    synchronized public void setFIDStream(String dsid) throws DepositException {
         if (this.fid==null)
             throw new DepositException("SIP["+this.base+"] has no Fedora Commons PID yet!");
-        try {
-            String _fid = this.fid.toString().replaceAll("#.*","");
-            String _asof = this.fid.getRawFragment();
-            String _dsid = null;
-            if (_asof!=null && _asof.contains("@")) {
-                _dsid = _asof.replaceAll("@.*","");
-                _asof = _asof.replaceAll(".*@","");
-            }
-            if (_dsid!=null && !_dsid.equals(dsid))
-                logger.warn("FID["+this.fid+"] changing the DSID to ["+dsid+"]");
-            this.fid = new URI(_fid+"#"+dsid+(_asof!=null?"@"+_asof:""));
-        } catch (URISyntaxException ex) {
-           throw new DepositException(ex);
-        }
+        if (this.fid.hasAsOfDateTime() && !dsid.equals(this.fid.getDatastream()))
+            logger.warn("FID["+this.fid+"] changing the DSID to ["+dsid+"]");
+        this.fid = this.fid.withDatastream(dsid);
         dirty();
     }
     
     @Override
-    public void setFIDasOfTimeDate(Date date) throws DepositException {
+    synchronized public void setFIDasOfTimeDate(Date date) throws DepositException {
         if (this.fid==null)
             throw new DepositException("SIP["+this.base+"] has no Fedora Commons PID yet!");
+        String _dsid = (this.fid.hasAsOfDateTime()?this.fid.getDatastream():"CMD");
+        String _asof = this.fid.getAsOfDateTime();
         try {
-            String _fid = this.fid.toString().replaceAll("#.*","");
-            String _asof = this.fid.getRawFragment();
-            String _dsid = null;
-            if (_asof!=null && _asof.contains("@")) {
-                _dsid = _asof.replaceAll("@.*","");
-                _asof = _asof.replaceAll(".*@","");
-            } else
-                _dsid = "CMD";
-            try {
-                if (_asof!=null) {
-                    if (Global.asOfDateTime(_asof).after(date)) {
-                        logger.warn("FID["+this.fid+"] keeping the later asOfDateTime, ignoring earlier ["+date+"]");
-                    } else {
-                        logger.debug("FID["+this.fid+"] changing the asOfDateTime to later ["+date+"]");
-                        _asof = Global.asOfDateTime(date);
-                    }
-                } else
+            if (_asof!=null) {
+                if (this.fid.getAsOfDate().after(date)) {
+                    logger.warn("FID["+this.fid+"] keeping the later asOfDateTime, ignoring earlier ["+date+"]");
+                } else {
+                    logger.debug("FID["+this.fid+"] changing the asOfDateTime to later ["+date+"]");
                     _asof = Global.asOfDateTime(date);
-            } catch (ParseException ex) {
-                logger.error("FID["+this.fid+"] invalid asOfDateTime["+_asof+"], changing to ["+date+"]");
-                        _asof = Global.asOfDateTime(date);
-            }
-            this.fid = new URI(_fid+"#"+_dsid+"@"+_asof);
-        } catch (URISyntaxException ex) {
-           throw new DepositException(ex);
+                }
+            } else
+                _asof = Global.asOfDateTime(date);
+        } catch (ParseException ex) {
+            logger.error("FID["+this.fid+"] invalid asOfDateTime["+_asof+"], changing to ["+date+"]");
+            _asof = Global.asOfDateTime(date);
         }
+        this.fid = this.fid.withAsOfDateTime(_dsid,_asof);
         dirty();
     }
     
     @Override
-    public URI getFID(boolean clean) throws DepositException {
-        if (this.fid==null)
-            throw new DepositException("SIP["+this.base+"] has no FID yet!");
-        if (clean) {
-            try {
-                return new URI(this.fid.toString().replaceAll("#.*",""));
-            } catch (URISyntaxException ex) {
-               throw new DepositException(ex);
-            }
-        }
-        return this.fid;
+    synchronized public URI getFID(boolean clean) throws DepositException {
+        FID _fid = this.getParsedFID();
+        return (clean?_fid.getObject():_fid).toURI();
     }
     
     @Override
-    public URI getFID() throws DepositException {
+    synchronized public URI getFID() throws DepositException {
         return this.getFID(false);
     }
     
+    @Override
+    synchronized public FID getParsedFID() throws DepositException {
+        if (this.fid==null)
+            throw new DepositException("SIP["+this.base+"] has no FID yet!");
+        return this.fid;
+    }
 
-       
     // resources
     
-    private void loadResources() throws DepositException {
+    private CMDResource loadResource(Element proxy) throws DepositException {
+        CMDResource res = new CMDResource(base.toURI(),proxy,namespace,fedoraNamespaces,false);
+        Element ref = element(proxy,CMD_NS,"ResourceRef");
+        if (resources.contains(res)) {
+            logger.warn("double ResourceProxy["+(ref!=null?ref.getTextContent():"")+"]["+res.getURI()+"]["+(res.hasFID()?res.getFID():"")+"]!");
+            return null;
+        }
+        resources.add(res);
+        res.index(resourceIndex);
+        if (logger.isDebugEnabled())
+            logger.debug("ResourceProxy["+(ref!=null?ref.getTextContent():"")+"]["+res.getURI()+"]["+(res.hasFID()?res.getFID():"")+"]");
+        return res;
+    }
+    
+    // the threads are daemons, and end when idle
+    static synchronized private ExecutorService getProbePool() {
+        if (probePool==null) {
+            int threads = Math.max(1,Integer.getInteger(PROBES,8));
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads,threads,60L,TimeUnit.SECONDS,new LinkedBlockingQueue<Runnable>(),r -> {
+                Thread t = new Thread(r,"sip-probe");
+                t.setDaemon(true);
+                return t;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            probePool = pool;
+        }
+        return probePool;
+    }
+
+    // the DOM isn't safe for concurrent reads, so only the file checks run in the pool,
+    // the files are set afterwards in document order
+    private void probeFiles(List<CMDResource> todo) throws DepositException {
+        if (todo.size()<=1 || Integer.getInteger(PROBES,8)<=1) {
+            for (CMDResource res:todo)
+                res.probeFile();
+            return;
+        }
+        // pass on the log context of the SIP
+        final Map<String,String> mdc = MDC.getCopyOfContextMap();
+        ExecutorService pool = getProbePool();
+        List<Future<File>> probes = new ArrayList<>(todo.size());
         try {
-            for (XdmItem resource:Saxon.xpath(Saxon.wrapNode(this.rec),"/cmd:CMD/cmd:Resources/cmd:ResourceProxyList/cmd:ResourceProxy[cmd:ResourceType='Resource']",null,NAMESPACES)) {
-                Node resNode = Saxon.unwrapNode((XdmNode)resource);
-                Resource res = new CMDResource(base.toURI(),resNode,namespace,fedoraNamespaces);
-                if (resources.contains(res)) {
-                    logger.warn("double ResourceProxy["+Saxon.xpath2string(resource,"cmd:ResourceRef",null,NAMESPACES)+"]["+res.getURI()+"]["+(res.hasFID()?res.getFID():"")+"]!");
-                } else {
-                    resources.add(res);
-                    logger.debug("ResourceProxy["+Saxon.xpath2string(resource,"cmd:ResourceRef",null,NAMESPACES)+"]["+res.getURI()+"]["+(res.hasFID()?res.getFID():"")+"]");
-                }
+            for (CMDResource res:todo) {
+                probes.add(pool.submit(() -> {
+                    if (mdc!=null)
+                        MDC.setContextMap(mdc);
+                    try {
+                        return res.probe();
+                    } finally {
+                        MDC.clear();
+                    }
+                }));
             }
-        } catch(Exception e) {
+            for (int i=0;i<todo.size();i++) {
+                File file = probes.get(i).get();
+                if (file!=null)
+                    todo.get(i).setFile(file);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new DepositException(e);
+        } catch (ExecutionException e) {
+            throw new DepositException(e.getCause());
+        } finally {
+            // don't leave the probes of a failed load in the shared pool
+            for (Future<File> probe:probes)
+                probe.cancel(true);
         }
     }
     
     @Override
-    public Set<Resource> getResources() {
+    synchronized public Set<Resource> getResources() {
         return this.resources;
     }
     
     @Override
     public Resource getResource(URI pid) throws DepositException {
-        for (Resource res:getResources()) {
-            if (pid.toString().matches("^(hdl:|http(s)?://hdl.handle.net/).*")) {
-                if (res.getPID().toString().replaceAll("^(hdl:|http(s)?://hdl.handle.net/)","").equals(pid.toString().replaceAll("^(hdl:|http(s)?://hdl.handle.net/)","")))
-                    return res;
-            } else if (res.getPID().equals(pid)) {
-                return res;
-            }
-        }
-        throw new DepositException("SIP["+this.base+"] has no Resource with this PID["+pid+"]!");
+        Resource res = resourceIndex.getByPID(pid);
+        if (res==null)
+            throw new DepositException("SIP["+this.base+"] has no Resource with this PID["+pid+"]!");
+        return res;
     }
     
     @Override
     public Resource getResourceByFID(URI fid) throws DepositException {
-        for (Resource res:getResources()) {
-            if (res.getFID().toString().startsWith(fid.toString())) {
-                return res;
-            }
-        }
-        return null;
+        Resource res = resourceIndex.getByFID(fid);
+        // a FID with a datastream and/or asOfDateTime should match those as well
+        if (res!=null && fid.getRawFragment()!=null && !res.getFID().toString().startsWith(fid.toString()))
+            return null;
+        return res;
     }
         
-    public void saveResources() throws DepositException {
+    synchronized public void saveResources() throws DepositException {
+        resourceIndex.takeChanges();
         for (Resource res:getResources())
             res.save(this);
+        changed();
     }
     
     // Collections
     
-    private void loadCollections() throws DepositException {
-        try {
-            for (XdmItem collection:Saxon.xpath(Saxon.wrapNode(this.rec),"/cmd:CMD/cmd:Resources/cmd:IsPartOfList/cmd:IsPartOf",null,NAMESPACES)) {
-                Node colNode = Saxon.unwrapNode((XdmNode)collection);
-                Collection col = new CMDCollection(base.toURI(), colNode, namespace, fedoraNamespaces);
-                if (!col.hasPID() && !col.hasFID()) {
-                    URI uri = col.getURI();
-                    if (uri==null) {
-                        logger.debug("Skipped empty IsPartOf!");
-                    } else if (uri.toString().equals("islandora:compound_collection")) {
-                        logger.debug("Skipped islandora:compound_collection IsPartOf! Should be resurrected by default!");
-                    } else if (uri.toString().startsWith("islandora:")) {
-                        logger.warn("Relationship with collection["+uri+"] might not survive!");
-                    } else {
-                        logger.warn("Skipped unrecognized IsPartOf["+uri+"]!");
-                    }
-                } else if (collections.contains(col)) {
-                    logger.warn("double IsPartOf["+collection.getStringValue()+"]["+col.getURI()+"]["+(col.hasFID()?col.getFID():"")+"]!");
-                } else {
-                    collections.add(col);
-                    logger.debug("IsPartOf["+collection.getStringValue()+"]["+col.getURI()+"]["+(col.hasFID()?col.getFID():"")+"]");
-                }
+    private void loadCollection(Element partOf) throws DepositException {
+        Collection col = new CMDCollection(base.toURI(), partOf, namespace, fedoraNamespaces);
+        if (!col.hasPID() && !col.hasFID()) {
+            URI uri = col.getURI();
+            if (uri==null) {
+                logger.debug("Skipped empty IsPartOf!");
+            } else if (uri.toString().equals("islandora:compound_collection")) {
+                logger.debug("Skipped islandora:compound_collection IsPartOf! Should be resurrected by default!");
+            } else if (uri.toString().startsWith("islandora:")) {
+                logger.warn("Relationship with collection["+uri+"] might not survive!");
+            } else {
+                logger.warn("Skipped unrecognized IsPartOf["+uri+"]!");
             }
-        } catch(SaxonApiException e) {
-            throw new DepositException(e);
+        } else if (collections.contains(col)) {
+            logger.warn("double IsPartOf["+partOf.getTextContent()+"]["+col.getURI()+"]["+(col.hasFID()?col.getFID():"")+"]!");
+        } else {
+            collections.add(col);
+            col.index(collectionIndex);
+            collectionIndex.linked();
+            logger.debug("IsPartOf["+partOf.getTextContent()+"]["+col.getURI()+"]["+(col.hasFID()?col.getFID():"")+"]");
         }
     }
     
     @Override
-    public boolean hasCollections() {
+    synchronized public boolean hasCollections() {
         return !this.collections.isEmpty();
     }
     
-    public void addCollection(CMDCollection col) throws DepositException {
+    synchronized public void addCollection(CMDCollection col) throws DepositException {
         if (this.collections.contains(col)) {
             logger.warn("double Collection["+col.getURI()+"]["+(col.hasFID()?col.getFID():"")+"]!");
         } else {
             this.collections.add(col);
+            col.index(collectionIndex);
+            collectionIndex.linked();
             if (!col.hasNode()) {
                 try {
-                    Element list = null;
-                    XdmItem _list = Saxon.xpathSingle(Saxon.wrapNode(this.rec),"/cmd:CMD/cmd:Resources/cmd:IsPartOfList",null,NAMESPACES);
-                    if (_list==null) {
+                    Element resources = element(rec.getDocumentElement(),CMD_NS,"Resources");
+                    Element list = element(resources,CMD_NS,"IsPartOfList");
+                    if (list==null) {
                         // create IsPartOfList
                         list = rec.createElementNS(CMD_NS, "IsPartOfList");
-                        Element resources = (Element)Saxon.unwrapNode((XdmNode)Saxon.xpath(Saxon.wrapNode(this.rec), "/cmd:CMD/cmd:Resources", null, NAMESPACES));
                         resources.appendChild(list);
-                    } else {
-                        list = (Element)Saxon.unwrapNode((XdmNode)_list);
                     }
                     // create IsPartOf
                     Element partOf = rec.createElementNS(CMD_NS, "IsPartOf");
@@ -344,6 +414,7 @@ public class CMD implements SIPInterface {
                     // populate
                     col.setNode(partOf);
                     col.save(this);
+                    changed();
                     dirty();
                 } catch(Exception e) {
                     throw new DepositException(e);
@@ -355,111 +426,197 @@ public class CMD implements SIPInterface {
     }
 
     @Override
-    public Set<Collection> getCollections(boolean deep) {
-        Set<Collection> colls =  new LinkedHashSet();
-        colls.addAll(this.collections);
+    synchronized public Set<Collection> getCollections(boolean deep) {
         if (deep) {
-            for (Collection col:this.collections) {
-                colls.addAll(col.getParentCollections(deep));
+            int generation = collectionIndex.getGeneration();
+            if (this.closure==null || this.closureGeneration!=generation) {
+                // a new set, as callers may still be iterating over the previous one
+                Set<Collection> colls =  new LinkedHashSet();
+                colls.addAll(this.collections);
+                for (Collection col:this.collections) {
+                    colls.addAll(col.getParentCollections(deep));
+                }
+                this.closure = java.util.Collections.unmodifiableSet(colls);
+                this.closureGeneration = generation;
             }
+            return this.closure;
         }
+        Set<Collection> colls =  new LinkedHashSet();
+        colls.addAll(this.collections);
         return colls;
     }
     
     @Override
-    public Set<Collection> getCollections() {
+    synchronized public Set<Collection> getCollections() {
         return getCollections(true);
     }
 
     @Override
     public Collection getCollection(URI pid) throws DepositException {
-        for (Collection col:getCollections()) {
-            if (pid.toString().matches("^(hdl:|http(s)?://hdl.handle.net/).*")) {
-                if (col.getPID().toString().replaceAll("^(hdl:|http(s)?://hdl.handle.net/)","").equals(pid.toString().replaceAll("^(hdl:|http(s)?://hdl.handle.net/)","")))
-                    return col;
-            } else if (col.getPID().equals(pid)) {
-                return col;
-            }
-        }
-        throw new DepositException("SIP["+this.base+"] has no Resource with this PID["+pid+"]!");
+        Collection col = collectionIndex.getByPID(pid);
+        if (col==null)
+            throw new DepositException("SIP["+this.base+"] has no Resource with this PID["+pid+"]!");
+        return col;
     }
        
     @Override
     public Collection getCollectionByFID(URI fid) throws DepositException {
-        for (Collection col:getCollections()) {
-            if (col.getFID().toString().startsWith(fid.toString())) {
-                return col;
-            }
-        }
-        return null;
+        Collection col = collectionIndex.getByFID(fid);
+        // a FID with a datastream and/or asOfDateTime should match those as well
+        if (col!=null && fid.getRawFragment()!=null && !col.getFID().toString().startsWith(fid.toString()))
+            return null;
+        return col;
     }
         
-    public void saveCollections() throws DepositException {
+    synchronized public void saveCollections() throws DepositException {
+        collectionIndex.takeChanges();
         for (Collection col:getCollections())
             col.save(this);
+        changed();
+    }
+    
+    // only save the resources and collections that got dirty since the last save,
+    // which is only done by save(), so the snapshot has been dropped already
+    private void saveChanges() throws DepositException {
+        for (Resource res:resourceIndex.takeChanges())
+            res.save(this);
+        for (Collection col:collectionIndex.takeChanges())
+            col.save(this);
     }
     
     // Dirty or clean?
     
-    protected void dirty() {
+    synchronized protected void dirty() {
         this.dirty = true;
     }
     
-    public boolean isDirty() {
-        if (!this.dirty) {
-            // dirty resources?
-            for (Resource res:getResources()) {
-                if (res.isDirty()) {
-                    this.dirty = true;
-                    break;
-                }
-            }
-        }
-        if (!this.dirty) {
-            // dirty collections?
-            for (Collection col:getCollections()) {
-                if (col.isDirty()) {
-                    this.dirty = true;
-                    break;
-                }
-            }
-        }
-        return this.dirty;
+    synchronized public boolean isDirty() {
+        // the resources and collections report to the change sets of the indices
+        return this.dirty || resourceIndex.hasChanges() || collectionIndex.hasChanges();
     }
     
-    protected void clean() {
+    synchronized protected void clean() {
         this.dirty = false;
     }
     
     // update
 
-    public void update() {
+    synchronized public void update() {
         this.update = true;
     }
     
-    public boolean isUpdate() {
+    synchronized public boolean isUpdate() {
         return this.update;
     }
     
-    public boolean isInsert() {
+    synchronized public boolean isInsert() {
         return !this.update;
     }
     
+    // DOM
+    
+    // the record is parsed without namespace awareness, so the prefixes are
+    // resolved against the in-scope namespace declarations
+    
+    static String namespaceURI(Node node,String qname) {
+        int colon = qname.indexOf(':');
+        String decl = (colon<0?"xmlns":"xmlns:"+qname.substring(0,colon));
+        for (Node n=node;n!=null && n.getNodeType()==Node.ELEMENT_NODE;n=n.getParentNode()) {
+            Element e = (Element)n;
+            if (e.hasAttribute(decl))
+                return e.getAttribute(decl);
+        }
+        return null;
+    }
+    
+    static boolean isElement(Node node,String ns,String name) {
+        if (node==null || node.getNodeType()!=Node.ELEMENT_NODE)
+            return false;
+        String qname = node.getNodeName();
+        String local = qname.substring(qname.indexOf(':')+1);
+        if (name!=null && !name.equals(local))
+            return false;
+        String uri = node.getNamespaceURI();
+        if (uri==null)
+            uri = namespaceURI(node,qname);
+        return ns.equals(uri);
+    }
+    
+    static List<Element> elements(Node parent,String ns,String name) {
+        List<Element> elems = new ArrayList<>();
+        for (Node n=parent.getFirstChild();n!=null;n=n.getNextSibling()) {
+            if (isElement(n,ns,name))
+                elems.add((Element)n);
+        }
+        return elems;
+    }
+    
+    static Element element(Node parent,String ns,String name) {
+        for (Node n=parent.getFirstChild();n!=null;n=n.getNextSibling()) {
+            if (isElement(n,ns,name))
+                return (Element)n;
+        }
+        return null;
+    }
+    
+    static String attribute(Element elem,String ns,String name) {
+        NamedNodeMap attrs = elem.getAttributes();
+        for (int i=0;i<attrs.getLength();i++) {
+            Node attr = attrs.item(i);
+            String qname = attr.getNodeName();
+            int colon = qname.indexOf(':');
+            if (colon<0 || !name.equals(qname.substring(colon+1)))
+                continue;
+            String uri = attr.getNamespaceURI();
+            if (uri==null)
+                uri = namespaceURI(elem,qname);
+            if (ns.equals(uri))
+                return attr.getNodeValue();
+        }
+        return null;
+    }
+    
     // IO
     
     @Override
-    public void load(File spec) throws DepositException {
+    synchronized public void load(File spec) throws DepositException {
         try {
             this.rec = Saxon.buildDOM(spec);
+            changed();
 
-            Element cmd = (Element)Saxon.unwrapNode((XdmNode)Saxon.xpath(Saxon.wrapNode(this.rec), "/cmd:CMD", null, NAMESPACES));
+            Element cmd = this.rec.getDocumentElement();
+            if (!isElement(cmd,CMD_NS,"CMD"))
+                throw new DepositException("SIP["+spec+"] isn't a CMD record!");
             cmd.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:lat", LAT_NS);
             
+            // one pass over the header and the resources, the components are skipped
+            Element self = null;
+            List<Element> proxies = new ArrayList<>();
+            List<Element> partOfs = new ArrayList<>();
+            for (Element section:elements(cmd,CMD_NS,null)) {
+                if (isElement(section,CMD_NS,"Header")) {
+                    if (self==null)
+                        self = element(section,CMD_NS,"MdSelfLink");
+                } else if (isElement(section,CMD_NS,"Resources")) {
+                    for (Element list:elements(section,CMD_NS,null)) {
+                        if (isElement(list,CMD_NS,"ResourceProxyList")) {
+                            for (Element proxy:elements(list,CMD_NS,"ResourceProxy")) {
+                                Element type = element(proxy,CMD_NS,"ResourceType");
+                                if (type!=null && type.getTextContent().equals("Resource"))
+                                    proxies.add(proxy);
+                            }
+                        } else if (isElement(list,CMD_NS,"IsPartOfList")) {
+                            partOfs.addAll(elements(list,CMD_NS,"IsPartOf"));
+                        }
+                    }
+                }
+            }
+            
             // MdSelfLink value
-            String str = Saxon.xpath2string(Saxon.wrapNode(this.rec),"/cmd:CMD/cmd:Header/cmd:MdSelfLink",null,NAMESPACES);
+            String str = (self!=null?self.getTextContent():null);
             if (str!=null && !str.trim().isEmpty()) {
                 URI u = spec.toURI().resolve(new URI(null,null,str,null,null));
-                logger.debug("MdSelfLink["+str+"]["+u+"]["+u.toString().matches("(http(s)?://hdl.handle.net/|hdl:).*")+"]");
+                logger.debug("MdSelfLink["+str+"]["+u+"]["+PID.isHandle(u)+"]");
                 boolean m = false;
                 for(XdmItem ns:fedoraNamespaces) {
                     if (u.toString().startsWith(ns.getStringValue()+":")) {
@@ -468,7 +625,7 @@ public class CMD implements SIPInterface {
                     }
                 }
                 if (!m) {
-                    if (u.toString().matches("(http(s)?://hdl.handle.net/|hdl:).*"))
+                    if (PID.isHandle(u))
                         this.setPID(u);
                     else
                         logger.warn("skipping unrecognized MdSelflink["+str+"]");
@@ -478,7 +635,7 @@ public class CMD implements SIPInterface {
             logger.debug("MdSelfLink["+str+"] PID["+(hasPID()?getPID():"NONE")+"] FID["+(hasFID()?getFID():"NONE")+"]");
                 
             // MdSelfLink @lat:flatURI
-            str = Saxon.xpath2string(Saxon.wrapNode(this.rec),"/cmd:CMD/cmd:Header/cmd:MdSelfLink/@lat:flatURI",null,NAMESPACES);
+            str = (self!=null?attribute(self,LAT_NS,"flatURI"):null);
             if (str!=null && !str.trim().isEmpty()) {
                 URI u = spec.toURI().resolve(str);
                 boolean m = false;
@@ -489,7 +646,7 @@ public class CMD implements SIPInterface {
                     }
                 }
                 if (!m) {
-                    if (u.toString().matches("(http(s)?://hdl.handle.net/|hdl:).*"))
+                    if (PID.isHandle(u))
                         this.setPID(u);
                     else
                         logger.warn("skipping unrecognized MdSelflink/@lat:flatURI["+str+"]");
@@ -498,7 +655,7 @@ public class CMD implements SIPInterface {
             logger.debug("MdSelfLink/@lat:flatURI["+str+"] PID["+(hasPID()?getPID():"NONE")+"] FID["+(hasFID()?getFID():"NONE")+"]");
 
             // MdSelfLink @lat:localURI
-            str = Saxon.xpath2string(Saxon.wrapNode(this.rec),"/cmd:CMD/cmd:Header/cmd:MdSelfLink/@lat:localURI",null,NAMESPACES);
+            str = (self!=null?attribute(self,LAT_NS,"localURI"):null);
             if (str!=null && !str.trim().isEmpty()) {
                 URI u = spec.toURI().resolve(new URI(null,null,str,null,null));
                 boolean m = false;
@@ -509,68 +666,152 @@ public class CMD implements SIPInterface {
                     }
                 }
                 if (!m) {
-                    if (u.toString().matches("(http(s)?://hdl.handle.net/|hdl:).*"))
+                    if (PID.isHandle(u))
                         this.setPID(u);
                     else
                         logger.warn("skipping unrecognized MdSelflink/@lat:localURI["+str+"]");
                 }
             }
             logger.debug("MdSelfLink/@lat:localURI["+str+"] PID["+(hasPID()?getPID():"NONE")+"] FID["+(hasFID()?getFID():"NONE")+"]");
+            
+            // resources and collections
+            this.saved = false;
+            this.resources.clear();
+            this.resourceIndex.clear();
+            List<CMDResource> probes = new ArrayList<>(proxies.size());
+            for (Element proxy:proxies) {
+                CMDResource res = loadResource(proxy);
+                if (res!=null)
+                    probes.add(res);
+            }
+            probeFiles(probes);
+            this.collections.clear();
+            this.collectionIndex.clear();
+            for (Element partOf:partOfs)
+                loadCollection(partOf);
+        } catch(DepositException e) {
+            throw e;
         } catch(Exception e) {
             throw new DepositException(e);
         }
     }
     
+    // backups
+    
+    /**
+     * Set the number of timestamped backups of the record to keep, the .org
+     * is always kept. A negative number keeps all of them.
+     */
+    synchronized public void setBackups(int backups) {
+        this.backups = backups;
+    }
+    
+    synchronized public int getBackups() {
+        return this.backups;
+    }
+    
+    // the record is only replaced by a rename, never written in place, so the backups can be hard links
+    private void backup() throws IOException {
+        // always keep the org around
+        File org = new File(base.toString()+".org");
+        if (!org.exists()) {
+            try {
+                Files.createLink(org.toPath(),base.toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(base.toPath(),org.toPath());
+            }
+        }
+        // and keep timestamped backups
+        FileTime stamp = Files.getLastModifiedTime(base.toPath());
+        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd-HHmmss");
+        String ext = df.format(stamp.toMillis());
+        // number on from the newest backup with the same timestamp, as prune() may have dropped older ones
+        final String prefix = base.getName()+"."+ext;
+        String[] names = base.getAbsoluteFile().getParentFile().list((dir,name) -> name.equals(prefix) || name.startsWith(prefix+"."));
+        int seq = -1;
+        for (String name:(names!=null?names:new String[0])) {
+            try {
+                seq = Math.max(seq,(name.equals(prefix)?0:Integer.parseInt(name.substring(prefix.length()+1))));
+            } catch (NumberFormatException e) {
+                // not a backup
+            }
+        }
+        File bak = new File(base.toString()+"."+ext+(seq<0?"":"."+(seq+1)));
+        try {
+            Files.createLink(bak.toPath(),base.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.move(base.toPath(),bak.toPath());
+        }
+        logger.debug("saved backup to ["+bak+"]");
+    }
+    
+    // drop the oldest timestamped backups beyond the retention count
+    private void prune() throws IOException {
+        if (this.backups<0)
+            return;
+        final Pattern pattern = Pattern.compile(Pattern.quote(base.getName())+"\\.(\\d{8}-\\d{6})(\\.(\\d+))?");
+        File[] baks = base.getAbsoluteFile().getParentFile().listFiles((dir,name) -> pattern.matcher(name).matches());
+        if (baks==null || baks.length<=this.backups)
+            return;
+        // oldest first, i.e., on timestamp and then sequence number
+        Arrays.sort(baks,Comparator.comparing((File f) -> {
+            Matcher m = pattern.matcher(f.getName());
+            m.matches();
+            return m.group(1);
+        }).thenComparingInt((File f) -> {
+            Matcher m = pattern.matcher(f.getName());
+            m.matches();
+            return (m.group(3)!=null?Integer.parseInt(m.group(3)):0);
+        }));
+        for (int i=0;i<baks.length-this.backups;i++) {
+            Files.delete(baks[i].toPath());
+            logger.debug("dropped backup ["+baks[i]+"]");
+        }
+    }
+    
     @Override
-    public boolean save() throws DepositException {
+    synchronized public boolean save() throws DepositException {
         return save(false);
     }
 
-    public boolean save(boolean force) throws DepositException {
+    synchronized public boolean save(boolean force) throws DepositException {
         boolean save = force || isDirty();
         if (save) {
+            // the DOM is about to be rewritten
+            changed();
             try {
-                if (base.exists()) {
-                    // always keep the org around
-                    File org = new File(base.toString()+".org");
-                    if (!org.exists())
-                        Files.copy(base.toPath(),org.toPath());
-                    // and keep timestamped backups
-                    FileTime stamp = Files.getLastModifiedTime(base.toPath());
-                    SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd-HHmmss");
-                    String ext = df.format(stamp.toMillis());
-                    int i = 0;
-                    File bak = new File(base.toString()+"."+ext);
-                    while (bak.exists())
-                        bak = new File(base.toString()+"."+ext+"."+(++i));
-                    Files.move(base.toPath(),bak.toPath());
-                    logger.debug("saved backup to ["+bak+"]");
-                }
                 // put PID into place
                 if (this.hasPID()) {
-                    Element self = null;
-                    XdmItem _self = Saxon.xpathSingle(Saxon.wrapNode(this.rec),"/cmd:CMD/cmd:Header/cmd:MdSelfLink",null,NAMESPACES);
-                    if (_self==null) {
-                        Element profile = (Element)Saxon.unwrapNode((XdmNode)Saxon.xpath(Saxon.wrapNode(this.rec), "/cmd:CMD/cmd:Header/cmd:MdProfile", null, NAMESPACES));
-                        Element header = (Element)Saxon.unwrapNode((XdmNode)Saxon.xpath(Saxon.wrapNode(this.rec), "/cmd:CMD/cmd:Header", null, NAMESPACES));
+                    Element header = element(rec.getDocumentElement(),CMD_NS,"Header");
+                    Element self = element(header,CMD_NS,"MdSelfLink");
+                    if (self==null) {
+                        Element profile = element(header,CMD_NS,"MdProfile");
                         self = rec.createElementNS(CMD_NS, "MdSelfLink");
                         self.setTextContent(this.getPID().toString());
                         header.insertBefore(self, profile);
-                    } else {
-                        self = (Element)Saxon.unwrapNode((XdmNode)_self);
                     }
                     self.setTextContent(this.getPID().toString());
                     if (this.hasFID()) {
                         self.setAttribute("lat:flatURI",this.getFID().toString());
                     }
                 }   
-                // save changes to the resource list
-                saveResources();
-                // save changes to the collections list
-                saveCollections();
-                DOMSource source = new DOMSource(rec);
-                Saxon.save(source,base);
+                if (this.saved) {
+                    // save changes to the resource and collections lists
+                    saveChanges();
+                } else {
+                    // the first save brings all of the resource and collections lists in line
+                    saveResources();
+                    saveCollections();
+                    this.saved = true;
+                }
+                // write the new version next to the old one, and swap them
+                File tmp = new File(base.toString()+".new");
+                Saxon.save(rec,tmp);
+                if (base.exists())
+                    backup();
+                Files.move(tmp.toPath(),base.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
                 logger.debug("saved new version to ["+base+"]");
+                prune();
             } catch(Exception e) {
                 throw new DepositException(e);
             }
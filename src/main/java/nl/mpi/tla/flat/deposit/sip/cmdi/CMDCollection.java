@@ -23,6 +23,8 @@ import java.util.regex.Matcher;
 import net.sf.saxon.s9api.XdmItem;
 import net.sf.saxon.s9api.XdmValue;
 import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.sip.FID;
+import nl.mpi.tla.flat.deposit.sip.PID;
 import nl.mpi.tla.flat.deposit.sip.SIPInterface;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
@@ -42,14 +44,14 @@ public class CMDCollection extends nl.mpi.tla.flat.deposit.sip.Collection {
     protected XdmValue namespaces;
     
     public CMDCollection(URI pid,URI fid, String namespace, XdmValue namespaces) throws DepositException {
-        this.pid = pid;
-        this.fid = fid;
+        this.pid = (pid!=null?PID.parse(pid):null);
+        this.fid = (fid!=null?FID.parse(fid):null);
         this.namespace=namespace;
         this.namespaces=namespaces;
         if (this.pid!=null)
-            this.uri = this.pid;
+            this.uri = this.pid.toURI();
         else if (this.fid!=null)
-            this.uri = this.fid;
+            this.uri = this.fid.toURI();
         else
             throw new DepositException("no collection URI found!");
     }
@@ -76,7 +78,7 @@ public class CMDCollection extends nl.mpi.tla.flat.deposit.sip.Collection {
                     }
                 }
                 if (!m) {
-                    if (u.toString().matches("(http(s)?://hdl.handle.net/|hdl:).*"))
+                    if (PID.isHandle(u))
                         this.setPID(u);
                     else
                         this.uri = u;
@@ -84,7 +86,7 @@ public class CMDCollection extends nl.mpi.tla.flat.deposit.sip.Collection {
             }
                 
             // @lat:flatURI
-            str = ((Element)node).getAttribute("lat:flatURI");
+            str = CMD.attribute((Element)node,CMD.LAT_NS,"flatURI");
             if (str!=null && !str.trim().isEmpty()) {
                 URI u = new URI(str);
                 if (base!=null)
@@ -97,7 +99,7 @@ public class CMDCollection extends nl.mpi.tla.flat.deposit.sip.Collection {
                     }
                 }
                 if (!m) {
-                    if (u.toString().matches("(http(s)?://hdl.handle.net/|hdl:).*"))
+                    if (PID.isHandle(u))
                         this.setPID(u);
                     else if (this.uri==null)
                         this.uri = u;
@@ -107,7 +109,7 @@ public class CMDCollection extends nl.mpi.tla.flat.deposit.sip.Collection {
             }
 
             // @lat:localURI
-            str = ((Element)node).getAttribute("lat:localURI");
+            str = CMD.attribute((Element)node,CMD.LAT_NS,"localURI");
             if (str!=null && !str.trim().isEmpty()) {
                 URI u = (base!=null?base.resolve(new URI(null,null,str,null,null)):new URI(str));
                 boolean m = false;
@@ -118,7 +120,7 @@ public class CMDCollection extends nl.mpi.tla.flat.deposit.sip.Collection {
                     }
                 }
                 if (!m) {
-                    if (u.toString().matches("(http(s)?://hdl.handle.net/|hdl:).*"))
+                    if (PID.isHandle(u))
                         this.setPID(u);
                     else if (this.uri==null)
                         this.uri = u;
@@ -146,22 +148,22 @@ public class CMDCollection extends nl.mpi.tla.flat.deposit.sip.Collection {
 
 
 	// node
-    public boolean hasNode() {
+    synchronized public boolean hasNode() {
         return this.node!=null;
     }
     
-    public void setNode(Node node) {
+    synchronized public void setNode(Node node) {
         if (this.hasNode())
             logger.warn("Collection["+this.uri+"] has already a Node!");
         this.node = node;
     }
     
-    public Node getNode() {
+    synchronized public Node getNode() {
         return this.node;
     }
     
     @Override
-    public void setFID(URI fid) throws DepositException {
+    synchronized public void setFID(URI fid) throws DepositException {
         boolean m = false;
         for(XdmItem ns:namespaces) {
             if (fid.toString().startsWith(ns.getStringValue()+":")) {
@@ -175,7 +177,7 @@ public class CMDCollection extends nl.mpi.tla.flat.deposit.sip.Collection {
     }
     
     @Override
-    public void save(SIPInterface sip) throws DepositException {
+    synchronized public void save(SIPInterface sip) throws DepositException {
         if (node!=null) {
             if (hasPID()) {
                 ((Element)node).setTextContent(getPID().toString());
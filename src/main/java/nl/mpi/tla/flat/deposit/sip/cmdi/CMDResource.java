@@ -20,13 +20,9 @@ import nl.mpi.tla.flat.deposit.sip.*;
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
-import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.XdmItem;
-import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.s9api.XdmValue;
 import nl.mpi.tla.flat.deposit.DepositException;
-import static nl.mpi.tla.flat.deposit.util.Global.NAMESPACES;
-import nl.mpi.tla.flat.deposit.util.Saxon;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -47,18 +43,29 @@ public class CMDResource extends Resource {
     protected XdmValue namespaces;
 
     public CMDResource(URI base,Node node,String namespace, XdmValue namespaces) throws DepositException {
+        this(base,node,namespace,namespaces,true);
+    }
+
+    /**
+     * Without the probe the local file is left to {@link #probeFile()}, so
+     * the loading SIP can check the files on disk in parallel.
+     */
+    CMDResource(URI base,Node node,String namespace, XdmValue namespaces, boolean probe) throws DepositException {
         try {
             this.node = node;
             this.namespace = namespace;
             this.namespaces = namespaces;
             
+            Element ref = CMD.element(node,CMD.CMD_NS,"ResourceRef");
+            Element type = CMD.element(node,CMD.CMD_NS,"ResourceType");
+            
             // id
-            String str = Saxon.xpath2string(Saxon.wrapNode(node),"@id",null,NAMESPACES);
+            String str = ((Element)node).getAttribute("id");
             if (str!=null && !str.trim().isEmpty())
                 setID(str);
 
             // ResourceRef value
-            str = Saxon.xpath2string(Saxon.wrapNode(node),"cmd:ResourceRef",null,NAMESPACES);
+            str = (ref!=null?ref.getTextContent():null);
             if (str!=null && !str.trim().isEmpty()) {
                 URI u = (base!=null?base.resolve(new URI(null,null,str,null,null)):new URI(str));
                 boolean m = false;
@@ -69,7 +76,7 @@ public class CMDResource extends Resource {
                     }
                 }
                 if (!m) {
-                    if (u.toString().matches("(http(s)?://hdl.handle.net/|hdl:).*"))
+                    if (PID.isHandle(u))
                         this.setPID(u);
                     else
                         this.uri = u;
@@ -77,7 +84,7 @@ public class CMDResource extends Resource {
             }
                 
             // @lat:flatURI
-            str = Saxon.xpath2string(Saxon.wrapNode(node),"cmd:ResourceRef/@lat:flatURI",null,NAMESPACES);
+            str = (ref!=null?CMD.attribute(ref,CMD.LAT_NS,"flatURI"):null);
             if (str!=null && !str.trim().isEmpty()) {
                 URI u = (base!=null?base.resolve(str):new URI(str));
                 boolean m = false;
@@ -88,7 +95,7 @@ public class CMDResource extends Resource {
                     }
                 }
                 if (!m) {
-                    if (u.toString().matches("(http(s)?://hdl.handle.net/|hdl:).*"))
+                    if (PID.isHandle(u))
                         this.setPID(u);
                     else if (this.uri==null)
                         this.uri = u;
@@ -98,7 +105,7 @@ public class CMDResource extends Resource {
             }
 
             // @lat:localURI
-            str = Saxon.xpath2string(Saxon.wrapNode(node),"cmd:ResourceRef/@lat:localURI",null,NAMESPACES);
+            str = (ref!=null?CMD.attribute(ref,CMD.LAT_NS,"localURI"):null);
             if (str!=null && !str.trim().isEmpty()) {
                 URI u = (base!=null?base.resolve(new URI(null,null,str,null,null)):new URI(str));
                 boolean m = false;
@@ -109,7 +116,7 @@ public class CMDResource extends Resource {
                     }
                 }
                 if (!m) {
-                    if (u.toString().matches("(http(s)?://hdl.handle.net/|hdl:).*"))
+                    if (PID.isHandle(u))
                         this.setPID(u);
                     else if (this.uri==null)
                         this.uri = u;
@@ -130,7 +137,7 @@ public class CMDResource extends Resource {
             }
 
             // @lat:status
-            str = Saxon.xpath2string(Saxon.wrapNode(node),"cmd:ResourceRef/@lat:status",null,NAMESPACES);
+            str = (ref!=null?CMD.attribute(ref,CMD.LAT_NS,"status"):null);
             if (str!=null && !str.trim().isEmpty()) {
                 //NOOP, INSERT, UPDATE, DELETE
                 if (str.trim().equalsIgnoreCase("NOOP")) {
@@ -146,51 +153,70 @@ public class CMDResource extends Resource {
             }
 
             // MIME type
-            if (Saxon.xpath2boolean(Saxon.wrapNode(node),"normalize-space(cmd:ResourceType/@mimetype)!=''",null,NAMESPACES)) {
-                setMime(Saxon.xpath2string(Saxon.wrapNode(node),"cmd:ResourceType/@mimetype",null,NAMESPACES));
+            if (type!=null && !type.getAttribute("mimetype").trim().isEmpty()) {
+                setMime(type.getAttribute("mimetype"));
             }
 
             // determine file 
-            if (this.uri!=null && this.uri.toString().startsWith("file:")) {
-                File resFile = new File(this.uri);
-                if (resFile.exists()) {
-                    if (resFile.canRead()) {
-                        setFile(resFile);
-                    } else
-                        logger.error("local file for ResourceProxy["+this.uri+"]["+resFile.getPath()+"] isn't readable!");
-                } else
-                    logger.error("local file for ResourceProxy["+this.uri+"]["+resFile.getPath()+"] doesn't exist!");
-            } else
-                logger.debug("no local file for ResourceProxy["+this.uri+"] known!");
-        } catch (URISyntaxException|SaxonApiException ex) {
+            if (probe)
+                probeFile();
+        } catch (URISyntaxException ex) {
             throw new DepositException(ex);
         }
     }
     
+    /**
+     * Check if the resource URI refers to a readable local file.
+     */
+    public void probeFile() {
+        File resFile = probe();
+        if (resFile!=null)
+            setFile(resFile);
+    }
+    
+    /**
+     * The readable local file the resource URI refers to, or null. Only
+     * looks at the disk, so it's safe to call from another thread.
+     */
+    File probe() {
+        if (this.uri!=null && this.uri.toString().startsWith("file:")) {
+            File resFile = new File(this.uri);
+            if (resFile.exists()) {
+                if (resFile.canRead()) {
+                    return resFile;
+                } else
+                    logger.error("local file for ResourceProxy["+this.uri+"]["+resFile.getPath()+"] isn't readable!");
+            } else
+                logger.error("local file for ResourceProxy["+this.uri+"]["+resFile.getPath()+"] doesn't exist!");
+        } else
+            logger.debug("no local file for ResourceProxy["+this.uri+"] known!");
+        return null;
+    }
+    
     public Node getNode() {
         return this.node;
     }
     
     // id
-    public boolean hasID() {
+    synchronized public boolean hasID() {
         return (this.id != null);
     }
     
-    public void setID(String id) throws DepositException {
+    synchronized public void setID(String id) throws DepositException {
         if (this.id!=null)
             throw new DepositException("Resource["+this.uri+"] has already an ID!");
         this.id = id;
         dirty();
     }
     
-    public String getID() throws DepositException {
+    synchronized public String getID() throws DepositException {
         if (this.id==null)
             throw new DepositException("Resource["+this.uri+"] has no ID yet!");
         return this.id;
     }
     
     @Override
-    public void setFID(URI fid) throws DepositException {
+    synchronized public void setFID(URI fid) throws DepositException {
         boolean m = false;
         for(XdmItem ns:namespaces) {
             if (fid.toString().startsWith(ns+":")) {
@@ -203,31 +229,27 @@ public class CMDResource extends Resource {
     }
 
     @Override
-    public void save(SIPInterface sip) throws DepositException {
+    synchronized public void save(SIPInterface sip) throws DepositException {
         if (node!=null) {
-            try {
-                if (hasMime()) {
-                        Element rt = (Element)Saxon.unwrapNode((XdmNode)Saxon.xpath(Saxon.wrapNode(node), "cmd:ResourceType", null, NAMESPACES));
-                        rt.setAttribute("mimetype", getMime());
-                }
-                Element rr = (Element)Saxon.unwrapNode((XdmNode)Saxon.xpath(Saxon.wrapNode(node), "cmd:ResourceRef", null, NAMESPACES));
-                if (hasFile())
-                    rr.setAttribute("lat:localURI",sip.getBase().getParentFile().toPath().normalize().relativize(getFile().toPath().normalize()).toString());
-                if (hasPID())
-                    rr.setTextContent(getPID().toString());
-                if (hasFID())
-                    rr.setAttribute("lat:flatURI",getFID().toString());
-                if (this.isNoop())
-                    rr.setAttribute("lat:status","NOOP");
-                else if (this.isInsert())
-                    rr.setAttribute("lat:status","INSERT");
-                else if (this.isUpdate())
-                    rr.setAttribute("lat:status","UPDATE");
-                else if (this.isDelete())
-                    rr.setAttribute("lat:status","DELETE");
-            } catch (SaxonApiException ex) {
-                throw new DepositException(ex);
+            if (hasMime()) {
+                    Element rt = CMD.element(node,CMD.CMD_NS,"ResourceType");
+                    rt.setAttribute("mimetype", getMime());
             }
+            Element rr = CMD.element(node,CMD.CMD_NS,"ResourceRef");
+            if (hasFile())
+                rr.setAttribute("lat:localURI",sip.getBase().getParentFile().toPath().normalize().relativize(getFile().toPath().normalize()).toString());
+            if (hasPID())
+                rr.setTextContent(getPID().toString());
+            if (hasFID())
+                rr.setAttribute("lat:flatURI",getFID().toString());
+            if (this.isNoop())
+                rr.setAttribute("lat:status","NOOP");
+            else if (this.isInsert())
+                rr.setAttribute("lat:status","INSERT");
+            else if (this.isUpdate())
+                rr.setAttribute("lat:status","UPDATE");
+            else if (this.isDelete())
+                rr.setAttribute("lat:status","DELETE");
         }
         clean();
     }
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compiled Attribute Value Template, i.e., the template is parsed once into
+ * literal parts, escaped parts ({{...}}) and XPath parts ({...}). The XPath
+ * parts are compiled on their first evaluation, and kept for the namespace
+ * bindings used, which are stable per call site. They only declare the
+ * variables they refer to, so only those are bound when they're evaluated.
+ */
+public final class AVT {
+
+    private static final Logger logger = LoggerFactory.getLogger(AVT.class.getName());
+
+    static protected final Pattern AVTPattern = Pattern.compile("\\{+.*?\\}+");
+
+    /**
+     * The maximum number of compiled AVTs kept in the cache.
+     */
+    static public final int AVT_CACHE_SIZE = Integer.getInteger("nl.mpi.tla.flat.deposit.avtCacheSize",4096);
+
+    static private final Map<String,AVT> cache = new LinkedHashMap<String,AVT>(256,0.75f,true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,AVT> eldest) {
+            return size() > AVT_CACHE_SIZE;
+        }
+    };
+
+    private static final int LITERAL = 0;
+    private static final int ESCAPED = 1;
+    private static final int XPATH   = 2;
+
+    private final String template;
+    private final int[] types;
+    private final String[] parts;
+    private final boolean constant;
+    private final boolean xpath;
+
+    // the XPath parts compiled for some namespace bindings, and the variables they refer to
+    static private final class Compiled {
+        final Map<String,String> nss;
+        final XPathExecutable[] xpaths;
+        final String[][] names;
+        final QName[][] vars;
+
+        Compiled(Map<String,String> nss,int parts) {
+            this.nss = nss;
+            this.xpaths = new XPathExecutable[parts];
+            this.names = new String[parts][];
+            this.vars = new QName[parts][];
+        }
+    }
+
+    private volatile Compiled compiled = null;
+
+    private AVT(String template) {
+        List<Integer> t = new ArrayList<>();
+        List<String> p = new ArrayList<>();
+        Matcher matcher = AVTPattern.matcher(template);
+        int start = 0;
+        boolean escaped = false;
+        boolean xpath = false;
+        while (matcher.find()) {
+            if (start < matcher.start()) {
+                t.add(LITERAL);
+                p.add(template.substring(start,matcher.start()));
+            }
+            String grp = matcher.group();
+            if (grp.startsWith("{{") && grp.endsWith("}}")) {
+                t.add(ESCAPED);
+                p.add(grp);
+                escaped = true;
+            } else {
+                t.add(XPATH);
+                p.add(grp.substring(1,grp.length()-1));
+                xpath = true;
+            }
+            start = matcher.end();
+        }
+        if (start < template.length()) {
+            t.add(LITERAL);
+            p.add(template.substring(start));
+        }
+        this.template = template;
+        this.types = new int[t.size()];
+        for (int i=0;i<types.length;i++)
+            this.types[i] = t.get(i);
+        this.parts = p.toArray(new String[p.size()]);
+        this.constant = !escaped && !xpath;
+        this.xpath = xpath;
+    }
+
+    /**
+     * Get the compiled version of an AVT, i.e., from the cache or parsed
+     * just-in-time.
+     */
+    static public AVT compile(String template) {
+        AVT avt = null;
+        synchronized (cache) {
+            avt = cache.get(template);
+        }
+        if (avt == null) {
+            avt = new AVT(template);
+            synchronized (cache) {
+                cache.put(template,avt);
+            }
+        }
+        return avt;
+    }
+
+    public String getTemplate() {
+        return this.template;
+    }
+
+    /**
+     * Does the AVT contain any {...} or {{...}} groups?
+     */
+    public boolean isConstant() {
+        return this.constant;
+    }
+
+    /**
+     * Does the AVT contain any {...} groups, i.e., XPath expressions?
+     */
+    public boolean hasXPath() {
+        return this.xpath;
+    }
+
+    /**
+     * Get the names of the variables referenced by the XPath expressions.
+     */
+    public Set<String> getVariables(Map<String,String> nss) throws SaxonApiException {
+        if (!xpath)
+            return Collections.emptySet();
+        Set<String> vars = new LinkedHashSet<>();
+        for (int i=0;i<types.length;i++) {
+            if (types[i] == XPATH)
+                vars.addAll(Saxon.xpathVariables(parts[i],nss));
+        }
+        return vars;
+    }
+
+    private Compiled compile(Map<String,String> nss) throws SaxonApiException {
+        Map<String,String> key = (nss!=null?nss:Collections.<String,String>emptyMap());
+        Compiled c = this.compiled;
+        if (c!=null && c.nss.equals(key))
+            return c;
+        c = new Compiled(new HashMap<>(key),types.length);
+        for (int i=0;i<types.length;i++) {
+            if (types[i] == XPATH) {
+                Set<String> refs = Saxon.xpathVariables(parts[i],nss);
+                c.xpaths[i] = Saxon.xpathExecutable(parts[i],refs,nss);
+                c.names[i] = refs.toArray(new String[refs.size()]);
+                c.vars[i] = new QName[c.names[i].length];
+                for (int v=0;v<c.names[i].length;v++)
+                    c.vars[i][v] = QName.fromClarkName(c.names[i][v]);
+            }
+        }
+        this.compiled = c;
+        return c;
+    }
+
+    public String evaluate(XdmItem ctxt,Map<String,XdmValue> vars,Map<String,String> nss,boolean unescape) throws SaxonApiException {
+        if (constant)
+            return template;
+        Compiled c = null;
+        try {
+            c = (xpath?compile(nss):null);
+        } catch(SaxonApiException e) {
+            logger.error("avt["+template+"] failed: "+e);
+            throw e;
+        }
+        StringBuilder res = new StringBuilder(template.length());
+        for (int i=0;i<types.length;i++) {
+            switch (types[i]) {
+                case LITERAL:
+                    res.append(parts[i]);
+                    break;
+                case ESCAPED:
+                    if (unescape)
+                        res.append(parts[i],1,parts[i].length()-1);
+                    else
+                        res.append(parts[i]);
+                    break;
+                default:
+                    try {
+                        XPathSelector xps = c.xpaths[i].load();
+                        xps.setContextItem(ctxt);
+                        for (int v=0;v<c.vars[i].length;v++) {
+                            XdmValue val = (vars!=null?vars.get(c.names[i][v]):null);
+                            if (val==null)
+                                throw new SaxonApiException("Undeclared variable in XPath expression: $"+c.names[i][v]);
+                            xps.setVariable(c.vars[i][v],val);
+                        }
+                        for (XdmItem item:xps)
+                            res.append(item.getStringValue());
+                    } catch(SaxonApiException e) {
+                        logger.error("avt["+template+"] failed: "+e);
+                        throw e;
+                    }
+            }
+        }
+        String s = res.toString();
+        if (logger.isDebugEnabled())
+            logger.debug("AVT result["+s+"]");
+        return s;
+    }
+
+}
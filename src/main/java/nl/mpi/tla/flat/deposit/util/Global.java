@@ -18,6 +18,7 @@ package nl.mpi.tla.flat.deposit.util;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -29,25 +30,38 @@ import static nl.mpi.tla.flat.deposit.sip.cmdi.CMD.LAT_NS;
  * @author menzowi
  */
 public class Global {
-    final static protected SimpleDateFormat ASOF = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
-    final static public Map<String,String> NAMESPACES = new LinkedHashMap<>();
+    // SimpleDateFormat isn't thread-safe, so each thread gets its own
+    final static protected ThreadLocal<SimpleDateFormat> ASOF = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+        }
+    };
+    /**
+     * The built-in namespace bindings, which are read-only as they are shared
+     * by all flows. The bindings declared by a flow are available via its
+     * {@link nl.mpi.tla.flat.deposit.Context#getNamespaces()}.
+     */
+    final static public Map<String,String> NAMESPACES;
     
     static {
-        NAMESPACES.put("cmd", CMD_NS);
-        NAMESPACES.put("lat", LAT_NS);
-        NAMESPACES.put("dc", "http://purl.org/dc/elements/1.1/");
-        NAMESPACES.put("fits", "http://hul.harvard.edu/ois/xml/ns/fits/fits_output");
-        NAMESPACES.put("flat", "java:nl.mpi.tla.flat");
-        NAMESPACES.put("foxml", "info:fedora/fedora-system:def/foxml#");
-        NAMESPACES.put("sx", "java:nl.mpi.tla.saxon");
-        NAMESPACES.put("xs", "http://www.w3.org/2001/XMLSchema");
+        Map<String,String> nss = new LinkedHashMap<>();
+        nss.put("cmd", CMD_NS);
+        nss.put("lat", LAT_NS);
+        nss.put("dc", "http://purl.org/dc/elements/1.1/");
+        nss.put("fits", "http://hul.harvard.edu/ois/xml/ns/fits/fits_output");
+        nss.put("flat", "java:nl.mpi.tla.flat");
+        nss.put("foxml", "info:fedora/fedora-system:def/foxml#");
+        nss.put("sx", "java:nl.mpi.tla.saxon");
+        nss.put("xs", "http://www.w3.org/2001/XMLSchema");
+        NAMESPACES = Collections.unmodifiableMap(nss);
     };
     
     static public String asOfDateTime(Date date) {
-        return ASOF.format(date)+"Z";
+        return ASOF.get().format(date)+"Z";
     }
 
     static public Date asOfDateTime(String date) throws ParseException {
-        return ASOF.parse(date.replaceFirst("Z$",""));
+        return ASOF.get().parse(date.replaceFirst("Z$",""));
     }
 }
@@ -16,26 +16,45 @@
  */
 package nl.mpi.tla.flat.deposit.util;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.Transform;
+import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.s9api.DocumentBuilder;
 import net.sf.saxon.s9api.Processor;
 import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
 import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
 import net.sf.saxon.s9api.XPathSelector;
 import net.sf.saxon.s9api.XQueryCompiler;
 import net.sf.saxon.s9api.XdmDestination;
@@ -44,8 +63,8 @@ import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.s9api.XdmValue;
 import net.sf.saxon.s9api.XsltCompiler;
 import net.sf.saxon.s9api.XsltExecutable;
-import net.sf.saxon.s9api.XsltTransformer;
 import net.sf.saxon.tree.wrapper.VirtualNode;
+import nl.mpi.tla.flat.deposit.monitor.Timeline;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.slf4j.Logger;
@@ -82,6 +101,10 @@ public class Saxon  extends Transform {
      * The Saxon Document Builder
      */
     static private DocumentBuilder sxDocumentBuilder = null;
+    /**
+     * The size of the buffer used when saving XML.
+     */
+    static private final int SAVE_BUFFER_SIZE = 64*1024;
 
     /**
      * Get a Saxon processor, i.e., just-in-time create the Singleton.
@@ -160,25 +183,56 @@ public class Saxon  extends Transform {
     }
 
     /**
-     * Convenience method to build a XSLT transformer from a resource.
+     * Convenience method to build a XSLT transformer from a file. The
+     * executable is cached, and recompiled when the file, or any file it
+     * includes or imports, has been modified.
      *
-     * @param uri The location of the resource
+     * @param file The location of the stylesheet
      * @return An executable XSLT
      * @throws Exception
      */
     static public XsltExecutable buildTransformer(File file) throws SaxonApiException {
-        return buildTransformer(buildDocument(new javax.xml.transform.stream.StreamSource(file)));
+        return buildTransformer(file,getXsltCompiler().getURIResolver());
     }
 
     /**
-     * Convenience method to build a XSLT transformer from a resource.
+     * Convenience method to build a XSLT transformer from a file, using a
+     * specific URIResolver for its includes and imports. As the shared
+     * XSLT compiler isn't touched this is safe to use by concurrent flows.
+     *
+     * @param file The location of the stylesheet
+     * @param resolver The resolver for includes and imports
+     * @return An executable XSLT
+     * @throws Exception
+     */
+    static public XsltExecutable buildTransformer(File file,URIResolver resolver) throws SaxonApiException {
+        return buildCachedTransformer(file.getAbsoluteFile().toURI().toString(),resolver);
+    }
+
+    /**
+     * Convenience method to build a XSLT transformer from a resource. The
+     * executable is cached, and for file: URLs recompiled when the file, or
+     * any file it includes or imports, has been modified.
      *
      * @param uri The location of the resource
      * @return An executable XSLT
      * @throws Exception
      */
     static public XsltExecutable buildTransformer(URL url) throws SaxonApiException {
-        return buildTransformer(buildDocument(new javax.xml.transform.stream.StreamSource(url.toExternalForm())));
+        return buildTransformer(url,getXsltCompiler().getURIResolver());
+    }
+
+    /**
+     * Convenience method to build a XSLT transformer from a resource, using a
+     * specific URIResolver for its includes and imports.
+     *
+     * @param uri The location of the resource
+     * @param resolver The resolver for includes and imports
+     * @return An executable XSLT
+     * @throws Exception
+     */
+    static public XsltExecutable buildTransformer(URL url,URIResolver resolver) throws SaxonApiException {
+        return buildCachedTransformer(url.toExternalForm(),resolver);
     }
 
     /**
@@ -192,6 +246,77 @@ public class Saxon  extends Transform {
         return buildTransformer(buildDocument(new javax.xml.transform.stream.StreamSource(stream)));
     }
         
+    /* XSLT cache */
+    
+    /**
+     * The maximum number of compiled XSLT stylesheets kept in the cache.
+     */
+    static public final int XSLT_CACHE_SIZE = Integer.getInteger("nl.mpi.tla.flat.deposit.xsltCacheSize",64);
+    
+    /**
+     * The cache of compiled XSLT stylesheets, in least recently used order.
+     * The key is the URI of the stylesheet and the URIResolver in use, as the
+     * latter determines which modules get included or imported. As resolvers
+     * without equals and hashCode never match, the cache is bounded.
+     */
+    static private final Map<XsltKey,XsltEntry> sxXsltCache = new LinkedHashMap<XsltKey,XsltEntry>(16,0.75f,true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<XsltKey,XsltEntry> eldest) {
+            return size() > XSLT_CACHE_SIZE;
+        }
+    };
+    
+    static private final AtomicLong sxXsltCacheHits = new AtomicLong();
+    
+    static private final AtomicLong sxXsltCacheMisses = new AtomicLong();
+    
+    static private XsltExecutable buildCachedTransformer(String uri,URIResolver resolver) throws SaxonApiException {
+        XsltKey key = new XsltKey(uri,resolver);
+        XsltEntry entry = null;
+        synchronized (sxXsltCache) {
+            entry = sxXsltCache.get(key);
+        }
+        if (entry != null) {
+            if (entry.isCurrent()) {
+                sxXsltCacheHits.incrementAndGet();
+                return entry.executable;
+            }
+            logger.debug("stylesheet["+uri+"] has been modified, recompiling");
+        }
+        sxXsltCacheMisses.incrementAndGet();
+        XsltCompiler xslc = getProcessor().newXsltCompiler();
+        DependencyResolver deps = new DependencyResolver(resolver);
+        xslc.setURIResolver(deps);
+        deps.record(uri);
+        XsltExecutable executable = xslc.compile(new StreamSource(uri));
+        synchronized (sxXsltCache) {
+            sxXsltCache.put(key,new XsltEntry(executable,deps.getDependencies()));
+        }
+        return executable;
+    }
+    
+    static public long getXsltCacheHits() {
+        return sxXsltCacheHits.get();
+    }
+    
+    static public long getXsltCacheMisses() {
+        return sxXsltCacheMisses.get();
+    }
+    
+    static public int getXsltCacheSize() {
+        synchronized (sxXsltCache) {
+            return sxXsltCache.size();
+        }
+    }
+    
+    static public void clearXsltCache() {
+        synchronized (sxXsltCache) {
+            sxXsltCache.clear();
+        }
+        sxXsltCacheHits.set(0);
+        sxXsltCacheMisses.set(0);
+    }
+        
     /**
      * Wrap a DOM Node in a Saxon XDM node.
      */
@@ -206,29 +331,134 @@ public class Saxon  extends Transform {
         return (Node)((VirtualNode)node.getUnderlyingNode()).getUnderlyingNode();
     }
     /* XPath2 utilities */
+    
+    /**
+     * The maximum number of compiled XPath expressions kept in the cache.
+     */
+    static public final int XPATH_CACHE_SIZE = Integer.getInteger("nl.mpi.tla.flat.deposit.xpathCacheSize",4096);
+    
+    /**
+     * The cache of compiled XPath expressions, in least recently used order.
+     * A compiled XPathExecutable can be shared, so an expression is compiled
+     * only once for a specific static context, i.e., variable names and
+     * namespace bindings.
+     */
+    static private final Map<XPathKey,XPathExecutable> sxXPathCache = new LinkedHashMap<XPathKey,XPathExecutable>(256,0.75f,true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<XPathKey,XPathExecutable> eldest) {
+            return size() > XPATH_CACHE_SIZE;
+        }
+    };
+    
+    static private final AtomicLong sxXPathCacheHits = new AtomicLong();
+    
+    static private final AtomicLong sxXPathCacheMisses = new AtomicLong();
+    
+    /**
+     * Get the compiled version of an XPath expression, i.e., from the cache or
+     * just-in-time compiled.
+     *
+     * @param xp The XPath expression
+     * @param vars The names of the variables to declare (optional)
+     * @param nss The namespace bindings to declare (optional)
+     * @return A Saxon XPath executable, which can be shared.
+     * @throws SaxonApiException
+     */
+    static public XPathExecutable xpathExecutable(String xp,Set<String> vars,Map<String,String> nss) throws SaxonApiException {
+        XPathKey key = new XPathKey(xp,vars,nss);
+        XPathExecutable xpe = null;
+        synchronized (sxXPathCache) {
+            xpe = sxXPathCache.get(key);
+        }
+        if (xpe != null) {
+            sxXPathCacheHits.incrementAndGet();
+            return xpe;
+        }
+        sxXPathCacheMisses.incrementAndGet();
+        XPathCompiler xpc = getProcessor().newXPathCompiler();
+        for (String name:key.vars)
+            xpc.declareVariable(new QName(name));
+        for (int i=0;i<key.nss.length;i+=2)
+            xpc.declareNamespace(key.nss[i],key.nss[i+1]);
+        xpe = xpc.compile(xp);
+        synchronized (sxXPathCache) {
+            sxXPathCache.put(key,xpe);
+        }
+        return xpe;
+    }
+    
+    static public long getXPathCacheHits() {
+        return sxXPathCacheHits.get();
+    }
+    
+    static public long getXPathCacheMisses() {
+        return sxXPathCacheMisses.get();
+    }
+    
+    static public int getXPathCacheSize() {
+        synchronized (sxXPathCache) {
+            return sxXPathCache.size();
+        }
+    }
+    
+    static public void clearXPathCache() {
+        synchronized (sxXPathCache) {
+            sxXPathCache.clear();
+        }
+        synchronized (sxXPathVariablesCache) {
+            sxXPathVariablesCache.clear();
+        }
+        sxXPathCacheHits.set(0);
+        sxXPathCacheMisses.set(0);
+    }
+
+    /**
+     * The cache of variables referenced by XPath expressions.
+     */
+    static private final Map<XPathKey,Set<String>> sxXPathVariablesCache = new LinkedHashMap<XPathKey,Set<String>>(256,0.75f,true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<XPathKey,Set<String>> eldest) {
+            return size() > XPATH_CACHE_SIZE;
+        }
+    };
+    
+    /**
+     * Get the names of the (external) variables an XPath expression refers to.
+     *
+     * @param xp The XPath expression
+     * @param nss The namespace bindings to declare (optional)
+     * @return The names of the referenced variables
+     * @throws SaxonApiException
+     */
+    static public Set<String> xpathVariables(String xp,Map<String,String> nss) throws SaxonApiException {
+        XPathKey key = new XPathKey(xp,null,nss);
+        Set<String> vars = null;
+        synchronized (sxXPathVariablesCache) {
+            vars = sxXPathVariablesCache.get(key);
+        }
+        if (vars != null)
+            return vars;
+        XPathCompiler xpc = getProcessor().newXPathCompiler();
+        xpc.setAllowUndeclaredVariables(true);
+        for (int i=0;i<key.nss.length;i+=2)
+            xpc.declareNamespace(key.nss[i],key.nss[i+1]);
+        vars = new LinkedHashSet<>();
+        for (Iterator<QName> iter=xpc.compile(xp).iterateExternalVariables();iter.hasNext();)
+            vars.add(iter.next().getClarkName());
+        vars = Collections.unmodifiableSet(vars);
+        synchronized (sxXPathVariablesCache) {
+            sxXPathVariablesCache.put(key,vars);
+        }
+        return vars;
+    }
 
     static public XPathSelector xpathCompile(XdmItem ctxt,String xp,Map<String,XdmValue> vars,Map<String,String> nss) throws SaxonApiException {
         try {
-            XPathCompiler xpc = getProcessor().newXPathCompiler();
-            if (vars!=null) {
-                for (Iterator iter = vars.keySet().iterator();iter.hasNext();) {
-                    String name  = (String)iter.next();
-                    xpc.declareVariable(new QName(name));
-                }
-            }
-            if (nss!=null) {
-                for (Iterator iter = nss.keySet().iterator();iter.hasNext();) {
-                    String prefix  = (String)iter.next();
-                    xpc.declareNamespace(prefix, nss.get(prefix));
-                }
-            }
-            XPathSelector xps = xpc.compile(xp).load();
+            XPathSelector xps = xpathExecutable(xp,(vars!=null?vars.keySet():null),nss).load();
             xps.setContextItem(ctxt);
             if (vars!=null) {
-                for (Iterator iter = vars.keySet().iterator();iter.hasNext();) {
-                    String name  = (String)iter.next();
-                    xps.setVariable(new QName(name),vars.get(name));
-                }
+                for (Map.Entry<String,XdmValue> var:vars.entrySet())
+                    xps.setVariable(new QName(var.getKey()),var.getValue());
             }
             return xps;
         } catch (SaxonApiException e) {
@@ -290,11 +520,11 @@ public class Saxon  extends Transform {
     }
 
     static public String xpath2string(XdmItem ctxt,String xp,Map<String,XdmValue> vars,Map<String,String> nss) throws SaxonApiException {
-        String res = "";
-        for (Iterator iter=xpathIterator(ctxt,xp,vars,nss);iter.hasNext();) {
-            res += ((XdmItem)iter.next()).getStringValue();
+        StringBuilder res = new StringBuilder();
+        for (Iterator<XdmItem> iter=xpathIterator(ctxt,xp,vars,nss);iter.hasNext();) {
+            res.append(iter.next().getStringValue());
         }
-        return res;
+        return res.toString();
     }
 
     static public String xpath2string(XdmItem ctxt,String xp,Map<String,XdmValue> vars) throws SaxonApiException {
@@ -324,7 +554,6 @@ public class Saxon  extends Transform {
     }
     
     /* Attribute Value Templates */
-    static protected Pattern AVTPattern = Pattern.compile("\\{+.*?\\}+");
 
     static public String avt(String avt,XdmItem ctxt,Map<String,XdmValue> vars) throws SaxonApiException {
         return avt(avt,ctxt,vars,null,true);
@@ -339,65 +568,78 @@ public class Saxon  extends Transform {
     }
 
     static public String avt(String avt,XdmItem ctxt,Map<String,XdmValue> vars,Map<String,String> nss,boolean unescape) throws SaxonApiException {
-        String res = "";
-        Matcher AVTMatcher = AVTPattern.matcher(avt);
-        int start = 0;
-        while (AVTMatcher.find()) {
-            if (start < AVTMatcher.start())
-                res += avt.substring(start,AVTMatcher.start());
-            String grp = AVTMatcher.group();
-            if (grp.startsWith("{{") && grp.endsWith("}}")) {
-                if (unescape)
-                    res += grp.substring(1,grp.length()-1);
-                else
-                    res += grp;
-            } else {
-                try {
-                    res += Saxon.xpath2string(ctxt,grp.substring(1,grp.length()-1),vars,nss);
-                } catch(SaxonApiException e) {
-                    logger.error("avt["+avt+"] failed: "+e);
-                    throw e;
-                }
-            }
-            start = AVTMatcher.end();
-        }
-        if (start < avt.length())
-            res += avt.substring(start,avt.length());
-        if (start > 0)
-            logger.debug("AVT result["+res+"]");
-        return res;
+        return AVT.compile(avt).evaluate(ctxt,vars,nss,unescape);
     }
     
     // save an XML 
     
-    static public void save(Source source,File result) throws SaxonApiException {
-        try {
-            XsltTransformer transformer = buildTransformer(Saxon.class.getResource("/identity.xsl")).load();
-            transformer.setSource(source);
-            transformer.setDestination(getProcessor().newSerializer(result));
-            transformer.transform();
-            transformer.close();
-        } catch (Exception ex) {
+    /**
+     * Get a serializer with the output properties used for all XML saved by
+     * the DoorKeeper.
+     */
+    static public Serializer newSerializer(OutputStream out) {
+        Serializer serializer = getProcessor().newSerializer(out);
+        serializer.setOutputProperty(Serializer.Property.METHOD,"xml");
+        serializer.setOutputProperty(Serializer.Property.ENCODING,"utf-8");
+        return serializer;
+    }
+    
+    static public Serializer newSerializer(Writer out) {
+        Serializer serializer = getProcessor().newSerializer(out);
+        serializer.setOutputProperty(Serializer.Property.METHOD,"xml");
+        serializer.setOutputProperty(Serializer.Property.ENCODING,"utf-8");
+        return serializer;
+    }
+    
+    /**
+     * Turn a Source into a Saxon XDM node, without copying if the Source
+     * already is a (wrapped) tree.
+     */
+    static public XdmNode asXdmNode(Source source) throws SaxonApiException {
+        if (source instanceof NodeInfo)
+            return new XdmNode((NodeInfo)source);
+        if (source instanceof DOMSource)
+            return wrapNode(((DOMSource)source).getNode());
+        return buildDocument(source);
+    }
+    
+    /**
+     * Serialize an XML tree directly into a file, i.e., without an identity
+     * transform.
+     */
+    static public void save(XdmNode node,File result) throws SaxonApiException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(result.toPath()),SAVE_BUFFER_SIZE)) {
+            Serializer serializer = newSerializer(out);
+            serializer.serializeNode(node);
+            serializer.close();
+        } catch (IOException ex) {
             throw new SaxonApiException(ex);
         }
+        Timeline.written(result);
+    }
+    
+    static public void save(Document doc,File result) throws SaxonApiException {
+        Saxon.save(wrapNode(doc),result);
+    }
+    
+    static public void save(Source source,File result) throws SaxonApiException {
+        Saxon.save(asXdmNode(source),result);
     }
     
     static public void save(XdmDestination dest,File result) throws SaxonApiException {
-        Saxon.save(dest.getXdmNode().asSource(),result);
+        Saxon.save(dest.getXdmNode(),result);
+    }
+    
+    static public String toString(XdmNode node) throws SaxonApiException {
+        StringWriter str = new StringWriter();
+        Serializer serializer = newSerializer(str);
+        serializer.serializeNode(node);
+        serializer.close();
+        return str.toString();
     }
     
     static public String toString(Source source) throws SaxonApiException {
-        try {
-            XsltTransformer transformer = buildTransformer(Saxon.class.getResource("/identity.xsl")).load();
-            transformer.setSource(source);
-            StringWriter str = new StringWriter();
-            transformer.setDestination(getProcessor().newSerializer(str));
-            transformer.transform();
-            transformer.close();
-            return str.toString();
-        } catch (Exception ex) {
-            throw new SaxonApiException(ex);
-        }
+        return Saxon.toString(asXdmNode(source));
     }
     
     // Turn an XdmItem Iterator into a List
@@ -407,6 +649,135 @@ public class Saxon  extends Transform {
         return list;
     }
     
+    // Key of a compiled XPath expression in the cache, variables and namespaces are sorted so equal sets give equal keys
+    static private final class XPathKey {
+        
+        final String xp;
+        final String[] vars;
+        final String[] nss;
+        final int hash;
+        
+        XPathKey(String xp,Set<String> vars,Map<String,String> nss) {
+            this.xp = xp;
+            this.vars = (vars!=null?vars.toArray(new String[vars.size()]):new String[0]);
+            Arrays.sort(this.vars);
+            this.nss = new String[nss!=null?2*nss.size():0];
+            if (nss!=null) {
+                String[] prefixes = nss.keySet().toArray(new String[nss.size()]);
+                Arrays.sort(prefixes);
+                int i = 0;
+                for (String prefix:prefixes) {
+                    this.nss[i++] = prefix;
+                    this.nss[i++] = nss.get(prefix);
+                }
+            }
+            this.hash = 31*(31*xp.hashCode()+Arrays.hashCode(this.vars))+Arrays.hashCode(this.nss);
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (other == this)
+                return true;
+            if (!(other instanceof XPathKey))
+                return false;
+            XPathKey key = (XPathKey)other;
+            return this.hash == key.hash && this.xp.equals(key.xp) && Arrays.equals(this.vars,key.vars) && Arrays.equals(this.nss,key.nss);
+        }
+        
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+    
+    // Key of a compiled XSLT stylesheet in the cache
+    static private final class XsltKey {
+        
+        final String uri;
+        final URIResolver resolver;
+        
+        XsltKey(String uri,URIResolver resolver) {
+            this.uri = uri;
+            this.resolver = resolver;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (other == this)
+                return true;
+            if (!(other instanceof XsltKey))
+                return false;
+            XsltKey key = (XsltKey)other;
+            return this.uri.equals(key.uri) && Objects.equals(this.resolver,key.resolver);
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31*this.uri.hashCode()+Objects.hashCode(this.resolver);
+        }
+    }
+    
+    // A compiled XSLT stylesheet and the modification times of the files it was compiled from
+    static private final class XsltEntry {
+        
+        final XsltExecutable executable;
+        final Map<File,Long> dependencies;
+        
+        XsltEntry(XsltExecutable executable,Map<File,Long> dependencies) {
+            this.executable = executable;
+            this.dependencies = dependencies;
+        }
+        
+        boolean isCurrent() {
+            for (Map.Entry<File,Long> dep:dependencies.entrySet()) {
+                if (dep.getKey().lastModified() != dep.getValue())
+                    return false;
+            }
+            return true;
+        }
+    }
+    
+    // Records the files a stylesheet includes or imports, and delegates the actual resolving
+    static private final class DependencyResolver implements URIResolver {
+        
+        final URIResolver resolver;
+        final Map<File,Long> dependencies = new LinkedHashMap<>();
+        
+        DependencyResolver(URIResolver resolver) {
+            this.resolver = resolver;
+        }
+        
+        void record(String uri) {
+            if (uri!=null && uri.startsWith("file:")) {
+                try {
+                    File file = new File(new URI(uri));
+                    dependencies.put(file,file.lastModified());
+                } catch (URISyntaxException|IllegalArgumentException e) {
+                    logger.debug("couldn't track stylesheet dependency["+uri+"]: "+e);
+                }
+            }
+        }
+        
+        Map<File,Long> getDependencies() {
+            return dependencies;
+        }
+        
+        @Override
+        public Source resolve(String href,String base) throws TransformerException {
+            Source src = (resolver!=null?resolver.resolve(href,base):null);
+            if (src!=null && src.getSystemId()!=null) {
+                record(src.getSystemId());
+            } else {
+                try {
+                    record(base!=null?new URI(base).resolve(href).toString():href);
+                } catch (URISyntaxException|IllegalArgumentException e) {
+                    logger.debug("couldn't track stylesheet dependency["+href+"]["+base+"]: "+e);
+                }
+            }
+            return src;
+        }
+    }
+    
     // Extension of default Saxon CLI with our extension functions   
     protected void initializeConfiguration(Configuration config) {
         SaxonExtensionFunctions.registerAll(config);
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmValue;
+import nl.mpi.tla.flat.deposit.action.AbstractAction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * The main flow runs as a DAG when its actions have dependencies.
+ */
+public class FlowTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // the actions performed, in the order they finished
+    static private final List<String> performed = new ArrayList<>();
+
+    // lets an action wait for another one, which can only happen when they run in parallel
+    static private CountDownLatch latch = null;
+
+    public static class Step extends AbstractAction {
+        @Override
+        public boolean perform(Context context) throws DepositException {
+            if (hasParameter("await")) {
+                try {
+                    if (!latch.await(10,TimeUnit.SECONDS))
+                        throw new DepositException("action["+getName()+"] wasn't run in parallel!");
+                } catch (InterruptedException e) {
+                    throw new DepositException(e);
+                }
+            }
+            synchronized (performed) {
+                performed.add(getName());
+            }
+            if (hasParameter("countdown"))
+                latch.countDown();
+            if (hasParameter("fail"))
+                throw new DepositException("action["+getName()+"] failed!");
+            return !hasParameter("break");
+        }
+    }
+
+    private CompiledFlow flow;
+
+    // b and c depend on a, d depends on nothing, and e depends on all the preceding actions
+    private CompiledFlow compile(String a,String b,String c,String d) throws Exception {
+        String step = Step.class.getName();
+        String spec = "<flow>"
+            + "<config>"
+            + "<property name='dk-pidList' value='{$work}/pids.csv'/>"
+            + "<property name='dk-rollbackLog' value='{$work}/rollback.log'/>"
+            + "</config>"
+            + "<main>"
+            + "<action name='a' class='"+step+"'>"+a+"</action>"
+            + "<action name='b' class='"+step+"' depends-on='a'>"+b+"</action>"
+            + "<action name='c' class='"+step+"' depends-on='a'>"+c+"</action>"
+            + "<action name='d' class='"+step+"' depends-on=''>"+d+"</action>"
+            + "<action name='e' class='"+step+"'/>"
+            + "</main>"
+            + "</flow>";
+        File file = tmp.newFile("flow.xml");
+        Files.write(file.toPath(),spec.getBytes(StandardCharsets.UTF_8));
+        flow = new CompiledFlow(file);
+        return flow;
+    }
+
+    private Flow newFlow() throws Exception {
+        Map<String,XdmValue> params = new HashMap<>();
+        params.put("work",new XdmAtomicValue(tmp.getRoot().getAbsolutePath()));
+        return flow.newFlow(params);
+    }
+
+    static private String param(String name) {
+        return "<parameter name='"+name+"' value='true'/>";
+    }
+
+    static private List<String> performed() {
+        synchronized (performed) {
+            return new ArrayList<>(performed);
+        }
+    }
+
+    @Before
+    public void reset() {
+        synchronized (performed) {
+            performed.clear();
+        }
+        latch = new CountDownLatch(1);
+    }
+
+    @After
+    public void close() {
+        if (flow != null)
+            flow.close();
+    }
+
+    @Test
+    public void dependencies() throws Exception {
+        compile("","","","");
+        assertTrue(flow.hasDependencies());
+        assertTrue(newFlow().run());
+        List<String> order = performed();
+        assertEquals(5,order.size());
+        assertTrue(order.indexOf("a") < order.indexOf("b"));
+        assertTrue(order.indexOf("a") < order.indexOf("c"));
+        assertEquals("e",order.get(4));
+    }
+
+    @Test
+    public void parallel() throws Exception {
+        // a only finishes when d has run, so they have to run at the same time
+        compile(param("await"),"","",param("countdown"));
+        assertTrue(newFlow().run());
+        List<String> order = performed();
+        assertTrue(order.indexOf("d") < order.indexOf("a"));
+        assertEquals(5,order.size());
+    }
+
+    @Test
+    public void start() throws Exception {
+        compile("","","","");
+        Flow run = newFlow();
+        assertTrue(run.run("c",null));
+        // the skipped actions count as finished
+        assertEquals(Arrays.asList("c","d","e"),sorted(performed()));
+        assertNull(run.getNext());
+    }
+
+    @Test
+    public void stop() throws Exception {
+        compile("","","","");
+        Flow run = newFlow();
+        assertTrue(run.run(null,"c"));
+        assertEquals(Arrays.asList("a","b","c"),sorted(performed()));
+        assertEquals("c",run.getNext());
+    }
+
+    @Test
+    public void startAndStop() throws Exception {
+        compile("","","","");
+        Flow run = newFlow();
+        assertTrue(run.run("b","d"));
+        assertEquals(Arrays.asList("b","c","d"),sorted(performed()));
+        assertEquals("d",run.getNext());
+    }
+
+    @Test
+    public void breaks() throws Exception {
+        compile("",param("break"),"","");
+        Flow run = newFlow();
+        assertFalse(run.run());
+        List<String> order = performed();
+        // the actions depending on the one that broke the flow aren't started
+        assertFalse(order.contains("e"));
+        assertTrue(order.contains("b"));
+        assertEquals("b",run.getNext());
+        assertFalse(run.getStatus());
+    }
+
+    @Test
+    public void failure() throws Exception {
+        compile(param("fail"),"","","");
+        Flow run = newFlow();
+        assertFalse(run.run());
+        List<String> order = performed();
+        assertTrue(order.contains("a"));
+        assertFalse(order.contains("b"));
+        assertFalse(order.contains("c"));
+        assertFalse(order.contains("e"));
+        assertEquals("a",run.getNext());
+        assertTrue(run.getContext().hasException());
+        assertEquals("action[a] failed!",run.getContext().getException().getMessage());
+    }
+
+    static private List<String> sorted(List<String> list) {
+        List<String> sorted = new ArrayList<>(list);
+        sorted.sort(null);
+        return sorted;
+    }
+}
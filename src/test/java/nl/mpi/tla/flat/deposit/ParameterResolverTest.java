@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmValue;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ParameterResolverTest {
+
+    static private Map<String,XdmValue> map(String... pairs) {
+        Map<String,XdmValue> map = new LinkedHashMap<>();
+        for (int i=0;i<pairs.length;i+=2)
+            map.put(pairs[i],new XdmAtomicValue(pairs[i+1]));
+        return map;
+    }
+
+    @Test
+    public void propertiesReferToEachOther() throws Exception {
+        // a refers to b, which is only resolved later in document order
+        Map<String,XdmValue> props = map("a","{$b}/a","b","{$c}/b","c","c");
+        new ParameterResolver(props,props,null,"property").resolve();
+        assertEquals("c/b/a",props.get("a").toString());
+        assertEquals("c/b",props.get("b").toString());
+        assertEquals("c",props.get("c").toString());
+    }
+
+    @Test
+    public void parametersReferToProperties() throws Exception {
+        Map<String,XdmValue> props = map("dir","/work");
+        Map<String,XdmValue> params = map("file","{$dir}/{{x}}");
+        new ParameterResolver(params,props,null,"parameter").resolve();
+        assertEquals("/work/{{x}}",params.get("file").toString());
+    }
+
+    @Test
+    public void multipleValues() throws Exception {
+        Map<String,XdmValue> props = map("a","A");
+        props.put("m",new XdmValue(Arrays.<XdmItem>asList(new XdmAtomicValue("{$a}1"),new XdmAtomicValue("{$a}2"))));
+        new ParameterResolver(props,props,null,"property").resolve();
+        assertEquals(2,props.get("m").size());
+        assertEquals("A1",props.get("m").itemAt(0).getStringValue());
+        assertEquals("A2",props.get("m").itemAt(1).getStringValue());
+    }
+
+    @Test
+    public void cycle() throws Exception {
+        Map<String,XdmValue> props = map("x","x","a","{$b}","b","{$c}","c","{$a}");
+        try {
+            new ParameterResolver(props,props,null,"property").resolve();
+            fail("the cycle wasn't detected");
+        } catch (DepositException e) {
+            assertTrue(e.getMessage(),e.getMessage().contains("cyclic reference[a -> b -> c -> a]"));
+        }
+    }
+
+    @Test(expected = DepositException.class)
+    public void selfReference() throws Exception {
+        Map<String,XdmValue> props = map("a","x{$a}");
+        new ParameterResolver(props,props,null,"property").resolve();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.context;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class PIDJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    static private int lines(File file) throws Exception {
+        return Files.readAllLines(file.toPath(),StandardCharsets.UTF_8).size();
+    }
+
+    @Test
+    public void missingJournalIsEmpty() throws Exception {
+        PIDJournal journal = new PIDJournal(new File(tmp.getRoot(),"pids.csv"));
+        assertTrue(journal.load().isEmpty());
+    }
+
+    @Test
+    public void replay() throws Exception {
+        File file = new File(tmp.getRoot(),"pids.csv");
+        PIDJournal journal = new PIDJournal(file);
+        journal.add(URI.create("hdl:1234/a"),URI.create("lat:a"));
+        journal.add(URI.create("hdl:1234/b"),URI.create("lat:b"));
+        assertTrue(journal.hasPending());
+        assertFalse(file.exists());
+        journal.flush();
+        assertFalse(journal.hasPending());
+        journal.delete(URI.create("hdl:1234/a"));
+        journal.add(URI.create("hdl:1234/b"),URI.create("lat:b,2"));
+        journal.add(URI.create("hdl:1234/c"),null);
+        journal.flush();
+        assertEquals(5,lines(file));
+
+        Map<URI,URI> pids = new PIDJournal(file).load();
+        assertEquals(2,pids.size());
+        assertFalse(pids.containsKey(URI.create("hdl:1234/a")));
+        assertEquals(URI.create("lat:b,2"),pids.get(URI.create("hdl:1234/b")));
+        assertTrue(pids.containsKey(URI.create("hdl:1234/c")));
+        assertNull(pids.get(URI.create("hdl:1234/c")));
+    }
+
+    @Test
+    public void compact() throws Exception {
+        File file = new File(tmp.getRoot(),"pids.csv");
+        PIDJournal journal = new PIDJournal(file);
+        for (int i=0;i<10;i++)
+            journal.add(URI.create("hdl:1234/a"),URI.create("lat:a"+i));
+        journal.add(URI.create("hdl:1234/b"),URI.create("lat:b"));
+        journal.flush();
+        assertEquals(11,lines(file));
+
+        journal = new PIDJournal(file);
+        Map<URI,URI> pids = journal.load();
+        journal.compact(pids);
+        assertEquals(2,lines(file));
+        assertEquals(pids,new PIDJournal(file).load());
+        assertFalse(new File(tmp.getRoot(),"pids.csv.new").exists());
+
+        // a journal that only holds the current PIDs isn't rewritten
+        long modified = file.lastModified();
+        file.setLastModified(modified-10000);
+        journal.compact(pids);
+        assertEquals(modified-10000,file.lastModified());
+    }
+
+    @Test
+    public void compactFlushesPending() throws Exception {
+        File file = new File(tmp.getRoot(),"pids.csv");
+        PIDJournal journal = new PIDJournal(file);
+        Map<URI,URI> pids = journal.load();
+        journal.add(URI.create("hdl:1234/a"),URI.create("lat:a"));
+        pids.put(URI.create("hdl:1234/a"),URI.create("lat:a"));
+        journal.compact(pids);
+        assertFalse(journal.hasPending());
+        assertEquals(pids,new PIDJournal(file).load());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.context;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import nl.mpi.tla.flat.deposit.util.Saxon;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class RollbackJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    static private String param(XdmItem event,String name) throws Exception {
+        return Saxon.xpath2string(event,"param[@name='"+name+"']/@value");
+    }
+
+    @Test
+    public void noLog() throws Exception {
+        RollbackJournal journal = new RollbackJournal(new File(tmp.getRoot(),"rollback.log"));
+        assertTrue(journal.getEvents("a").isEmpty());
+        assertEquals("0",Saxon.xpath2string(journal.getLog(),"count(/rollback/event)"));
+    }
+
+    @Test
+    public void eventsPerAction() throws Exception {
+        RollbackJournal journal = new RollbackJournal(new File(tmp.getRoot(),"rollback.log"));
+        journal.append("a","create","pid","hdl:1234/1");
+        journal.append("b","update","pid","hdl:1234/2","old");
+        journal.append("a","create","pid","hdl:1234/3");
+        List<XdmItem> a = journal.getEvents("a");
+        assertEquals(2,a.size());
+        assertEquals("hdl:1234/1",param(a.get(0),"pid"));
+        assertEquals("hdl:1234/3",param(a.get(1),"pid"));
+        List<XdmItem> b = journal.getEvents("b");
+        assertEquals(1,b.size());
+        assertEquals("update",Saxon.xpath2string(b.get(0),"@type"));
+        assertEquals("true",Saxon.xpath2string(b.get(0),"exists(param[@name='old'][empty(@value)])"));
+        assertTrue(journal.getEvents("c").isEmpty());
+    }
+
+    @Test
+    public void lookupAfterAppend() throws Exception {
+        RollbackJournal journal = new RollbackJournal(new File(tmp.getRoot(),"rollback.log"));
+        journal.append("a","create","n","1");
+        assertEquals(1,journal.getEvents("a").size());
+        // the index is built by now, so the appends should update it
+        journal.append("a","create","n","2");
+        journal.append("b","create","n","3");
+        assertEquals(2,journal.getEvents("a").size());
+        assertEquals("2",param(journal.getEvents("a").get(1),"n"));
+        assertEquals(1,journal.getEvents("b").size());
+        assertEquals("3",Saxon.xpath2string(journal.getLog(),"count(/rollback/event)"));
+    }
+
+    @Test
+    public void escaping() throws Exception {
+        File file = new File(tmp.getRoot(),"rollback.log");
+        RollbackJournal journal = new RollbackJournal(file);
+        String odd = "<a href=\"x\">'&amp;'</a>";
+        journal.append(odd,"create","value",odd);
+        journal.append("b","create","value","</event><event action=\"b\">");
+        journal.close();
+        // read back by a new journal, i.e., from the log
+        journal = new RollbackJournal(file);
+        List<XdmItem> events = journal.getEvents(odd);
+        assertEquals(1,events.size());
+        assertEquals(odd,param(events.get(0),"value"));
+        assertEquals(1,journal.getEvents("b").size());
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        File file = new File(tmp.getRoot(),"rollback.log");
+        RollbackJournal journal = new RollbackJournal(file);
+        journal.append("a","create","n","1");
+        journal.close();
+        journal = new RollbackJournal(file);
+        assertEquals(1,journal.getEvents("a").size());
+        journal.append("a","create","n","2");
+        assertEquals(2,journal.getEvents("a").size());
+        journal.close();
+        XdmNode log = new RollbackJournal(file).getLog();
+        assertEquals("1 2",Saxon.xpath2string(log,"string-join(/rollback/event/param/@value,' ')"));
+    }
+
+    @Test
+    public void concurrentAppends() throws Exception {
+        final RollbackJournal journal = new RollbackJournal(new File(tmp.getRoot(),"rollback.log"));
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> appends = new ArrayList<>();
+            for (int t=0;t<8;t++) {
+                final String action = "a"+t;
+                appends.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i=0;i<50;i++) {
+                            journal.append(action,"create","n",Integer.toString(i));
+                            if (i%10==0)
+                                assertEquals(i+1,journal.getEvents(action).size());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> append:appends)
+                append.get();
+        } finally {
+            pool.shutdown();
+        }
+        for (int t=0;t<8;t++) {
+            List<XdmItem> events = journal.getEvents("a"+t);
+            assertEquals(50,events.size());
+            for (int i=0;i<50;i++)
+                assertEquals(Integer.toString(i),param(events.get(i),"n"));
+        }
+        journal.close();
+    }
+}
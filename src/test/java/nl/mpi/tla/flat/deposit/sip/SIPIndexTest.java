@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.sip;
+
+import java.net.URI;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SIPIndexTest {
+
+    static private PID pid(String pid) throws Exception {
+        return PID.parse(new URI(pid));
+    }
+
+    static private FID fid(String fid) {
+        return FID.parse(URI.create(fid));
+    }
+
+    @Test
+    public void lookup() throws Exception {
+        SIPIndex<String> index = new SIPIndex<>();
+        index.put("a",pid("hdl:1234/a"),fid("lat:a#OBJ@2017-01-01T00:00:00.000Z"));
+        assertEquals("a",index.getByPID(new URI("hdl:1234/a")));
+        assertEquals("a",index.getByPID(new URI("https://hdl.handle.net/1234/a")));
+        // the FID is indexed without datastream and asOfDateTime
+        assertEquals("a",index.getByFID(new URI("lat:a")));
+        assertEquals("a",index.getByFID(new URI("lat:a#DC")));
+        assertNull(index.getByPID(new URI("hdl:1234/b")));
+        assertNull(index.getByPID(new URI("file:/tmp/a")));
+    }
+
+    @Test
+    public void firstOneWins() throws Exception {
+        SIPIndex<String> index = new SIPIndex<>();
+        index.put("a",pid("hdl:1234/x"),null);
+        index.put("b",pid("hdl:1234/x"),null);
+        assertEquals("a",index.getByPID(new URI("hdl:1234/x")));
+        // an entry that didn't win can't remove the other one
+        index.remove("b",pid("hdl:1234/x"),null);
+        assertEquals("a",index.getByPID(new URI("hdl:1234/x")));
+        index.remove("a",pid("hdl:1234/x"),null);
+        assertNull(index.getByPID(new URI("hdl:1234/x")));
+    }
+
+    @Test
+    public void update() throws Exception {
+        SIPIndex<String> index = new SIPIndex<>();
+        index.put("a",pid("hdl:1234/a"),fid("lat:a"));
+        index.updatePID("a",pid("hdl:1234/a"),pid("hdl:1234/b"));
+        index.updateFID("a",fid("lat:a"),fid("lat:b"));
+        assertNull(index.getByPID(new URI("hdl:1234/a")));
+        assertEquals("a",index.getByPID(new URI("hdl:1234/b")));
+        assertNull(index.getByFID(new URI("lat:a")));
+        assertEquals("a",index.getByFID(new URI("lat:b")));
+    }
+
+    @Test
+    public void changes() {
+        SIPIndex<String> index = new SIPIndex<>();
+        assertFalse(index.hasChanges());
+        index.changed("b");
+        index.changed("a");
+        index.changed("b");
+        assertTrue(index.hasChanges());
+        // in the order they got dirty, and only once
+        assertEquals(Arrays.asList("b","a"),index.takeChanges());
+        assertFalse(index.hasChanges());
+        assertTrue(index.takeChanges().isEmpty());
+    }
+
+    @Test
+    public void generation() throws Exception {
+        SIPIndex<String> index = new SIPIndex<>();
+        int gen = index.getGeneration();
+        index.changed("a");
+        index.put("a",pid("hdl:1234/a"),null);
+        assertEquals(gen,index.getGeneration());
+        index.linked();
+        assertEquals(gen+1,index.getGeneration());
+        index.clear();
+        assertEquals(gen+2,index.getGeneration());
+        assertFalse(index.hasChanges());
+        assertNull(index.getByPID(new URI("hdl:1234/a")));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.sip.cmdi;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Every save keeps the previous version of the record as a timestamped
+ * backup, and the .org is always kept.
+ */
+public class CMDTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File record;
+
+    @Before
+    public void workspace() throws Exception {
+        File metadata = tmp.newFolder("metadata");
+        File resources = tmp.newFolder("resources");
+        Files.write(new File(resources,"file.txt").toPath(),"test".getBytes(StandardCharsets.UTF_8));
+        record = new File(metadata,"record.cmdi");
+        try (InputStream in = CMDTest.class.getResourceAsStream("record.cmdi")) {
+            Files.copy(in,record.toPath());
+        }
+    }
+
+    private CMD load() throws Exception {
+        return new CMD(record,"lat",new XdmAtomicValue("lat"));
+    }
+
+    // the backup of the version saved at this time
+    private String backup(long time) {
+        return record.getName()+"."+new SimpleDateFormat("yyyyMMdd-HHmmss").format(time);
+    }
+
+    // save a new version of the record, and pretend the previous one was saved at this time
+    private void save(CMD sip,long time) throws Exception {
+        Files.setLastModifiedTime(record.toPath(),FileTime.fromMillis(time));
+        assertTrue(sip.save(true));
+    }
+
+    private Set<String> backups() {
+        return new TreeSet<>(Arrays.asList(record.getParentFile().list((dir,name) -> !name.equals(record.getName()))));
+    }
+
+    @Test
+    public void keepAll() throws Exception {
+        CMD sip = load();
+        assertEquals(-1,sip.getBackups());
+        for (int i=1;i<=3;i++)
+            save(sip,1483228800000L+i*1000L);
+        assertEquals(new TreeSet<>(Arrays.asList(record.getName()+".org",backup(1483228801000L),backup(1483228802000L),backup(1483228803000L))),backups());
+    }
+
+    @Test
+    public void keepTheNewest() throws Exception {
+        CMD sip = load();
+        sip.setBackups(2);
+        for (int i=1;i<=4;i++)
+            save(sip,1483228800000L+i*1000L);
+        assertEquals(new TreeSet<>(Arrays.asList(record.getName()+".org",backup(1483228803000L),backup(1483228804000L))),backups());
+    }
+
+    @Test
+    public void sameSecond() throws Exception {
+        CMD sip = load();
+        sip.setBackups(2);
+        for (int i=0;i<12;i++)
+            save(sip,1483228800000L);
+        // the sequence numbers are ordered numerically
+        String bak = backup(1483228800000L);
+        assertEquals(new TreeSet<>(Arrays.asList(record.getName()+".org",bak+".10",bak+".11")),backups());
+    }
+
+    @Test
+    public void keepOnlyTheOrg() throws Exception {
+        CMD sip = load();
+        sip.setBackups(0);
+        for (int i=1;i<=3;i++)
+            save(sip,1483228800000L+i*1000L);
+        assertEquals(new TreeSet<>(Arrays.asList(record.getName()+".org")),backups());
+    }
+
+    @Test
+    public void orgIsTheFirstVersion() throws Exception {
+        byte[] first = Files.readAllBytes(record.toPath());
+        CMD sip = load();
+        sip.setBackups(0);
+        sip.getResources().iterator().next().setMime("text/x-test");
+        save(sip,1483228801000L);
+        sip.getResources().iterator().next().setMime("text/x-other");
+        save(sip,1483228802000L);
+        assertArrayEquals(first,Files.readAllBytes(new File(record.getPath()+".org").toPath()));
+        assertEquals("text/x-other",load().getResources().iterator().next().getMime());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.util;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmValue;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AVTTest {
+
+    static private final XdmItem CTXT = new XdmAtomicValue("ctxt");
+
+    static private Map<String,XdmValue> vars() {
+        Map<String,XdmValue> vars = new HashMap<>();
+        vars.put("x",new XdmAtomicValue("X"));
+        vars.put("y",new XdmAtomicValue("Y"));
+        return vars;
+    }
+
+    @Test
+    public void literal() throws Exception {
+        AVT avt = AVT.compile("just text");
+        assertTrue(avt.isConstant());
+        assertFalse(avt.hasXPath());
+        assertEquals("just text",avt.evaluate(CTXT,null,null,true));
+    }
+
+    @Test
+    public void xpathParts() throws Exception {
+        AVT avt = AVT.compile("a{$x}b{$y}c{.}");
+        assertFalse(avt.isConstant());
+        assertTrue(avt.hasXPath());
+        assertEquals(new HashSet<>(Arrays.asList("x","y")),avt.getVariables(null));
+        assertEquals("aXbYcctxt",avt.evaluate(CTXT,vars(),null,true));
+    }
+
+    @Test
+    public void escapedBraces() throws Exception {
+        AVT avt = AVT.compile("a{{b}}c{$x}");
+        assertTrue(avt.hasXPath());
+        assertEquals("a{b}cX",avt.evaluate(CTXT,vars(),null,true));
+        assertEquals("a{{b}}cX",avt.evaluate(CTXT,vars(),null,false));
+    }
+
+    @Test
+    public void onlyEscapedBraces() throws Exception {
+        AVT avt = AVT.compile("{{$x}}");
+        assertFalse(avt.isConstant());
+        assertFalse(avt.hasXPath());
+        assertEquals("{$x}",avt.evaluate(CTXT,vars(),null,true));
+        assertEquals("{{$x}}",avt.evaluate(CTXT,vars(),null,false));
+    }
+
+    @Test
+    public void unbalancedBracesAreLiteral() throws Exception {
+        for (String template:new String[]{"a{b","a}b","{$x","{{","}}"}) {
+            AVT avt = AVT.compile(template);
+            assertTrue(template,avt.isConstant());
+            assertEquals(template,avt.evaluate(CTXT,vars(),null,true));
+        }
+        assertEquals("}X{",AVT.compile("}{$x}{").evaluate(CTXT,vars(),null,true));
+    }
+
+    @Test(expected = SaxonApiException.class)
+    public void unbalancedEscapeIsAnError() throws Exception {
+        AVT.compile("{{$x}").evaluate(CTXT,vars(),null,true);
+    }
+
+    @Test(expected = SaxonApiException.class)
+    public void undeclaredVariableIsAnError() throws Exception {
+        AVT.compile("{$z}").evaluate(CTXT,vars(),null,true);
+    }
+
+    @Test
+    public void namespaces() throws Exception {
+        XdmItem doc = Saxon.buildDocument(new StreamSource(new StringReader("<a xmlns='urn:a'><b/><b/></a>")));
+        Map<String,String> a = new HashMap<>();
+        a.put("p","urn:a");
+        Map<String,String> b = new HashMap<>();
+        b.put("p","urn:b");
+        AVT avt = AVT.compile("{count(/p:a/p:b)}");
+        assertEquals("2",avt.evaluate(doc,null,a,true));
+        // the XPath parts are recompiled for other namespace bindings
+        assertEquals("0",avt.evaluate(doc,null,b,true));
+        assertEquals("2",avt.evaluate(doc,null,a,true));
+    }
+
+    @Test
+    public void cached() {
+        assertSame(AVT.compile("x{$x}"),AVT.compile("x{$x}"));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015-2017 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import net.sf.saxon.s9api.XPathExecutable;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The XPath cache is keyed on the expression and its static context, i.e.,
+ * the declared variables and namespaces, whatever their order.
+ */
+public class SaxonTest {
+
+    static private Map<String,String> nss(String... pairs) {
+        Map<String,String> nss = new LinkedHashMap<>();
+        for (int i=0;i<pairs.length;i+=2)
+            nss.put(pairs[i],pairs[i+1]);
+        return nss;
+    }
+
+    static private Set<String> vars(String... names) {
+        return new LinkedHashSet<>(Arrays.asList(names));
+    }
+
+    @Before
+    public void clear() {
+        Saxon.clearXPathCache();
+    }
+
+    @Test
+    public void keyIgnoresTheOrderOfVariablesAndNamespaces() throws Exception {
+        XPathExecutable a = Saxon.xpathExecutable("concat($a,$b,namespace-uri-for-prefix('x',/*))",vars("a","b"),nss("x","urn:x","y","urn:y"));
+        XPathExecutable b = Saxon.xpathExecutable("concat($a,$b,namespace-uri-for-prefix('x',/*))",vars("b","a"),nss("y","urn:y","x","urn:x"));
+        assertSame(a,b);
+        assertEquals(1,Saxon.getXPathCacheMisses());
+        assertEquals(1,Saxon.getXPathCacheHits());
+        assertEquals(1,Saxon.getXPathCacheSize());
+    }
+
+    @Test
+    public void keyDistinguishesTheStaticContext() throws Exception {
+        XPathExecutable a = Saxon.xpathExecutable("/x:a",null,nss("x","urn:x"));
+        assertNotSame(a,Saxon.xpathExecutable("/x:a",null,nss("x","urn:y")));
+        assertNotSame(a,Saxon.xpathExecutable("/x:a",vars("v"),nss("x","urn:x")));
+        assertNotSame(a,Saxon.xpathExecutable("/x:b",null,nss("x","urn:x")));
+        assertEquals(4,Saxon.getXPathCacheMisses());
+        assertEquals(0,Saxon.getXPathCacheHits());
+    }
+
+    @Test
+    public void noVariablesOrNamespacesEqualsEmptyOnes() throws Exception {
+        assertSame(Saxon.xpathExecutable("1+1",null,null),Saxon.xpathExecutable("1+1",vars(),nss()));
+    }
+}